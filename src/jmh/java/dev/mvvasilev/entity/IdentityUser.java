@@ -0,0 +1,57 @@
+package dev.mvvasilev.entity;
+
+import dev.mvvasilev.util.Address;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+import java.util.Set;
+
+/**
+ * The columns of {@link User}, with the id generated by an identity column, as it was before {@link UserIdGenerator}.
+ */
+@Entity(name = "identity_user")
+public class IdentityUser {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "first_name")
+    private String firstName;
+
+    @Column(name = "last_name")
+    private String lastName;
+
+    @Column(name = "date_of_birth")
+    private LocalDate dateOfBirth;
+
+    @Column(name = "email", unique = true, nullable = false)
+    private String email;
+
+    @Column(name = "password_hash", nullable = false)
+    private String passwordHash;
+
+    @Column(name = "permissions", nullable = false)
+    private int permissions;
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "identity_user_addresses", joinColumns = @JoinColumn(name = "user_id"))
+    private Set<Address> addresses;
+
+    public IdentityUser() {
+    }
+
+    public IdentityUser(String email, String passwordHash, String firstName, String lastName, LocalDate dateOfBirth, int permissions, Set<Address> addresses) {
+        this.email = email;
+        this.passwordHash = passwordHash;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.dateOfBirth = dateOfBirth;
+        this.permissions = permissions;
+        this.addresses = addresses;
+    }
+
+    public Long getId() {
+        return id;
+    }
+}
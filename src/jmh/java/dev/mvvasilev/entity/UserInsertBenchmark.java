@@ -0,0 +1,140 @@
+package dev.mvvasilev.entity;
+
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.util.Address;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.dialect.HSQLDialect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of inserting users, along with two addresses each, against the embedded HSQLDB,
+ * when ids come from an identity column ( one insert statement per user ) and from the pooled {@link UserIdGenerator} sequence
+ * ( users and addresses inserted in JDBC batches ).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserInsertBenchmark {
+
+    private static final int USERS_PER_TRANSACTION = 500;
+
+    private SessionFactory sessionFactory;
+
+    private long counter;
+
+    @Setup
+    public void setup() {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.URL, "jdbc:hsqldb:mem:user-insert-benchmark")
+                .applySetting(AvailableSettings.USER, "sa")
+                .applySetting(AvailableSettings.PASS, "")
+                .applySetting(AvailableSettings.DIALECT, HSQLDialect.class.getName())
+                .applySetting(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .applySetting(AvailableSettings.STATEMENT_BATCH_SIZE, "50")
+                .applySetting(AvailableSettings.ORDER_INSERTS, "true")
+                .applySetting(UserIdGenerator.ALLOCATION_SIZE_SETTING, "50")
+                .build();
+
+        sessionFactory = new MetadataSources(registry)
+                .addAnnotatedClass(User.class)
+                .addAnnotatedClass(IdentityUser.class)
+                .buildMetadata()
+                .buildSessionFactory();
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncate() {
+        try (Session session = sessionFactory.openSession()) {
+            session.doWork(connection -> connection.createStatement().execute("TRUNCATE SCHEMA PUBLIC AND COMMIT NO CHECK"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(USERS_PER_TRANSACTION)
+    public void identity() {
+        try (Session session = sessionFactory.openSession()) {
+            session.beginTransaction();
+
+            for (int i = 0; i < USERS_PER_TRANSACTION; i++) {
+                long n = counter++;
+                session.persist(new IdentityUser(
+                        "user" + n + "@domain.com", "a password hash", "First", "Last", LocalDate.of(1990, 1, 1),
+                        Permission.READ_SELF.mask(), addresses(n)
+                ));
+            }
+
+            session.getTransaction().commit();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(USERS_PER_TRANSACTION)
+    public void sequence() {
+        try (Session session = sessionFactory.openSession()) {
+            session.beginTransaction();
+
+            for (int i = 0; i < USERS_PER_TRANSACTION; i++) {
+                long n = counter++;
+
+                User user = new User();
+                user.setEmail("user" + n + "@domain.com");
+                user.setPasswordHash("a password hash");
+                user.setFirstName("First");
+                user.setLastName("Last");
+                user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+                user.setPermissions(EnumSet.of(Permission.READ_SELF));
+                user.setAddresses(addresses(n));
+
+                session.persist(user);
+            }
+
+            session.getTransaction().commit();
+        }
+    }
+
+    private static Set<Address> addresses(long n) {
+        Set<Address> addresses = new HashSet<>();
+
+        for (int i = 0; i < 2; i++) {
+            Address address = new Address();
+            address.setCountry("BG");
+            address.setCity("City" + n);
+            address.setStreetAddress(i + " Some Street");
+            address.setPostCode("1000");
+            addresses.add(address);
+        }
+
+        return addresses;
+    }
+}
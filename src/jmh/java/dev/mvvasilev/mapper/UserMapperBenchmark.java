@@ -0,0 +1,101 @@
+package dev.mvvasilev.mapper;
+
+import dev.mvvasilev.dto.AddressDTO;
+import dev.mvvasilev.dto.UserDTO;
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.util.Address;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares mapping a user with two addresses to a {@link UserDTO}, and two {@link AddressDTO}s to {@link Address}es,
+ * with the {@link UserMapper} and with {@link ModelMapper}, as the facade did before.
+ * The ModelMapper instance is reused, and has discovered its type maps during warmup, so only the steady state is compared.
+ * Allocation per operation is reported by the gc profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserMapperBenchmark {
+
+    private UserMapper userMapper;
+
+    private ModelMapper modelMapper;
+
+    private User user;
+
+    private List<AddressDTO> addressDTOs;
+
+    @Setup
+    public void setup() {
+        userMapper = new UserMapper();
+        modelMapper = new ModelMapper();
+
+        user = new User();
+        user.setId(1L);
+        user.setEmail("someemail@domain.com");
+        user.setPasswordHash("a password hash");
+        user.setFirstName("First");
+        user.setLastName("Last");
+        user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+        user.setVersion(3L);
+        user.setUpdatedAt(Instant.now());
+
+        Set<Address> addresses = new HashSet<>();
+        addressDTOs = new ArrayList<>();
+
+        for (int i = 0; i < 2; i++) {
+            Address address = new Address();
+            address.setCountry("BG");
+            address.setCity("City" + i);
+            address.setStreetAddress(i + " Some Street");
+            address.setPostCode("1000");
+            addresses.add(address);
+
+            addressDTOs.add(userMapper.toAddressDTO(address));
+        }
+
+        user.setAddresses(addresses);
+    }
+
+    @Benchmark
+    public UserDTO userMapperToUserDTO() {
+        return userMapper.toUserDTO(user);
+    }
+
+    @Benchmark
+    public UserDTO modelMapperToUserDTO() {
+        return modelMapper.map(user, UserDTO.class);
+    }
+
+    @Benchmark
+    public Set<Address> userMapperToAddresses() {
+        return userMapper.toAddresses(addressDTOs);
+    }
+
+    @Benchmark
+    public Set<Address> modelMapperToAddresses() {
+        return addressDTOs.stream().map(dto -> modelMapper.map(dto, Address.class)).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,194 @@
+package dev.mvvasilev.repository;
+
+import dev.mvvasilev.dto.UserDTO;
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.entity.UserIdGenerator;
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.util.Address;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.dialect.HSQLDialect;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading users for the read endpoints by loading the managed {@link User} entities and mapping them with {@link ModelMapper},
+ * with selecting only the exposed columns into {@link UserAddressRow} projections and building the {@link UserDTO}s directly.
+ * Both read a single user by id and a page of users, each with two addresses, from the embedded HSQLDB.
+ * Allocation per operation is reported by the gc profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserReadBenchmark {
+
+    private static final int USER_COUNT = 1000;
+
+    private static final int PAGE_SIZE = 20;
+
+    private static final String ROWS_BY_ID_IN = "select new dev.mvvasilev.repository.UserAddressRow(u.id, u.firstName, u.lastName, u.email, u.dateOfBirth, u.version, u.updatedAt, a.country, a.city, a.streetAddress, a.postCode) " +
+            "from user u left join u.addresses a where u.id in :ids order by u.id";
+
+    private SessionFactory sessionFactory;
+
+    private ModelMapper modelMapper;
+
+    private List<Long> userIds;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.URL, "jdbc:hsqldb:mem:user-read-benchmark")
+                .applySetting(AvailableSettings.USER, "sa")
+                .applySetting(AvailableSettings.PASS, "")
+                .applySetting(AvailableSettings.DIALECT, HSQLDialect.class.getName())
+                .applySetting(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .applySetting(AvailableSettings.STATEMENT_BATCH_SIZE, "50")
+                .applySetting(UserIdGenerator.ALLOCATION_SIZE_SETTING, "50")
+                .build();
+
+        sessionFactory = new MetadataSources(registry)
+                .addAnnotatedClass(User.class)
+                .buildMetadata()
+                .buildSessionFactory();
+
+        modelMapper = new ModelMapper();
+        userIds = new ArrayList<>();
+
+        try (Session session = sessionFactory.openSession()) {
+            session.beginTransaction();
+
+            for (int i = 0; i < USER_COUNT; i++) {
+                User user = new User();
+                user.setEmail("user" + i + "@domain.com");
+                user.setPasswordHash("a password hash");
+                user.setFirstName("First" + i);
+                user.setLastName("Last" + i);
+                user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+                user.setPermissions(EnumSet.of(Permission.READ_SELF, Permission.UPDATE_SELF));
+                user.setAddresses(addresses(i));
+
+                session.persist(user);
+                userIds.add(user.getId());
+            }
+
+            session.getTransaction().commit();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public UserDTO entityById() {
+        try (Session session = sessionFactory.openSession()) {
+            return modelMapper.map(session.get(User.class, nextId()), UserDTO.class);
+        }
+    }
+
+    @Benchmark
+    public UserDTO projectionById() {
+        try (Session session = sessionFactory.openSession()) {
+            return toUserDTOs(session.createQuery(ROWS_BY_ID_IN, UserAddressRow.class)
+                    .setParameter("ids", Collections.singleton(nextId()))
+                    .getResultList()).get(0);
+        }
+    }
+
+    @Benchmark
+    public List<UserDTO> entityPage() {
+        try (Session session = sessionFactory.openSession()) {
+            List<User> users = session.createQuery("select distinct u from user u left join fetch u.addresses where u.id in :ids", User.class)
+                    .setParameter("ids", nextPage())
+                    .getResultList();
+
+            List<UserDTO> page = new ArrayList<>(users.size());
+
+            for (User user : users) {
+                page.add(modelMapper.map(user, UserDTO.class));
+            }
+
+            return page;
+        }
+    }
+
+    @Benchmark
+    public List<UserDTO> projectionPage() {
+        try (Session session = sessionFactory.openSession()) {
+            return toUserDTOs(session.createQuery(ROWS_BY_ID_IN, UserAddressRow.class)
+                    .setParameter("ids", nextPage())
+                    .getResultList());
+        }
+    }
+
+    private Long nextId() {
+        next = (next + 1) % USER_COUNT;
+        return userIds.get(next);
+    }
+
+    private List<Long> nextPage() {
+        next = (next + PAGE_SIZE) % (USER_COUNT - PAGE_SIZE);
+        return userIds.subList(next, next + PAGE_SIZE);
+    }
+
+    private static List<UserDTO> toUserDTOs(List<UserAddressRow> rows) {
+        Map<Long, UserDTO> usersById = new LinkedHashMap<>();
+
+        for (UserAddressRow row : rows) {
+            UserDTO user = usersById.computeIfAbsent(row.getId(), id -> row.toUserDTO());
+
+            if (row.hasAddress()) {
+                user.getAddresses().add(row.toAddressDTO());
+            }
+        }
+
+        return new ArrayList<>(usersById.values());
+    }
+
+    private static Set<Address> addresses(int n) {
+        Set<Address> addresses = new HashSet<>();
+
+        for (int i = 0; i < 2; i++) {
+            Address address = new Address();
+            address.setCountry("BG");
+            address.setCity("City" + n);
+            address.setStreetAddress(i + " Some Street");
+            address.setPostCode("1000");
+            addresses.add(address);
+        }
+
+        return addresses;
+    }
+}
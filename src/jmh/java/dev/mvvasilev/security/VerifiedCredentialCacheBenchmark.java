@@ -0,0 +1,58 @@
+package dev.mvvasilev.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of an authentication whose credentials are found in the {@link VerifiedCredentialCache}
+ * with one that misses it and has to verify the password hash.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VerifiedCredentialCacheBenchmark {
+
+    private static final String EMAIL = "someemail@domain.com";
+
+    private static final String PASSWORD = "test_password123";
+
+    private VerifiedCredentialCache credentialCache;
+
+    private PasswordEncoder passwordEncoder;
+
+    private String passwordHash;
+
+    @Setup
+    public void setup() {
+        passwordEncoder = new PasswordHashingPolicy(PasswordHashingPolicy.BCRYPT, 10, 185000, false, 0).createPasswordEncoder();
+        passwordHash = passwordEncoder.encode(PASSWORD);
+
+        credentialCache = new VerifiedCredentialCache(true, 3600, 1000);
+        credentialCache.put(EMAIL, PASSWORD, passwordHash);
+    }
+
+    @Benchmark
+    public boolean hit() {
+        return credentialCache.isVerified(EMAIL, PASSWORD, passwordHash);
+    }
+
+    @Benchmark
+    public boolean miss() {
+        return credentialCache.isVerified(EMAIL, "another_password123", passwordHash)
+                || passwordEncoder.matches(PASSWORD, passwordHash);
+    }
+}
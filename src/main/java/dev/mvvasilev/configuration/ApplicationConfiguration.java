@@ -2,14 +2,16 @@ package dev.mvvasilev.configuration;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import org.modelmapper.ModelMapper;
+import dev.mvvasilev.security.PasswordHashingPolicy;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.crypto.password.PasswordEncoder;
 
 /**
  * @author Miroslav Vasilev
@@ -18,14 +20,45 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 public class ApplicationConfiguration {
 
     @Bean
-    public BCryptPasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(PasswordHashingPolicy passwordHashingPolicy) {
+        return passwordHashingPolicy.createPasswordEncoder();
     }
 
+    /**
+     * Executor dedicated to password hashing. It is sized to the number of cores by default, as hashing is purely CPU-bound,
+     * and its queue is bounded so that a burst of logins is rejected rather than queued without limit.
+     */
     @Bean
-    public ModelMapper modelMapper() {
-        ModelMapper modelMapper = new ModelMapper();
-        return modelMapper;
+    public ThreadPoolTaskExecutor passwordHashingExecutor(
+            @Value("${security.password.hashing.pool-size:0}") int poolSize,
+            @Value("${security.password.hashing.queue-capacity:100}") int queueCapacity
+    ) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("password-hashing-");
+        return executor;
+    }
+
+    /**
+     * Executor storing the results of password hashing, such as created users and re-hashed passwords, so that the
+     * password hashing threads never wait on the database or the message broker. Its tasks mostly wait on I/O,
+     * so it is sized like the connection pool rather than to the number of cores, and its queue is bounded like the hashing one.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor userWriteExecutor(
+            @Value("${users.write.pool-size:10}") int poolSize,
+            @Value("${users.write.queue-capacity:100}") int queueCapacity
+    ) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("user-writes-");
+        return executor;
     }
 
     @Bean
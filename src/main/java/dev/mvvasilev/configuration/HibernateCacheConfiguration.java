@@ -0,0 +1,73 @@
+package dev.mvvasilev.configuration;
+
+import dev.mvvasilev.entity.User;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.jsr107.Eh107Configuration;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import java.time.Duration;
+
+/**
+ * Enables the Hibernate second-level cache for users, their addresses and the email natural id, backed by
+ * in-process JCache ( Ehcache ) regions. Every region is bounded to users.entity-cache.maximum-size entries
+ * and expires entries users.entity-cache.ttl-seconds after they were written.
+ * <p>
+ * Writes made through this instance keep the regions coherent. Writes made by other instances are only
+ * visible here once the cached entries expire, so the TTL is the upper bound on how long another instance
+ * of the service may serve a stale user. Region statistics are published under the hibernate.second.level.cache metrics.
+ *
+ * @author Miroslav Vasilev
+ */
+@Configuration
+@ConditionalOnProperty(value = "users.entity-cache.enabled", havingValue = "true")
+public class HibernateCacheConfiguration {
+
+    private static final String[] REGIONS = {
+            User.CACHE_REGION,
+            User.NATURAL_ID_CACHE_REGION,
+            User.ADDRESSES_CACHE_REGION
+    };
+
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager(
+            @Value("${users.entity-cache.ttl-seconds:60}") long ttlSeconds,
+            @Value("${users.entity-cache.maximum-size:10000}") long maximumSize
+    ) {
+        CachingProvider cachingProvider = Caching.getCachingProvider(EhcacheCachingProvider.class.getName());
+        CacheManager cacheManager = cachingProvider.getCacheManager();
+
+        for (String region : REGIONS) {
+            if (cacheManager.getCache(region) == null) {
+                cacheManager.createCache(region, Eh107Configuration.fromEhcacheCacheConfiguration(
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class, ResourcePoolsBuilder.heap(maximumSize))
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofSeconds(ttlSeconds)))
+                ));
+            }
+        }
+
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheCustomizer(CacheManager hibernateCacheManager) {
+        return properties -> {
+            properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, true);
+            properties.put(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+            properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+            properties.put(AvailableSettings.GENERATE_STATISTICS, true);
+        };
+    }
+}
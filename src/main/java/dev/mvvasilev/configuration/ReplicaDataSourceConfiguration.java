@@ -0,0 +1,63 @@
+package dev.mvvasilev.configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+import dev.mvvasilev.datasource.ReadWriteRoutingDataSource;
+import dev.mvvasilev.datasource.ReadYourWritesTracker;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Routes read-only transactions to a read replica, when spring.datasource.replica.url is set.
+ * The replica is configured with the same properties as the primary datasource, under spring.datasource.replica,
+ * including its connection pool under spring.datasource.replica.hikari.
+ *
+ * @author Miroslav Vasilev
+ */
+@Configuration
+@ConditionalOnProperty("spring.datasource.replica.url")
+public class ReplicaDataSourceConfiguration {
+
+    private static final String PRIMARY_PREFIX = "spring.datasource";
+
+    private static final String REPLICA_PREFIX = "spring.datasource.replica";
+
+    @Bean
+    @Primary
+    public DataSource dataSource(
+            Environment environment,
+            DataSourceProperties primaryProperties,
+            @Value("${spring.datasource.replica.read-your-writes-ms:5000}") long readYourWritesMillis,
+            @Value("${spring.datasource.replica.read-your-writes-maximum-size:100000}") long readYourWritesMaximumSize
+    ) throws Exception {
+        Binder binder = Binder.get(environment);
+
+        DataSourceProperties replicaProperties = binder.bind(REPLICA_PREFIX, DataSourceProperties.class).get();
+        replicaProperties.setBeanClassLoader(getClass().getClassLoader());
+        replicaProperties.afterPropertiesSet();
+
+        ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource(
+                createDataSource(binder, PRIMARY_PREFIX, primaryProperties),
+                createDataSource(binder, REPLICA_PREFIX, replicaProperties),
+                new ReadYourWritesTracker(readYourWritesMillis, readYourWritesMaximumSize)
+        );
+        routingDataSource.afterPropertiesSet();
+
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    private static HikariDataSource createDataSource(Binder binder, String prefix, DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        binder.bind(prefix + ".hikari", Bindable.ofInstance(dataSource));
+        return dataSource;
+    }
+}
@@ -0,0 +1,122 @@
+package dev.mvvasilev.configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+import dev.mvvasilev.datasource.ShardMap;
+import dev.mvvasilev.datasource.ShardRebalancer;
+import dev.mvvasilev.datasource.ShardRoutingDataSource;
+import dev.mvvasilev.entity.UserIdGenerator;
+import org.flywaydb.core.Flyway;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayMigrationStrategy;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spreads users over several databases, when users.sharding.enabled is set. Each shard is configured like the primary datasource,
+ * under users.sharding.shards[n], including its connection pool under users.sharding.shards[n].hikari.
+ * The Flyway migrations are applied to every shard.
+ * <p>
+ * Shards can only be added, never removed or reordered, as the assignment of buckets refers to them by position.
+ * Sharding can only be enabled on an empty database, and starts with every bucket on the first shard.
+ * After enabling sharding, and after adding shards, start a single instance with the --rebalance-shards argument to move buckets onto them.
+ * Sharding and the read replica cannot be enabled together.
+ *
+ * @author Miroslav Vasilev
+ */
+@Configuration
+@ConditionalOnProperty(value = "users.sharding.enabled", havingValue = "true")
+public class ShardingConfiguration {
+
+    private static final String SHARDS_PREFIX = "users.sharding.shards";
+
+    private static final String REBALANCE_OPTION = "rebalance-shards";
+
+    @Bean
+    public ShardRoutingDataSource shardRoutingDataSource(Environment environment) throws Exception {
+        Binder binder = Binder.get(environment);
+        List<DataSourceProperties> shardProperties = binder.bind(SHARDS_PREFIX, Bindable.listOf(DataSourceProperties.class)).get();
+        List<DataSource> shards = new ArrayList<>(shardProperties.size());
+
+        for (int i = 0; i < shardProperties.size(); i++) {
+            DataSourceProperties properties = shardProperties.get(i);
+            properties.setBeanClassLoader(getClass().getClassLoader());
+            properties.afterPropertiesSet();
+
+            HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+            binder.bind(SHARDS_PREFIX + "[" + i + "].hikari", Bindable.ofInstance(dataSource));
+            shards.add(dataSource);
+        }
+
+        ShardRoutingDataSource routingDataSource = new ShardRoutingDataSource(shards);
+        routingDataSource.afterPropertiesSet();
+
+        return routingDataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+    }
+
+    @Bean
+    public ShardMap shardMap(ShardRoutingDataSource shardRoutingDataSource) {
+        return new ShardMap(shardRoutingDataSource.getShard(0), shardRoutingDataSource.getShardCount());
+    }
+
+    @Bean
+    public ShardRebalancer shardRebalancer(ShardRoutingDataSource shardRoutingDataSource, ShardMap shardMap) {
+        return new ShardRebalancer(shardRoutingDataSource, shardMap);
+    }
+
+    /**
+     * Apply the migrations configured for the first shard to every shard.
+     */
+    @Bean
+    public FlywayMigrationStrategy shardMigrationStrategy(ShardRoutingDataSource shardRoutingDataSource) {
+        return flyway -> {
+            for (int shard = 0; shard < shardRoutingDataSource.getShardCount(); shard++) {
+                Flyway.configure()
+                        .configuration(flyway.getConfiguration())
+                        .dataSource(shardRoutingDataSource.getShard(shard))
+                        .load()
+                        .migrate();
+            }
+        };
+    }
+
+    /**
+     * Embed the shard and bucket in the ids of created users.
+     */
+    @Bean
+    public HibernatePropertiesCustomizer shardedUserIdCustomizer() {
+        return hibernateProperties -> hibernateProperties.put(UserIdGenerator.SHARDED_SETTING, "true");
+    }
+
+    /**
+     * Load the assignment of buckets once the migrations have been applied, so that a database which cannot be sharded
+     * fails the startup rather than the first request.
+     */
+    @Bean
+    public ApplicationRunner shardRebalancingRunner(ShardMap shardMap, ShardRebalancer shardRebalancer) {
+        return arguments -> {
+            shardMap.reload();
+
+            if (arguments.containsOption(REBALANCE_OPTION)) {
+                shardRebalancer.rebalance();
+            }
+        };
+    }
+}
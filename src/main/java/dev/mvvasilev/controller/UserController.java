@@ -1,19 +1,37 @@
 package dev.mvvasilev.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import dev.mvvasilev.dto.AuthenticateUserDTO;
+import dev.mvvasilev.dto.ImportReportDTO;
 import dev.mvvasilev.dto.RegisterUserDTO;
 import dev.mvvasilev.dto.UpdateUserDTO;
 import dev.mvvasilev.dto.UserDTO;
 import dev.mvvasilev.facade.UserFacade;
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.util.CursorPage;
+import dev.mvvasilev.util.EntityTags;
+import dev.mvvasilev.util.SlicePage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author Miroslav Vasilev
@@ -23,6 +41,10 @@ import javax.validation.constraints.NotNull;
 @CrossOrigin
 public class UserController {
 
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    private static final String MERGE_PATCH_CONTENT_TYPE = "application/merge-patch+json";
+
     private UserFacade userFacade;
 
     @Autowired
@@ -36,50 +58,183 @@ public class UserController {
         return userFacade.getAllUsersPaginated(pageable);
     }
 
+    @GetMapping("/slice")
+    @PreAuthorize("hasAuthority('READ_OTHER_USER')")
+    public SlicePage<UserDTO> queryUserSlice(
+            @NotNull Pageable pageable,
+            @RequestParam(defaultValue = "false") boolean approximateTotal
+    ) {
+        return userFacade.getUserSlice(pageable, approximateTotal);
+    }
+
+    @GetMapping("/cursor")
+    @PreAuthorize("hasAuthority('READ_OTHER_USER')")
+    public CursorPage<UserDTO> queryUsersAfterCursor(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "id") String sort,
+            @RequestParam(defaultValue = "ASC") Sort.Direction direction,
+            @RequestParam(defaultValue = "20") int size
+    ) {
+        return userFacade.getUsersAfterCursor(cursor, sort, direction, size);
+    }
+
+    @GetMapping(value = "/export", produces = NDJSON_CONTENT_TYPE)
+    @PreAuthorize("hasAuthority('EXPORT_USERS')")
+    public void exportUsers(@RequestParam(defaultValue = "false") boolean gzip, HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON_CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+
+        OutputStream outputStream = response.getOutputStream();
+
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            outputStream = new GZIPOutputStream(outputStream);
+        }
+
+        try (OutputStream exportStream = outputStream) {
+            userFacade.exportUsers(exportStream);
+        }
+    }
+
     @PostMapping("/create")
-    public long createUser(@RequestBody @Valid RegisterUserDTO registerUserDTO) {
+    public CompletableFuture<Long> createUser(@RequestBody @Valid RegisterUserDTO registerUserDTO) {
         return userFacade.createUser(registerUserDTO);
     }
 
+    @PostMapping(value = "/import", consumes = {MediaType.APPLICATION_JSON_VALUE, NDJSON_CONTENT_TYPE})
+    @PreAuthorize("hasAuthority('IMPORT_USERS')")
+    public ImportReportDTO importUsers(HttpServletRequest request) throws IOException {
+        return userFacade.importUsers(request.getInputStream());
+    }
+
     @PostMapping("/authenticate")
-    public String authenticateUser(@RequestBody @Valid AuthenticateUserDTO authenticateUserDTO) {
+    public CompletableFuture<String> authenticateUser(@RequestBody @Valid AuthenticateUserDTO authenticateUserDTO) {
         return userFacade.authenticateUser(authenticateUserDTO);
     }
 
     @GetMapping("/{userId}")
     @PreAuthorize("hasAuthority('READ_OTHER_USER')")
-    public UserDTO getUser(@PathVariable Long userId) {
-        return userFacade.getUserById(userId);
+    public ResponseEntity<UserDTO> getUser(
+            @PathVariable Long userId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        if (ifNoneMatch != null) {
+            long version = userFacade.getUserVersionById(userId);
+
+            if (EntityTags.isNotModified(ifNoneMatch, version)) {
+                return notModified(version);
+            }
+        }
+
+        return versioned(userFacade.getUserById(userId));
     }
 
     @PutMapping("/{userId}")
     @PreAuthorize("hasAuthority('UPDATE_OTHER_USER')")
-    public UserDTO updateUser(@PathVariable Long userId, @RequestBody @Valid UpdateUserDTO updateUserDTO) {
-        return userFacade.updateUserById(userId, updateUserDTO);
+    public ResponseEntity<UserDTO> updateUser(
+            @PathVariable Long userId,
+            @RequestBody @Valid UpdateUserDTO updateUserDTO,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
+    ) {
+        return versioned(userFacade.updateUserById(userId, updateUserDTO, EntityTags.expectedVersion(ifMatch)));
+    }
+
+    @PatchMapping(value = "/{userId}", consumes = {MERGE_PATCH_CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE})
+    @PreAuthorize("hasAuthority('UPDATE_OTHER_USER')")
+    public ResponseEntity<UserDTO> patchUser(
+            @PathVariable Long userId,
+            @RequestBody JsonNode patch,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
+    ) {
+        return versioned(userFacade.patchUserById(userId, patch, EntityTags.expectedVersion(ifMatch)));
+    }
+
+    /**
+     * Replace the permissions of a user, such as granting EXPORT_USERS or IMPORT_USERS to an administrator.
+     * Holders of UPDATE_PERMISSIONS can grant any permission, including UPDATE_PERMISSIONS itself.
+     */
+    @PutMapping("/{userId}/permissions")
+    @PreAuthorize("hasAuthority('UPDATE_PERMISSIONS')")
+    public Set<Permission> updatePermissions(@PathVariable Long userId, @RequestBody @NotNull Set<Permission> permissions) {
+        return userFacade.updatePermissionsById(userId, permissions);
     }
 
     @DeleteMapping("/{userId}")
     @PreAuthorize("hasAuthority('DELETE_OTHER_USER')")
-    public void deleteUser(@PathVariable Long userId) {
-        userFacade.deleteUserById(userId);
+    public void deleteUser(
+            @PathVariable Long userId,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
+    ) {
+        userFacade.deleteUserById(userId, EntityTags.expectedVersion(ifMatch));
+    }
+
+    @PostMapping("/bulk-delete")
+    @PreAuthorize("hasAuthority('DELETE_OTHER_USER')")
+    public List<Long> deleteUsers(@RequestBody @NotNull List<Long> userIds) {
+        return userFacade.deleteUsersById(userIds);
     }
 
     @GetMapping("/self")
     @PreAuthorize("hasAuthority('READ_SELF')")
-    public UserDTO getSelf(HttpServletRequest request) {
-        return userFacade.getUserFromRequest(request);
+    public ResponseEntity<UserDTO> getSelf(
+            HttpServletRequest request,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch
+    ) {
+        if (ifNoneMatch != null) {
+            long version = userFacade.getUserVersionFromRequest(request);
+
+            if (EntityTags.isNotModified(ifNoneMatch, version)) {
+                return notModified(version);
+            }
+        }
+
+        return versioned(userFacade.getUserFromRequest(request));
     }
 
     @PutMapping("/self")
     @PreAuthorize("hasAuthority('UPDATE_SELF')")
-    public UserDTO updateSelf(HttpServletRequest request, @Valid @RequestBody UpdateUserDTO updateUserDTO) {
-        return userFacade.updateUserFromRequest(request, updateUserDTO);
+    public ResponseEntity<UserDTO> updateSelf(
+            HttpServletRequest request,
+            @Valid @RequestBody UpdateUserDTO updateUserDTO,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
+    ) {
+        return versioned(userFacade.updateUserFromRequest(request, updateUserDTO, EntityTags.expectedVersion(ifMatch)));
+    }
+
+    @PatchMapping(value = "/self", consumes = {MERGE_PATCH_CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE})
+    @PreAuthorize("hasAuthority('UPDATE_SELF')")
+    public ResponseEntity<UserDTO> patchSelf(
+            HttpServletRequest request,
+            @RequestBody JsonNode patch,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
+    ) {
+        return versioned(userFacade.patchUserFromRequest(request, patch, EntityTags.expectedVersion(ifMatch)));
     }
 
     @DeleteMapping("/self")
     @PreAuthorize("hasAuthority('DELETE_SELF')")
-    public void deleteSelf(HttpServletRequest request) {
-        userFacade.deleteUserFromRequest(request);
+    public void deleteSelf(
+            HttpServletRequest request,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch
+    ) {
+        userFacade.deleteUserFromRequest(request, EntityTags.expectedVersion(ifMatch));
+    }
+
+    /**
+     * Respond with the user, its version as a strong ETag, and the time of its last update as Last-Modified
+     */
+    private static ResponseEntity<UserDTO> versioned(UserDTO user) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(EntityTags.of(user.getVersion()));
+
+        if (user.getUpdatedAt() != null) {
+            response.lastModified(user.getUpdatedAt().toEpochMilli());
+        }
+
+        return response.body(user);
+    }
+
+    private static ResponseEntity<UserDTO> notModified(long version) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(EntityTags.of(version)).build();
     }
 
 }
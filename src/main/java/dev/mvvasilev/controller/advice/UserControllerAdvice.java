@@ -2,14 +2,18 @@ package dev.mvvasilev.controller.advice;
 
 import dev.mvvasilev.controller.UserController;
 import dev.mvvasilev.dto.ErrorDTO;
+import dev.mvvasilev.exception.PreconditionFailedException;
 import dev.mvvasilev.exception.TokenAuthenticationException;
 import dev.mvvasilev.exception.UserNotFoundException;
 import dev.mvvasilev.exception.ValidationException;
 import org.springframework.http.HttpStatus;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * @author Miroslav Vasilev
  */
@@ -28,9 +32,27 @@ public class UserControllerAdvice {
         return ErrorDTO.of(HttpStatus.BAD_REQUEST, exception.getMessage());
     }
 
+    @ExceptionHandler(PreconditionFailedException.class)
+    @ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+    public ErrorDTO preconditionFailedException(PreconditionFailedException exception) {
+        return ErrorDTO.of(HttpStatus.PRECONDITION_FAILED, exception.getMessage());
+    }
+
+    @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public ErrorDTO optimisticLockingFailureException(ObjectOptimisticLockingFailureException exception) {
+        return ErrorDTO.of(HttpStatus.CONFLICT, "The user was modified concurrently. Please retry the request.");
+    }
+
     @ExceptionHandler(TokenAuthenticationException.class)
     @ResponseStatus(HttpStatus.UNAUTHORIZED)
     public ErrorDTO tokenAuthenticationException(TokenAuthenticationException e) {
         return ErrorDTO.of(HttpStatus.UNAUTHORIZED, e.getMessage());
     }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ErrorDTO rejectedExecutionException(RejectedExecutionException e) {
+        return ErrorDTO.of(HttpStatus.SERVICE_UNAVAILABLE, "The service is too busy to handle this request. Please try again later.");
+    }
 }
@@ -0,0 +1,83 @@
+package dev.mvvasilev.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends connections of read-only transactions to the replica, and all others to the primary.
+ * A principal whose own write transaction committed recently has their reads sent to the primary as well ( read-your-writes ).
+ * Writes are recorded for the principal selected by {@link ReadYourWritesContext}, if any, and for the authenticated one otherwise.
+ * <p>
+ * Must be wrapped in a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}, so that the connection
+ * is only obtained once the transaction has been marked as read-only.
+ *
+ * @author Miroslav Vasilev
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+    public enum Route {
+        PRIMARY,
+        REPLICA
+    }
+
+    private ReadYourWritesTracker readYourWritesTracker;
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, ReadYourWritesTracker readYourWritesTracker) {
+        this.readYourWritesTracker = readYourWritesTracker;
+
+        Map<Object, Object> targetDataSources = new HashMap<>();
+        targetDataSources.put(Route.PRIMARY, primary);
+        targetDataSources.put(Route.REPLICA, replica);
+
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        String principal = currentPrincipal();
+
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            recordWriteOnCommit(principal);
+            return Route.PRIMARY;
+        }
+
+        if (principal != null && readYourWritesTracker.hasRecentWrite(principal)) {
+            return Route.PRIMARY;
+        }
+
+        return Route.REPLICA;
+    }
+
+    private void recordWriteOnCommit(String principal) {
+        if (principal == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                readYourWritesTracker.recordWrite(principal);
+            }
+        });
+    }
+
+    private static String currentPrincipal() {
+        String principal = ReadYourWritesContext.currentPrincipal();
+
+        if (principal != null) {
+            return principal;
+        }
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+
+        return authentication == null ? null : authentication.getName();
+    }
+}
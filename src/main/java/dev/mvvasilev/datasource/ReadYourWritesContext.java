@@ -0,0 +1,46 @@
+package dev.mvvasilev.datasource;
+
+import java.util.function.Supplier;
+
+/**
+ * The principal which writes made by the current thread are recorded for by the {@link ReadWriteRoutingDataSource},
+ * when it is not the authenticated one. This is the case for writes made off the request thread, where nobody is authenticated,
+ * and for writes made on behalf of a user who has not authenticated yet, such as their registration.
+ *
+ * @author Miroslav Vasilev
+ */
+public final class ReadYourWritesContext {
+
+    private static final ThreadLocal<String> CURRENT_PRINCIPAL = new ThreadLocal<>();
+
+    private ReadYourWritesContext() {
+    }
+
+    /**
+     * @return The selected principal, or null if none is selected
+     */
+    public static String currentPrincipal() {
+        return CURRENT_PRINCIPAL.get();
+    }
+
+    /**
+     * Run the work with the principal selected, restoring the previous selection afterwards.
+     * Write transactions begun by the work are recorded for the principal once they commit.
+     *
+     * @param principal The name the principal authenticates with, which for users is their email
+     */
+    public static <T> T asPrincipal(String principal, Supplier<T> work) {
+        String previous = CURRENT_PRINCIPAL.get();
+        CURRENT_PRINCIPAL.set(principal);
+
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT_PRINCIPAL.remove();
+            } else {
+                CURRENT_PRINCIPAL.set(previous);
+            }
+        }
+    }
+}
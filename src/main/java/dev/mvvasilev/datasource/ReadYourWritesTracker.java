@@ -0,0 +1,36 @@
+package dev.mvvasilev.datasource;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which principals committed a write recently, so that their reads can be sent to the primary database
+ * until the replica has caught up with their own writes.
+ *
+ * @author Miroslav Vasilev
+ */
+public class ReadYourWritesTracker {
+
+    private Cache<String, Boolean> recentWriters;
+
+    /**
+     * @param windowMillis How long after a write the principal's reads are sent to the primary. Should exceed the replication lag.
+     * @param maximumSize  The maximum number of principals tracked at once
+     */
+    public ReadYourWritesTracker(long windowMillis, long maximumSize) {
+        this.recentWriters = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(windowMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public void recordWrite(String principal) {
+        recentWriters.put(principal, Boolean.TRUE);
+    }
+
+    public boolean hasRecentWrite(String principal) {
+        return recentWriters.getIfPresent(principal) != null;
+    }
+}
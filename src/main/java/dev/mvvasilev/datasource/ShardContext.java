@@ -0,0 +1,77 @@
+package dev.mvvasilev.datasource;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * The shard which connections obtained by the current thread are routed to by the {@link ShardRoutingDataSource}.
+ * A transaction is routed to the shard selected when it first obtains a connection, and stays on it until it ends.
+ *
+ * @author Miroslav Vasilev
+ */
+public final class ShardContext {
+
+    private static final ThreadLocal<Integer> CURRENT_SHARD = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    /**
+     * @return The selected shard, or null if none is selected
+     */
+    public static Integer currentShard() {
+        return CURRENT_SHARD.get();
+    }
+
+    /**
+     * Run the work with the shard selected, restoring the previous selection afterwards.
+     * Transactions begun by the work are routed to the shard, while one already in progress is not affected.
+     */
+    public static <T> T onShard(int shard, Supplier<T> work) {
+        Integer previous = CURRENT_SHARD.get();
+        CURRENT_SHARD.set(shard);
+
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                CURRENT_SHARD.remove();
+            } else {
+                CURRENT_SHARD.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Select the shard for the rest of the current transaction. Must be called before the transaction first obtains a connection.
+     *
+     * @throws IllegalStateException If no transaction is active, or another shard is already selected
+     */
+    public static void bindToTransaction(int shard) {
+        Integer current = CURRENT_SHARD.get();
+
+        if (current != null) {
+            if (!Objects.equals(current, shard)) {
+                throw new IllegalStateException("Cannot route to shard " + shard + ", as shard " + current + " is already selected.");
+            }
+
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("A shard can only be bound to an active transaction.");
+        }
+
+        CURRENT_SHARD.set(shard);
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                CURRENT_SHARD.remove();
+            }
+        });
+    }
+}
@@ -0,0 +1,209 @@
+package dev.mvvasilev.datasource;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assigns users to shards through a fixed number of virtual buckets. The bucket of a user is a hash of their normalized email,
+ * and is embedded in the low bits of their id, so lookups both by email and by id are routed to a single shard.
+ * Whole buckets rather than single users are assigned to shards, so rebalancing moves buckets without changing any id.
+ * <p>
+ * A user id is laid out as the sequence value, the shard whose sequence issued it ( {@value #ORIGIN_BITS} bits ),
+ * and the bucket ( {@value #BUCKET_BITS} bits ). Each shard has its own sequence, and the issuing shard keeps ids unique
+ * once buckets have been moved between shards with separate sequences.
+ * <p>
+ * The assignment of buckets is kept in the user_shard_bucket table of the first shard. When first loaded, it is created
+ * with every bucket on the first shard, which the {@link ShardRebalancer} then spreads over the others. It is reloaded periodically,
+ * so that buckets moved by the rebalancer are routed to their new shard by every instance.
+ * <p>
+ * Users created before sharding was enabled have ids which do not embed the bucket of their email, so the rebalancer would
+ * move them by the wrong bucket. The assignment is therefore only created while the first shard holds no users.
+ *
+ * @author Miroslav Vasilev
+ */
+public class ShardMap {
+
+    public static final int BUCKET_BITS = 10;
+
+    public static final int BUCKET_COUNT = 1 << BUCKET_BITS;
+
+    public static final int ORIGIN_BITS = 6;
+
+    public static final int MAX_SHARDS = 1 << ORIGIN_BITS;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    private int shardCount;
+
+    private volatile int[] shardOfBucket;
+
+    /**
+     * @param mappingDataSource The first shard, which holds the user_shard_bucket table
+     * @param shardCount        The number of configured shards
+     */
+    public ShardMap(DataSource mappingDataSource, int shardCount) {
+        this.jdbcTemplate = new JdbcTemplate(mappingDataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(mappingDataSource));
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * @param normalizedEmail The normalized email of a user
+     * @return The bucket of the user. Depends only on the email, and is the same on every instance.
+     */
+    public static int bucketOfEmail(String normalizedEmail) {
+        // The finalizer of MurmurHash3, spreading the bits of the string hash evenly over the buckets
+        int hash = normalizedEmail.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+
+        return hash & (BUCKET_COUNT - 1);
+    }
+
+    public static int bucketOfId(long id) {
+        return (int) (id & (BUCKET_COUNT - 1));
+    }
+
+    /**
+     * @param sequenceValue The value issued by the sequence of the origin shard
+     * @param originShard   The shard whose sequence issued the value
+     * @param bucket        The bucket of the user
+     * @return The id of the user
+     */
+    public static long composeId(long sequenceValue, int originShard, int bucket) {
+        return (sequenceValue << (BUCKET_BITS + ORIGIN_BITS)) | ((long) originShard << BUCKET_BITS) | bucket;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public int shardOfBucket(int bucket) {
+        return assignment()[bucket];
+    }
+
+    public int shardOfEmail(String normalizedEmail) {
+        return shardOfBucket(bucketOfEmail(normalizedEmail));
+    }
+
+    public int shardOfId(long id) {
+        return shardOfBucket(bucketOfId(id));
+    }
+
+    /**
+     * @return The buckets currently assigned to the shard, in ascending order
+     */
+    public List<Integer> bucketsOf(int shard) {
+        int[] assignment = assignment();
+        List<Integer> buckets = new ArrayList<>();
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            if (assignment[bucket] == shard) {
+                buckets.add(bucket);
+            }
+        }
+
+        return buckets;
+    }
+
+    /**
+     * Route the bucket to another shard, on this instance immediately, and on the others once they reload the assignment.
+     */
+    public void assign(int bucket, int shard) {
+        if (shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException("There is no shard " + shard + ".");
+        }
+
+        // Loaded first, so that the assignment exists before the bucket is updated in it
+        int[] next = assignment().clone();
+
+        jdbcTemplate.update("update user_shard_bucket set shard = ? where bucket = ?", shard, bucket);
+
+        next[bucket] = shard;
+        shardOfBucket = next;
+    }
+
+    /**
+     * Read the assignment of buckets again, picking up buckets moved by other instances.
+     */
+    public synchronized void reload() {
+        shardOfBucket = load();
+    }
+
+    private int[] assignment() {
+        int[] current = shardOfBucket;
+
+        if (current == null) {
+            synchronized (this) {
+                if (shardOfBucket == null) {
+                    shardOfBucket = load();
+                }
+
+                current = shardOfBucket;
+            }
+        }
+
+        return current;
+    }
+
+    private int[] load() {
+        List<int[]> rows = selectAssignment();
+
+        if (rows.isEmpty()) {
+            initialize();
+            rows = selectAssignment();
+        }
+
+        if (rows.size() != BUCKET_COUNT) {
+            throw new IllegalStateException("Expected " + BUCKET_COUNT + " buckets in user_shard_bucket, found " + rows.size() + ".");
+        }
+
+        int[] assignment = new int[BUCKET_COUNT];
+
+        for (int[] row : rows) {
+            if (row[1] >= shardCount) {
+                throw new IllegalStateException("Bucket " + row[0] + " is assigned to shard " + row[1] + ", but only " + shardCount + " shards are configured.");
+            }
+
+            assignment[row[0]] = row[1];
+        }
+
+        return assignment;
+    }
+
+    private List<int[]> selectAssignment() {
+        return jdbcTemplate.query("select bucket, shard from user_shard_bucket", (resultSet, rowNum) -> new int[]{resultSet.getInt(1), resultSet.getInt(2)});
+    }
+
+    private void initialize() {
+        Integer existingUsers = jdbcTemplate.queryForObject("select count(*) from \"user\"", Integer.class);
+
+        if (existingUsers != null && existingUsers > 0) {
+            throw new IllegalStateException("Cannot enable sharding, as the first shard already holds " + existingUsers + " users "
+                    + "whose ids do not embed the bucket of their email. Sharding can only be enabled on an empty database.");
+        }
+
+        List<Object[]> rows = new ArrayList<>(BUCKET_COUNT);
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            rows.add(new Object[]{bucket, 0});
+        }
+
+        try {
+            transactionTemplate.execute(status -> jdbcTemplate.batchUpdate("insert into user_shard_bucket (bucket, shard) values (?, ?)", rows));
+        } catch (DuplicateKeyException e) {
+            // Another instance created the assignment first
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package dev.mvvasilev.datasource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Moves buckets of users between shards, so that every shard holds an even share of the buckets, for example after shards are added.
+ * <p>
+ * A bucket is moved by copying its users and their addresses to the target shard in one transaction, routing the bucket to
+ * the target, and then deleting the users from the source shard. Ids do not change. Other instances keep routing the bucket to
+ * the source shard until they reload the assignment ( users.sharding.mapping-refresh-ms ), so writes to users of the moved
+ * buckets must be stopped for that long, which makes rebalancing a maintenance task.
+ * <p>
+ * A move which was interrupted can be run again. Users copied to the target before the bucket was routed to it are
+ * copied again, while users left on the source after the bucket was routed away are deleted by {@link #removeStrayUsers()},
+ * which every rebalancing begins with, as no shard may hold the users of a bucket assigned to another.
+ *
+ * @author Miroslav Vasilev
+ */
+public class ShardRebalancer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    private static final String USER_TABLE = "\"user\"";
+
+    private static final String ADDRESS_TABLE = "user_addresses";
+
+    private ShardRoutingDataSource shards;
+
+    private ShardMap shardMap;
+
+    public ShardRebalancer(ShardRoutingDataSource shards, ShardMap shardMap) {
+        this.shards = shards;
+        this.shardMap = shardMap;
+    }
+
+    /**
+     * Work out which buckets to move for every shard to hold the same number of buckets, give or take one.
+     * Overloaded shards give up their highest buckets, so running the plan twice moves nothing the second time.
+     *
+     * @return The shard each bucket to be moved should be moved to, by bucket
+     */
+    public Map<Integer, Integer> plan() {
+        int shardCount = shards.getShardCount();
+        List<List<Integer>> bucketsByShard = new ArrayList<>(shardCount);
+        int[] targetCounts = new int[shardCount];
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            bucketsByShard.add(new ArrayList<>(shardMap.bucketsOf(shard)));
+            targetCounts[shard] = ShardMap.BUCKET_COUNT / shardCount + (shard < ShardMap.BUCKET_COUNT % shardCount ? 1 : 0);
+        }
+
+        List<Integer> surplus = new ArrayList<>();
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            List<Integer> buckets = bucketsByShard.get(shard);
+
+            while (buckets.size() > targetCounts[shard]) {
+                surplus.add(buckets.remove(buckets.size() - 1));
+            }
+        }
+
+        Collections.sort(surplus);
+
+        Map<Integer, Integer> moves = new LinkedHashMap<>();
+        int next = 0;
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int missing = targetCounts[shard] - bucketsByShard.get(shard).size(); missing > 0; missing--) {
+                moves.put(surplus.get(next++), shard);
+            }
+        }
+
+        return moves;
+    }
+
+    /**
+     * Carry out the moves of {@link #plan()}, one bucket at a time.
+     *
+     * @return The number of users moved
+     */
+    public long rebalance() {
+        removeStrayUsers();
+
+        Map<Integer, Integer> moves = plan();
+        long moved = 0;
+
+        for (Map.Entry<Integer, Integer> move : moves.entrySet()) {
+            moved += moveBucket(move.getKey(), move.getValue());
+        }
+
+        LOGGER.info("Rebalanced {} buckets holding {} users over {} shards", moves.size(), moved, shards.getShardCount());
+
+        return moved;
+    }
+
+    /**
+     * Move the users of a bucket, along with their addresses, to another shard.
+     *
+     * @param bucket      The bucket to move
+     * @param targetShard The shard to move it to
+     * @return The number of users moved
+     */
+    public long moveBucket(int bucket, int targetShard) {
+        int sourceShard = shardMap.shardOfBucket(bucket);
+
+        if (sourceShard == targetShard) {
+            // Already routed to the target, by a move which may have been interrupted before deleting the users from the source
+            for (int shard = 0; shard < shards.getShardCount(); shard++) {
+                if (shard != targetShard) {
+                    removeBucket(shard, bucket);
+                }
+            }
+
+            return 0;
+        }
+
+        DataSource target = shards.getShard(targetShard);
+        JdbcTemplate sourceTemplate = new JdbcTemplate(shards.getShard(sourceShard));
+        JdbcTemplate targetTemplate = new JdbcTemplate(target);
+
+        Integer moved = new TransactionTemplate(new DataSourceTransactionManager(target)).execute(status -> {
+            // Left behind by an interrupted move of the same bucket
+            deleteBucket(targetTemplate, bucket);
+
+            int users = copyBucket(sourceTemplate, targetTemplate, USER_TABLE, "id", bucket);
+            copyBucket(sourceTemplate, targetTemplate, ADDRESS_TABLE, "user_id", bucket);
+
+            return users;
+        });
+
+        shardMap.assign(bucket, targetShard);
+        removeBucket(sourceShard, bucket);
+
+        LOGGER.info("Moved bucket {} holding {} users from shard {} to shard {}", bucket, moved, sourceShard, targetShard);
+
+        return moved;
+    }
+
+    /**
+     * Delete the users which each shard holds in buckets assigned to other shards, left behind by moves interrupted after
+     * the bucket was routed to its target. Until then, they would be listed, exported and counted twice.
+     *
+     * @return The number of users deleted
+     */
+    public long removeStrayUsers() {
+        long removed = 0;
+
+        for (int shard = 0; shard < shards.getShardCount(); shard++) {
+            List<Integer> buckets = new JdbcTemplate(shards.getShard(shard)).queryForList(
+                    "select distinct mod(id, " + ShardMap.BUCKET_COUNT + ") from " + USER_TABLE, Integer.class
+            );
+
+            for (int bucket : buckets) {
+                if (shardMap.shardOfBucket(bucket) != shard) {
+                    removed += removeBucket(shard, bucket);
+                }
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Delete the users of the bucket, along with their addresses, from the shard, in one transaction.
+     *
+     * @return The number of users deleted
+     */
+    private int removeBucket(int shard, int bucket) {
+        DataSource dataSource = shards.getShard(shard);
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+
+        Integer removed = new TransactionTemplate(new DataSourceTransactionManager(dataSource)).execute(status -> deleteBucket(template, bucket));
+
+        if (removed != null && removed > 0) {
+            LOGGER.info("Deleted {} users of bucket {} from shard {}, which the bucket is not assigned to", removed, bucket, shard);
+        }
+
+        return removed == null ? 0 : removed;
+    }
+
+    /**
+     * Copy every column of the rows of the bucket, so that columns added by later migrations are moved as well.
+     *
+     * @return The number of rows copied
+     */
+    private static int copyBucket(JdbcTemplate source, JdbcTemplate target, String table, String idColumn, int bucket) {
+        List<Map<String, Object>> rows = source.queryForList(
+                "select * from " + table + " where mod(" + idColumn + ", " + ShardMap.BUCKET_COUNT + ") = ?", bucket
+        );
+
+        if (rows.isEmpty()) {
+            return 0;
+        }
+
+        List<String> columns = new ArrayList<>(rows.get(0).keySet());
+
+        String insert = "insert into " + table + " (" + String.join(", ", columns) + ") values ("
+                + columns.stream().map(column -> "?").collect(Collectors.joining(", ")) + ")";
+
+        target.batchUpdate(insert, rows.stream()
+                .map(row -> columns.stream().map(row::get).toArray())
+                .collect(Collectors.toList()));
+
+        return rows.size();
+    }
+
+    /**
+     * @return The number of users deleted
+     */
+    private static int deleteBucket(JdbcTemplate template, int bucket) {
+        template.update("delete from " + ADDRESS_TABLE + " where mod(user_id, " + ShardMap.BUCKET_COUNT + ") = ?", bucket);
+        return template.update("delete from " + USER_TABLE + " where mod(id, " + ShardMap.BUCKET_COUNT + ") = ?", bucket);
+    }
+}
@@ -0,0 +1,54 @@
+package dev.mvvasilev.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends connections to the shard selected in the {@link ShardContext}. Connections obtained with no shard selected,
+ * such as those used for migrations and schema validation at startup, go to the first shard.
+ * <p>
+ * Must be wrapped in a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}, so that the connection
+ * of a transaction is only obtained once the shard has been selected within it.
+ *
+ * @author Miroslav Vasilev
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    private List<DataSource> shards;
+
+    public ShardRoutingDataSource(List<DataSource> shards) {
+        if (shards.isEmpty() || shards.size() > ShardMap.MAX_SHARDS) {
+            throw new IllegalArgumentException("Between 1 and " + ShardMap.MAX_SHARDS + " shards must be configured.");
+        }
+
+        this.shards = new ArrayList<>(shards);
+
+        Map<Object, Object> targetDataSources = new HashMap<>();
+
+        for (int i = 0; i < shards.size(); i++) {
+            targetDataSources.put(i, shards.get(i));
+        }
+
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(shards.get(0));
+        setLenientFallback(false);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardContext.currentShard();
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public DataSource getShard(int shard) {
+        return shards.get(shard);
+    }
+}
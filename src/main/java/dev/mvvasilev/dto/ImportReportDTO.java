@@ -0,0 +1,71 @@
+package dev.mvvasilev.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The per-row outcome of a bulk user import.
+ *
+ * @author Miroslav Vasilev
+ */
+public class ImportReportDTO {
+
+    private int created;
+
+    private int failed;
+
+    private List<ImportRowResultDTO> rows = new ArrayList<>();
+
+    public ImportReportDTO() {
+    }
+
+    public void addRow(ImportRowResultDTO row) {
+        if (row.getError() == null) {
+            created++;
+        } else {
+            failed++;
+        }
+
+        rows.add(row);
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public void setCreated(int created) {
+        this.created = created;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    public List<ImportRowResultDTO> getRows() {
+        return rows;
+    }
+
+    public void setRows(List<ImportRowResultDTO> rows) {
+        this.rows = rows;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ImportReportDTO that = (ImportReportDTO) o;
+        return created == that.created &&
+                failed == that.failed &&
+                Objects.equals(rows, that.rows);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(created, failed, rows);
+    }
+}
@@ -0,0 +1,83 @@
+package dev.mvvasilev.dto;
+
+import java.util.Objects;
+
+/**
+ * The outcome of importing a single row.
+ *
+ * @author Miroslav Vasilev
+ */
+public class ImportRowResultDTO {
+
+    private int index;
+
+    private String email;
+
+    private Long id;
+
+    private String error;
+
+    public ImportRowResultDTO() {
+    }
+
+    public ImportRowResultDTO(int index, String email, Long id, String error) {
+        this.index = index;
+        this.email = email;
+        this.id = id;
+        this.error = error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    /**
+     * @return The id of the created user, or null if the row failed
+     */
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    /**
+     * @return The reason the row failed, or null if the user was created
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ImportRowResultDTO that = (ImportRowResultDTO) o;
+        return index == that.index &&
+                Objects.equals(email, that.email) &&
+                Objects.equals(id, that.id) &&
+                Objects.equals(error, that.error);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(index, email, id, error);
+    }
+}
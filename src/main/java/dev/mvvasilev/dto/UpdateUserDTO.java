@@ -3,7 +3,7 @@ package dev.mvvasilev.dto;
 import com.fasterxml.jackson.annotation.JsonFormat;
 
 import javax.validation.constraints.Email;
-import javax.validation.constraints.NotNull;
+import javax.validation.Valid;
 import javax.validation.constraints.Size;
 import java.time.LocalDate;
 import java.util.List;
@@ -24,9 +24,11 @@ public class UpdateUserDTO {
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd")
     private LocalDate dateOfBirth;
 
-    @NotNull
+    /**
+     * The new addresses of the user, replacing the current ones. Left unchanged if null.
+     */
     @Size(min = 1)
-    private List<AddressDTO> addresses;
+    private List<@Valid AddressDTO> addresses;
 
     public UpdateUserDTO() {
     }
@@ -1,7 +1,9 @@
 package dev.mvvasilev.dto;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.Objects;
 import java.util.Set;
@@ -24,6 +26,18 @@ public class UserDTO {
 
     private Set<AddressDTO> addresses;
 
+    /**
+     * Sent as the ETag header rather than in the body
+     */
+    @JsonIgnore
+    private long version;
+
+    /**
+     * Sent as the Last-Modified header rather than in the body
+     */
+    @JsonIgnore
+    private Instant updatedAt;
+
     public UserDTO() {
     }
 
@@ -75,6 +89,22 @@ public class UserDTO {
         this.addresses = addresses;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -85,11 +115,13 @@ public class UserDTO {
                 Objects.equals(lastName, userDTO.lastName) &&
                 Objects.equals(email, userDTO.email) &&
                 Objects.equals(dateOfBirth, userDTO.dateOfBirth) &&
-                Objects.equals(addresses, userDTO.addresses);
+                Objects.equals(addresses, userDTO.addresses) &&
+                version == userDTO.version &&
+                Objects.equals(updatedAt, userDTO.updatedAt);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, firstName, lastName, email, dateOfBirth, addresses);
+        return Objects.hash(id, firstName, lastName, email, dateOfBirth, addresses, version, updatedAt);
     }
 }
@@ -1,21 +1,52 @@
 package dev.mvvasilev.entity;
 
+import dev.mvvasilev.entity.converter.PermissionSetConverter;
 import dev.mvvasilev.security.Permission;
 import dev.mvvasilev.util.Address;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.hibernate.annotations.UpdateTimestamp;
+import org.hibernate.annotations.Where;
 
 import javax.persistence.*;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
 
 /**
+ * Users marked as deleted, with a non-null deleted_at, are left out of every load and query of the entity until they are purged.
+ *
  * @author Miroslav Vasilev
  */
 @Entity(name = "user")
+@DynamicUpdate
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = User.CACHE_REGION)
+@NaturalIdCache(region = User.NATURAL_ID_CACHE_REGION)
+@Where(clause = "deleted_at is null")
+@Table(name = "`user`", uniqueConstraints = @UniqueConstraint(name = User.EMAIL_CONSTRAINT, columnNames = "email"))
 public class User {
 
+    /**
+     * The name of the unique constraint on the email column
+     */
+    public static final String EMAIL_CONSTRAINT = "uk_user_email";
+
+    public static final String CACHE_REGION = "user";
+
+    public static final String NATURAL_ID_CACHE_REGION = "user-natural-id";
+
+    public static final String ADDRESSES_CACHE_REGION = "user-addresses";
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_id_generator")
+    @GenericGenerator(name = "user_id_generator", strategy = "dev.mvvasilev.entity.UserIdGenerator")
     private Long id;
 
     @Column(name = "first_name")
@@ -27,18 +58,37 @@ public class User {
     @Column(name = "date_of_birth")
     private LocalDate dateOfBirth;
 
-    @Column(name = "email", unique = true, nullable = false)
+    @NaturalId(mutable = true)
+    @Column(name = "email", nullable = false)
     private String email;
 
     @Column(name = "password_hash", nullable = false)
     private String passwordHash;
 
-    @ElementCollection(fetch = FetchType.EAGER)
-    @CollectionTable(name = "user_permissions", joinColumns = @JoinColumn(name = "user_id"))
+    @Convert(converter = PermissionSetConverter.class)
+    @Column(name = "permissions", nullable = false, columnDefinition = "integer default 0")
     private Set<Permission> permissions;
 
+    @Column(name = "permissions_version", nullable = false, columnDefinition = "bigint default 0")
+    private long permissionsVersion;
+
+    /**
+     * Incremented on every update of the user, and exposed as the user's entity tag
+     */
+    @Version
+    @Column(name = "version", nullable = false, columnDefinition = "bigint default 0")
+    private long version;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at", nullable = false, columnDefinition = "timestamp default current_timestamp")
+    private Instant updatedAt;
+
+    @Column(name = "deleted_at")
+    private Instant deletedAt;
+
     @ElementCollection(fetch = FetchType.EAGER)
     @CollectionTable(name = "user_addresses", joinColumns = @JoinColumn(name = "user_id"))
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = User.ADDRESSES_CACHE_REGION)
     private Set<Address> addresses;
 
     public User() {
@@ -80,8 +130,11 @@ public class User {
         return email;
     }
 
+    /**
+     * Set the email of the user, normalized with {@link #normalizeEmail(String)}
+     */
     public void setEmail(String email) {
-        this.email = email;
+        this.email = normalizeEmail(email);
     }
 
     public String getPasswordHash() {
@@ -100,6 +153,38 @@ public class User {
         this.permissions = permissions;
     }
 
+    public long getPermissionsVersion() {
+        return permissionsVersion;
+    }
+
+    public void setPermissionsVersion(long permissionsVersion) {
+        this.permissionsVersion = permissionsVersion;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public Instant getDeletedAt() {
+        return deletedAt;
+    }
+
+    public void setDeletedAt(Instant deletedAt) {
+        this.deletedAt = deletedAt;
+    }
+
     public Set<Address> getAddresses() {
         return addresses;
     }
@@ -120,11 +205,26 @@ public class User {
                 Objects.equals(email, user.email) &&
                 Objects.equals(passwordHash, user.passwordHash) &&
                 Objects.equals(permissions, user.permissions) &&
+                permissionsVersion == user.permissionsVersion &&
+                version == user.version &&
+                Objects.equals(updatedAt, user.updatedAt) &&
+                Objects.equals(deletedAt, user.deletedAt) &&
                 Objects.equals(addresses, user.addresses);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, firstName, lastName, dateOfBirth, email, passwordHash, permissions, addresses);
+        return Objects.hash(id, firstName, lastName, dateOfBirth, email, passwordHash, permissions, permissionsVersion, version, updatedAt, deletedAt, addresses);
+    }
+
+    /**
+     * Emails are stored trimmed and lower-cased, so the unique constraint on the email column is case-insensitive,
+     * and must be looked up in the same form.
+     *
+     * @param email The email to normalize
+     * @return The normalized email, or null if the email is null
+     */
+    public static String normalizeEmail(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
     }
 }
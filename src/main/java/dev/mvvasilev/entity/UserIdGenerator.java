@@ -0,0 +1,88 @@
+package dev.mvvasilev.entity;
+
+import dev.mvvasilev.datasource.ShardContext;
+import dev.mvvasilev.datasource.ShardMap;
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerationException;
+import org.hibernate.id.enhanced.Optimizer;
+import org.hibernate.id.enhanced.OptimizerFactory;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generates user ids from the {@value #SEQUENCE_NAME} sequence using the pooled-lo optimizer:
+ * every call to the sequence reserves a block of allocation-size ids, which are then handed out from memory.
+ * Unlike an identity column, the id is known before the insert, so users and their addresses can be inserted in JDBC batches.
+ * <p>
+ * The allocation size is read from the {@value #ALLOCATION_SIZE_SETTING} Hibernate setting
+ * ( spring.jpa.properties.{@value #ALLOCATION_SIZE_SETTING} ), and must match the increment of the database sequence.
+ * <p>
+ * When users are sharded ( the {@value #SHARDED_SETTING} Hibernate setting ), the sequence of the shard selected in the
+ * {@link ShardContext} is used, with a block of ids reserved per shard, and the shard and the bucket of the user's email are
+ * embedded in the id ( see {@link ShardMap} ).
+ *
+ * @author Miroslav Vasilev
+ */
+public class UserIdGenerator extends SequenceStyleGenerator {
+
+    public static final String SEQUENCE_NAME = "user_id_seq";
+
+    public static final String ALLOCATION_SIZE_SETTING = "users.id.allocation-size";
+
+    public static final int DEFAULT_ALLOCATION_SIZE = 50;
+
+    public static final String SHARDED_SETTING = "users.id.sharded";
+
+    private int allocationSize;
+
+    private boolean sharded;
+
+    private Map<Integer, Optimizer> shardOptimizers = new ConcurrentHashMap<>();
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        ConfigurationService configurationService = serviceRegistry.getService(ConfigurationService.class);
+
+        allocationSize = configurationService.getSetting(ALLOCATION_SIZE_SETTING, StandardConverters.INTEGER, DEFAULT_ALLOCATION_SIZE);
+        sharded = configurationService.getSetting(SHARDED_SETTING, StandardConverters.BOOLEAN, false);
+
+        params.setProperty(SEQUENCE_PARAM, SEQUENCE_NAME);
+        params.setProperty(INITIAL_PARAM, "1");
+        params.setProperty(INCREMENT_PARAM, String.valueOf(allocationSize));
+        params.setProperty(OPT_PARAM, StandardOptimizerDescriptor.POOLED_LO.getExternalName());
+
+        super.configure(type, params, serviceRegistry);
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        if (!sharded) {
+            return super.generate(session, object);
+        }
+
+        Integer shard = ShardContext.currentShard();
+
+        if (shard == null) {
+            throw new IdentifierGenerationException("Users can only be created with a shard selected.");
+        }
+
+        // Blocks reserved from one shard's sequence must not be used on another shard
+        Optimizer optimizer = shardOptimizers.computeIfAbsent(shard, s -> OptimizerFactory.buildOptimizer(
+                StandardOptimizerDescriptor.POOLED_LO.getExternalName(), Long.class, allocationSize, 1
+        ));
+
+        long sequenceValue = ((Number) optimizer.generate(getDatabaseStructure().buildCallback(session))).longValue();
+
+        return ShardMap.composeId(sequenceValue, shard, ShardMap.bucketOfEmail(((User) object).getEmail()));
+    }
+}
@@ -0,0 +1,45 @@
+package dev.mvvasilev.entity.converter;
+
+import dev.mvvasilev.security.Permission;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Stores a set of permissions as a single integer column, with one bit per permission ( see {@link Permission#mask()} ).
+ *
+ * @author Miroslav Vasilev
+ */
+@Converter
+public class PermissionSetConverter implements AttributeConverter<Set<Permission>, Integer> {
+
+    @Override
+    public Integer convertToDatabaseColumn(Set<Permission> permissions) {
+        int mask = 0;
+
+        if (permissions != null) {
+            for (Permission permission : permissions) {
+                mask |= permission.mask();
+            }
+        }
+
+        return mask;
+    }
+
+    @Override
+    public Set<Permission> convertToEntityAttribute(Integer mask) {
+        EnumSet<Permission> permissions = EnumSet.noneOf(Permission.class);
+
+        if (mask != null) {
+            for (Permission permission : Permission.values()) {
+                if ((mask & permission.mask()) != 0) {
+                    permissions.add(permission);
+                }
+            }
+        }
+
+        return permissions;
+    }
+}
@@ -0,0 +1,12 @@
+package dev.mvvasilev.exception;
+
+/**
+ * Thrown when a conditional request's entity tag does not match the current version of the resource.
+ *
+ * @author Miroslav Vasilev
+ */
+public class PreconditionFailedException extends RuntimeException {
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+}
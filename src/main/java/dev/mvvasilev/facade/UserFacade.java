@@ -1,20 +1,51 @@
 package dev.mvvasilev.facade;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import dev.mvvasilev.common.enums.EventType;
 import dev.mvvasilev.common.service.EventLogService;
 import dev.mvvasilev.dto.*;
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.exception.UserNotFoundException;
+import dev.mvvasilev.exception.ValidationException;
+import dev.mvvasilev.mapper.UserMapper;
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.service.ApproximateUserCount;
 import dev.mvvasilev.service.AuthenticationService;
+import dev.mvvasilev.service.UserImport;
+import dev.mvvasilev.service.UserImportService;
 import dev.mvvasilev.service.UserService;
-import dev.mvvasilev.util.Address;
-import org.modelmapper.ModelMapper;
+import dev.mvvasilev.util.CursorPage;
+import dev.mvvasilev.util.SlicePage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -25,59 +56,168 @@ public class UserFacade {
 
     private static final String EVENT_SOURCE = "user-management-service";
 
+    static final int EXPORT_FLUSH_ROWS = 1000;
+
     private UserService userService;
 
-    private ModelMapper modelMapper;
+    private UserMapper userMapper;
 
     private AuthenticationService tokenProvider;
 
     private EventLogService eventLogService;
 
+    private ObjectMapper objectMapper;
+
+    private UserImportService userImportService;
+
+    private Validator validator;
+
+    private ApproximateUserCount approximateUserCount;
+
     @Autowired
-    public UserFacade(UserService userService, ModelMapper modelMapper, AuthenticationService tokenProvider, EventLogService eventLogService) {
+    public UserFacade(UserService userService, UserMapper userMapper, AuthenticationService tokenProvider, EventLogService eventLogService, ObjectMapper objectMapper, UserImportService userImportService, Validator validator, ApproximateUserCount approximateUserCount) {
         this.userService = userService;
-        this.modelMapper = modelMapper;
+        this.userMapper = userMapper;
         this.tokenProvider = tokenProvider;
         this.eventLogService = eventLogService;
+        this.objectMapper = objectMapper;
+        this.userImportService = userImportService;
+        this.validator = validator;
+        this.approximateUserCount = approximateUserCount;
     }
 
-    public long createUser(RegisterUserDTO registerUserDTO) {
+    public CompletableFuture<Long> createUser(RegisterUserDTO registerUserDTO) {
         Assert.notNull(registerUserDTO, "registerUserDTO cannot be null.");
 
-        UserDTO result = modelMapper.map(userService.createUser(
+        return userService.createUser(
                 registerUserDTO.getEmail(),
                 registerUserDTO.getRawPassword(),
                 registerUserDTO.getFirstName(),
                 registerUserDTO.getLastName(),
                 registerUserDTO.getDateOfBirth(),
-                registerUserDTO.getAddresses().stream().map(dto -> modelMapper.map(dto, Address.class)).collect(Collectors.toSet())
-        ), UserDTO.class);
+                userMapper.toAddresses(registerUserDTO.getAddresses())
+        ).thenApply(user -> {
+            // Runs on the user write executor, which stored the user, rather than on the password hashing executor
+            UserDTO result = userMapper.toUserDTO(user);
 
-        eventLogService.submitEvent(EventType.USER_CREATED, EVENT_SOURCE, LocalDateTime.now(), 0, result);
+            eventLogService.submitEvent(EventType.USER_CREATED, EVENT_SOURCE, LocalDateTime.now(), 0, result);
 
-        return result.getId();
+            return result.getId();
+        });
+    }
+
+    /**
+     * Create users from a JSON array, or a newline-delimited JSON stream, of {@link RegisterUserDTO}s.
+     * Rows are read and imported in chunks, so the import is never held in memory as a whole, and one {@link EventType#USER_CREATED}
+     * event is submitted per chunk, carrying all users created by it. A row which cannot be imported does not fail the others.
+     * If the input stops being valid JSON, the rows after the malformed one are not read.
+     *
+     * @param inputStream The stream to read the rows from
+     * @return The outcome of every row read
+     */
+    public ImportReportDTO importUsers(InputStream inputStream) throws IOException {
+        Assert.notNull(inputStream, "inputStream cannot be null");
+
+        ImportReportDTO report = new ImportReportDTO();
+        List<UserImport> chunk = new ArrayList<>(userImportService.getChunkSize());
+        int index = 0;
+
+        try (MappingIterator<RegisterUserDTO> rows = objectMapper.readerFor(RegisterUserDTO.class).readValues(inputStream)) {
+            while (rows.hasNextValue()) {
+                chunk.add(readImportRow(rows, index++));
+
+                if (chunk.size() == userImportService.getChunkSize()) {
+                    importChunk(chunk, report);
+                    chunk.clear();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            importChunk(chunk, report);
+            report.addRow(new ImportRowResultDTO(index, null, null, "The row is not valid JSON: " + e.getOriginalMessage()));
+
+            return report;
+        }
+
+        importChunk(chunk, report);
+
+        return report;
+    }
+
+    private UserImport readImportRow(MappingIterator<RegisterUserDTO> rows, int index) throws IOException {
+        RegisterUserDTO registerUserDTO;
+
+        try {
+            registerUserDTO = rows.nextValue();
+        } catch (JsonMappingException e) {
+            // The iterator skips the rest of the row, so the following rows can still be read
+            UserImport row = new UserImport(index, new User(), null);
+            row.fail("The row could not be read: " + e.getOriginalMessage());
+            return row;
+        }
+
+        User user = userMapper.toUser(registerUserDTO);
+
+        UserImport row = new UserImport(index, user, registerUserDTO.getRawPassword());
+        Set<ConstraintViolation<RegisterUserDTO>> violations = validator.validate(registerUserDTO);
+
+        if (!violations.isEmpty()) {
+            row.fail(describeViolations(violations));
+        } else {
+            user.setAddresses(userMapper.toAddresses(registerUserDTO.getAddresses()));
+        }
+
+        return row;
+    }
+
+    private void importChunk(List<UserImport> chunk, ImportReportDTO report) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+
+        userImportService.importChunk(chunk);
+
+        List<UserDTO> created = new ArrayList<>(chunk.size());
+
+        for (UserImport row : chunk) {
+            User user = row.getUser();
+
+            if (row.isFailed()) {
+                report.addRow(new ImportRowResultDTO(row.getIndex(), user.getEmail(), null, row.getError()));
+            } else {
+                report.addRow(new ImportRowResultDTO(row.getIndex(), user.getEmail(), user.getId(), null));
+                created.add(userMapper.toUserDTO(user));
+            }
+        }
+
+        if (!created.isEmpty()) {
+            eventLogService.submitEvent(EventType.USER_CREATED, EVENT_SOURCE, LocalDateTime.now(), 0, created);
+        }
     }
 
     public UserDTO getUserById(long userId) {
-        return modelMapper.map(
-                userService.getUser(userId),
-                UserDTO.class
-        );
+        return userService.getUserDTO(userId);
     }
 
-    public UserDTO updateUserById(long userId, UpdateUserDTO updateUserDTO) {
+    public long getUserVersionById(long userId) {
+        return userService.getUserVersion(userId);
+    }
+
+    /**
+     * @param expectedVersion The version the user must be at for the update to be applied, or null to update any version
+     */
+    public UserDTO updateUserById(long userId, UpdateUserDTO updateUserDTO, Long expectedVersion) {
         Assert.notNull(updateUserDTO, "updateUserDTO cannot be null.");
 
-        UserDTO result = modelMapper.map(
+        UserDTO result = userMapper.toUserDTO(
                 userService.updateUserById(
                         userId,
                         updateUserDTO.getEmail(),
                         updateUserDTO.getFirstName(),
                         updateUserDTO.getLastName(),
                         updateUserDTO.getDateOfBirth(),
-                        updateUserDTO.getAddresses().stream().map(dto -> modelMapper.map(dto, Address.class)).collect(Collectors.toSet())
-                ),
-                UserDTO.class
+                        userMapper.toAddresses(updateUserDTO.getAddresses()),
+                        expectedVersion
+                )
         );
 
         eventLogService.submitEvent(EventType.USER_UPDATED, EVENT_SOURCE, LocalDateTime.now(), 0, result);
@@ -85,42 +225,208 @@ public class UserFacade {
         return result;
     }
 
-    public void deleteUserById(long userId) {
-        userService.deleteUserById(userId);
+    /**
+     * Apply a JSON Merge Patch ( RFC 7396 ) to a user. Only the fields present in the patch are changed.
+     *
+     * @param userId The id of the user
+     * @param patch           The merge patch, a JSON object with a subset of the fields of {@link UpdateUserDTO}
+     * @param expectedVersion The version the user must be at for the patch to be applied, or null to patch any version
+     * @return The patched user
+     */
+    public UserDTO patchUserById(long userId, JsonNode patch, Long expectedVersion) {
+        return updateUserById(userId, readMergePatch(patch), expectedVersion);
+    }
+
+    /**
+     * Replace the permissions of a user. Tokens carrying the old permissions stop being accepted ( see {@link UserService#updatePermissions(long, Set)} ).
+     *
+     * @return The new permissions of the user
+     */
+    public Set<Permission> updatePermissionsById(long userId, Set<Permission> permissions) {
+        Assert.notNull(permissions, "permissions cannot be null.");
+
+        User user = userService.updatePermissions(userId, permissions);
+
+        eventLogService.submitEvent(EventType.USER_UPDATED, EVENT_SOURCE, LocalDateTime.now(), 0, userMapper.toUserDTO(user));
+
+        return user.getPermissions();
+    }
+
+    public void deleteUserById(long userId, Long expectedVersion) {
+        if (!userService.deleteUserById(userId, expectedVersion)) {
+            throw new UserNotFoundException("No user with an id of '" + userId + "' could be found.");
+        }
+
+        eventLogService.submitEvent(EventType.USER_DELETED, EVENT_SOURCE, LocalDateTime.now(), 0, userId);
+    }
+
+    /**
+     * Delete the users with the provided ids, submitting a single {@link EventType#USER_DELETED} event carrying the ids of all deleted users.
+     *
+     * @param userIds The ids of the users to delete
+     * @return The ids of the users which were deleted
+     */
+    public List<Long> deleteUsersById(List<Long> userIds) {
+        Assert.notNull(userIds, "userIds cannot be null");
+
+        List<Long> deletedIds = userService.deleteUsersById(new LinkedHashSet<>(userIds));
+
+        if (!deletedIds.isEmpty()) {
+            eventLogService.submitEvent(EventType.USER_DELETED, EVENT_SOURCE, LocalDateTime.now(), 0, deletedIds);
+        }
+
+        return deletedIds;
     }
 
     public Page<UserDTO> getAllUsersPaginated(Pageable pageable) {
         Assert.notNull(pageable, "pageable cannot be null");
 
-        return userService.getUsers(pageable).map((user) -> modelMapper.map(user, UserDTO.class));
+        return userService.getUsers(pageable);
+    }
+
+    /**
+     * @param approximateTotal Whether to include the periodically refreshed number of users
+     */
+    public SlicePage<UserDTO> getUserSlice(Pageable pageable, boolean approximateTotal) {
+        Assert.notNull(pageable, "pageable cannot be null");
+
+        Slice<UserDTO> users = userService.getUserSlice(pageable);
+
+        return new SlicePage<>(
+                users.getContent(),
+                users.getNumber(),
+                users.getSize(),
+                users.hasNext(),
+                approximateTotal ? approximateUserCount.get() : null
+        );
+    }
+
+    public CursorPage<UserDTO> getUsersAfterCursor(String cursor, String sort, Sort.Direction direction, int size) {
+        return userService.getUsers(cursor, sort, direction, size);
     }
 
-    public String authenticateUser(AuthenticateUserDTO authenticateUserDTO) {
+    /**
+     * Write every user to the output stream as newline-delimited JSON, one {@link UserDTO} per line.
+     * Each user is serialized as soon as it is read, so nothing but the current user is held in memory.
+     * The output is flushed every {@link #EXPORT_FLUSH_ROWS} users and once at the end, rather than after every user,
+     * so that a compressing stream receives enough of the export at once to compress it well.
+     *
+     * @param outputStream The stream to write to. It is flushed, but not closed.
+     */
+    public void exportUsers(OutputStream outputStream) throws IOException {
+        Assert.notNull(outputStream, "outputStream cannot be null");
+
+        ObjectWriter writer = objectMapper.writerFor(UserDTO.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        int[] rows = {0};
+
+        try {
+            userService.exportUsers(user -> {
+                try {
+                    writer.writeValue(generator, userMapper.toUserDTO(user));
+                    generator.writeRaw('\n');
+
+                    if (++rows[0] % EXPORT_FLUSH_ROWS == 0) {
+                        generator.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        generator.close();
+    }
+
+    public CompletableFuture<String> authenticateUser(AuthenticateUserDTO authenticateUserDTO) {
         return userService.fetchUserJWT(authenticateUserDTO.getEmail(), authenticateUserDTO.getRawPassword());
     }
 
     public UserDTO getUserFromRequest(HttpServletRequest request) {
-        return modelMapper.map(
-                userService.getUser(tokenProvider.retrieveUsernameFromRequest(request)),
-                UserDTO.class
-        );
+        return userService.getUserDTO(tokenProvider.retrieveUsernameFromRequest(request));
+    }
+
+    public long getUserVersionFromRequest(HttpServletRequest request) {
+        return userService.getUserVersion(tokenProvider.retrieveUsernameFromRequest(request));
     }
 
-    public UserDTO updateUserFromRequest(HttpServletRequest request, UpdateUserDTO updateUserDTO) {
-        return modelMapper.map(
+    public UserDTO updateUserFromRequest(HttpServletRequest request, UpdateUserDTO updateUserDTO, Long expectedVersion) {
+        Assert.notNull(updateUserDTO, "updateUserDTO cannot be null.");
+
+        return userMapper.toUserDTO(
                 userService.updateUserByEmail(
                         tokenProvider.retrieveUsernameFromRequest(request),
                         updateUserDTO.getEmail(),
                         updateUserDTO.getFirstName(),
                         updateUserDTO.getLastName(),
                         updateUserDTO.getDateOfBirth(),
-                        updateUserDTO.getAddresses().stream().map(dto -> modelMapper.map(dto, Address.class)).collect(Collectors.toSet())
-                ),
-                UserDTO.class
+                        userMapper.toAddresses(updateUserDTO.getAddresses()),
+                        expectedVersion
+                )
+        );
+    }
+
+    public UserDTO patchUserFromRequest(HttpServletRequest request, JsonNode patch, Long expectedVersion) {
+        return updateUserFromRequest(request, readMergePatch(patch), expectedVersion);
+    }
+
+    public void deleteUserFromRequest(HttpServletRequest request, Long expectedVersion) {
+        String email = tokenProvider.retrieveUsernameFromRequest(request);
+
+        long userId = userService.deleteUserByEmail(email, expectedVersion).orElseThrow(
+                () -> new UserNotFoundException("No user with an email of '" + email + "' could be found.")
         );
+
+        eventLogService.submitEvent(EventType.USER_DELETED, EVENT_SOURCE, LocalDateTime.now(), 0, userId);
+    }
+
+    /**
+     * Read a JSON Merge Patch of a user into an {@link UpdateUserDTO}. Fields absent from the patch are left null,
+     * which the update treats as unchanged. None of the fields can be removed, so null values are rejected.
+     */
+    private UpdateUserDTO readMergePatch(JsonNode patch) {
+        if (patch == null || !patch.isObject()) {
+            throw new ValidationException("The merge patch must be a JSON object.");
+        }
+
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+
+            if (field.getValue().isNull()) {
+                throw new ValidationException("The field '" + field.getKey() + "' cannot be removed.");
+            }
+        }
+
+        UpdateUserDTO updateUserDTO;
+
+        try {
+            updateUserDTO = objectMapper.readerFor(UpdateUserDTO.class).readValue(patch);
+        } catch (JsonProcessingException e) {
+            throw new ValidationException("The merge patch is not valid: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Set<ConstraintViolation<UpdateUserDTO>> violations = validator.validate(updateUserDTO);
+
+        if (!violations.isEmpty()) {
+            throw new ValidationException(describeViolations(violations));
+        }
+
+        return updateUserDTO;
     }
 
-    public void deleteUserFromRequest(HttpServletRequest request) {
-        userService.deleteUserByEmail(tokenProvider.retrieveUsernameFromRequest(request));
+    private static <T> String describeViolations(Set<ConstraintViolation<T>> violations) {
+        return violations.stream()
+                .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
     }
 }
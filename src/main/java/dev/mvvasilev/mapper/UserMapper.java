@@ -0,0 +1,101 @@
+package dev.mvvasilev.mapper;
+
+import dev.mvvasilev.dto.AddressDTO;
+import dev.mvvasilev.dto.RegisterUserDTO;
+import dev.mvvasilev.dto.UpdateUserDTO;
+import dev.mvvasilev.dto.UserDTO;
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.util.Address;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Maps users and their addresses between entities and DTOs, field by field.
+ * Fields added to either side must be added here as well, as nothing is matched by name.
+ * <p>
+ * An {@link UpdateUserDTO} is not mapped to a user as a whole, since the update treats its null fields as unchanged.
+ * Its fields are passed to the update one by one, with its addresses mapped by {@link #toAddresses(Collection)}.
+ *
+ * @author Miroslav Vasilev
+ */
+@Component
+public class UserMapper {
+
+    public UserDTO toUserDTO(User user) {
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(user.getId());
+        userDTO.setFirstName(user.getFirstName());
+        userDTO.setLastName(user.getLastName());
+        userDTO.setEmail(user.getEmail());
+        userDTO.setDateOfBirth(user.getDateOfBirth());
+        userDTO.setVersion(user.getVersion());
+        userDTO.setUpdatedAt(user.getUpdatedAt());
+        userDTO.setAddresses(toAddressDTOs(user.getAddresses()));
+        return userDTO;
+    }
+
+    /**
+     * @return A new user holding the fields of the DTO, without a password hash. Its addresses are left null,
+     * to be mapped by {@link #toAddresses(Collection)} once the DTO has been validated.
+     */
+    public User toUser(RegisterUserDTO registerUserDTO) {
+        User user = new User();
+        user.setEmail(registerUserDTO.getEmail());
+        user.setFirstName(registerUserDTO.getFirstName());
+        user.setLastName(registerUserDTO.getLastName());
+        user.setDateOfBirth(registerUserDTO.getDateOfBirth());
+        return user;
+    }
+
+    public AddressDTO toAddressDTO(Address address) {
+        AddressDTO addressDTO = new AddressDTO();
+        addressDTO.setCountry(address.getCountry());
+        addressDTO.setCity(address.getCity());
+        addressDTO.setStreetAddress(address.getStreetAddress());
+        addressDTO.setPostCode(address.getPostCode());
+        return addressDTO;
+    }
+
+    public Address toAddress(AddressDTO addressDTO) {
+        Address address = new Address();
+        address.setCountry(addressDTO.getCountry());
+        address.setCity(addressDTO.getCity());
+        address.setStreetAddress(addressDTO.getStreetAddress());
+        address.setPostCode(addressDTO.getPostCode());
+        return address;
+    }
+
+    /**
+     * @return The mapped addresses, or null if there are none to map, so that an update leaves the addresses unchanged
+     */
+    public Set<Address> toAddresses(Collection<AddressDTO> addressDTOs) {
+        if (addressDTOs == null) {
+            return null;
+        }
+
+        Set<Address> addresses = new HashSet<>(addressDTOs.size() * 2);
+
+        for (AddressDTO addressDTO : addressDTOs) {
+            addresses.add(toAddress(addressDTO));
+        }
+
+        return addresses;
+    }
+
+    public Set<AddressDTO> toAddressDTOs(Collection<Address> addresses) {
+        if (addresses == null) {
+            return null;
+        }
+
+        Set<AddressDTO> addressDTOs = new HashSet<>(addresses.size() * 2);
+
+        for (Address address : addresses) {
+            addressDTOs.add(toAddressDTO(address));
+        }
+
+        return addressDTOs;
+    }
+}
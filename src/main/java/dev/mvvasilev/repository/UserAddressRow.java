@@ -0,0 +1,113 @@
+package dev.mvvasilev.repository;
+
+import dev.mvvasilev.dto.AddressDTO;
+import dev.mvvasilev.dto.UserDTO;
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.util.Address;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HashSet;
+
+/**
+ * A flat projection of a user joined with one of their addresses. Users without addresses produce a single row with null address columns.
+ * Unlike entities, rows are never attached to the persistence context, so any number of them can be streamed in constant memory.
+ *
+ * @author Miroslav Vasilev
+ */
+public class UserAddressRow {
+
+    private final Long id;
+
+    private final String firstName;
+
+    private final String lastName;
+
+    private final String email;
+
+    private final LocalDate dateOfBirth;
+
+    private final long version;
+
+    private final Instant updatedAt;
+
+    private final String country;
+
+    private final String city;
+
+    private final String streetAddress;
+
+    private final String postCode;
+
+    public UserAddressRow(Long id, String firstName, String lastName, String email, LocalDate dateOfBirth, long version, Instant updatedAt, String country, String city, String streetAddress, String postCode) {
+        this.id = id;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+        this.dateOfBirth = dateOfBirth;
+        this.version = version;
+        this.updatedAt = updatedAt;
+        this.country = country;
+        this.city = city;
+        this.streetAddress = streetAddress;
+        this.postCode = postCode;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public boolean hasAddress() {
+        return country != null || city != null || streetAddress != null || postCode != null;
+    }
+
+    /**
+     * @return A detached user holding the user columns of this row, with an empty, mutable set of addresses
+     */
+    public User toUser() {
+        User user = new User();
+        user.setId(id);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        user.setEmail(email);
+        user.setDateOfBirth(dateOfBirth);
+        user.setVersion(version);
+        user.setUpdatedAt(updatedAt);
+        user.setAddresses(new HashSet<>());
+        return user;
+    }
+
+    /**
+     * @return A DTO holding the user columns of this row, with an empty, mutable set of addresses
+     */
+    public UserDTO toUserDTO() {
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        user.setFirstName(firstName);
+        user.setLastName(lastName);
+        user.setEmail(email);
+        user.setDateOfBirth(dateOfBirth);
+        user.setVersion(version);
+        user.setUpdatedAt(updatedAt);
+        user.setAddresses(new HashSet<>());
+        return user;
+    }
+
+    public AddressDTO toAddressDTO() {
+        AddressDTO address = new AddressDTO();
+        address.setCountry(country);
+        address.setCity(city);
+        address.setStreetAddress(streetAddress);
+        address.setPostCode(postCode);
+        return address;
+    }
+
+    public Address toAddress() {
+        Address address = new Address();
+        address.setCountry(country);
+        address.setCity(city);
+        address.setStreetAddress(streetAddress);
+        address.setPostCode(postCode);
+        return address;
+    }
+}
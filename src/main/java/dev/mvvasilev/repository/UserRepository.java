@@ -1,20 +1,151 @@
 package dev.mvvasilev.repository;
 
 import dev.mvvasilev.entity.User;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 /**
  * @author Miroslav Vasilev
  */
 @Repository
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends JpaRepository<User, Long>, UserRepositoryCustom {
+
+    boolean existsByEmail(String email);
+
+    /**
+     * Select which of the provided emails already belong to a user, in a single query.
+     */
+    @Query("select u.email from user u where u.email in :emails")
+    List<String> findExistingEmails(@Param("emails") Collection<String> emails);
+
+    @Query("select u.permissionsVersion from user u where u.email = :email")
+    Optional<Long> findPermissionsVersionByEmail(@Param("email") String email);
+
+    @Query("select u.version from user u where u.id = :id")
+    Optional<Long> findVersionById(@Param("id") long id);
+
+    @Query("select u.version from user u where u.email = :email")
+    Optional<Long> findVersionByEmail(@Param("email") String email);
+
+    /**
+     * Increment the version of a user, provided it is still the expected one.
+     * The row stays locked until the transaction ends, so the user cannot be changed concurrently.
+     *
+     * @return The number of updated users
+     */
+    @Modifying
+    @Query("update user u set u.version = u.version + 1 where u.id = :id and u.version = :version")
+    int incrementVersion(@Param("id") long id, @Param("version") long expectedVersion);
+
+    /**
+     * The first phase of paginated listing: select only the ids of the users on the page.
+     */
+    @Query(value = "select u.id from user u", countQuery = "select count(u) from user u")
+    Page<Long> findUserIds(Pageable pageable);
+
+    /**
+     * Like {@link #findUserIds(Pageable)}, but without counting the users. One more id than the page size is selected
+     * to tell whether a following page exists.
+     */
+    @Query("select u.id from user u")
+    Slice<Long> findUserIdSlice(Pageable pageable);
+
+    /**
+     * Like {@link #findUserIds(Pageable)}, but selecting pairs of id and email, which the pages of several shards are merged by.
+     */
+    @Query(value = "select u.id, u.email from user u", countQuery = "select count(u) from user u")
+    Page<Object[]> findUserKeys(Pageable pageable);
+
+    /**
+     * Like {@link #findUserIdSlice(Pageable)}, but selecting pairs of id and email, which the slices of several shards are merged by.
+     */
+    @Query("select u.id, u.email from user u")
+    Slice<Object[]> findUserKeySlice(Pageable pageable);
+
+    /**
+     * The second phase of paginated listing: select the users with the provided ids, joined with their addresses, in a single query.
+     * Only the columns exposed to clients are selected, and no entities are loaded.
+     */
+    @Query("select new dev.mvvasilev.repository.UserAddressRow(u.id, u.firstName, u.lastName, u.email, u.dateOfBirth, u.version, u.updatedAt, a.country, a.city, a.streetAddress, a.postCode) " +
+            "from user u left join u.addresses a where u.id in :ids order by u.id")
+    List<UserAddressRow> findRowsByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Select the user with the provided ( normalized ) email, joined with their addresses, without loading the entity.
+     */
+    @Query("select new dev.mvvasilev.repository.UserAddressRow(u.id, u.firstName, u.lastName, u.email, u.dateOfBirth, u.version, u.updatedAt, a.country, a.city, a.streetAddress, a.postCode) " +
+            "from user u left join u.addresses a where u.email = :email")
+    List<UserAddressRow> findRowsByEmail(@Param("email") String email);
+
+    /**
+     * Stream every user joined with their addresses, ordered by user id, so that the rows of a user are consecutive.
+     * Must be consumed within a transaction, and closed afterwards.
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new dev.mvvasilev.repository.UserAddressRow(u.id, u.firstName, u.lastName, u.email, u.dateOfBirth, u.version, u.updatedAt, a.country, a.city, a.streetAddress, a.postCode) " +
+            "from user u left join u.addresses a order by u.id")
+    Stream<UserAddressRow> streamAllWithAddresses();
+
+    /**
+     * Stream the email of every user. Must be consumed within a transaction, and closed afterwards.
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("select u.email from user u")
+    Stream<String> streamAllEmails();
+
+    /**
+     * Replace a user's password hash, provided it has not been changed since it was read.
+     *
+     * @return The number of updated users
+     */
+    @Transactional
+    @Modifying
+    @Query("update user u set u.passwordHash = :newHash where u.id = :id and u.passwordHash = :oldHash")
+    int updatePasswordHash(@Param("id") Long id, @Param("oldHash") String oldHash, @Param("newHash") String newHash);
+
+    @Query("select u.id from user u where u.email = :email")
+    Optional<Long> findIdByEmail(@Param("email") String email);
 
-    Optional<User> getUserByEmail(String email);
+    /**
+     * @return Pairs of id and email of the users with the provided ids
+     */
+    @Query("select u.id, u.email from user u where u.id in :ids")
+    List<Object[]> findIdsAndEmailsByIdIn(@Param("ids") Collection<Long> ids);
 
-    void deleteUserById(Long id);
+    /**
+     * Delete the users with the provided ids in a single statement, without loading them.
+     * Like every bulk statement on users, it invalidates the cached users, addresses and email lookups.
+     *
+     * @return The number of deleted users
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("delete from user u where u.id in :ids")
+    int deleteAllByIdIn(@Param("ids") Collection<Long> ids);
 
-    void deleteUserByEmail(String email);
+    /**
+     * Mark the users with the provided ids as deleted in a single statement, hiding them from every other query until they are purged.
+     *
+     * @return The number of deleted users
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update user u set u.deletedAt = :deletedAt where u.id in :ids and u.deletedAt is null")
+    int softDeleteAllByIdIn(@Param("ids") Collection<Long> ids, @Param("deletedAt") Instant deletedAt);
 }
@@ -0,0 +1,64 @@
+package dev.mvvasilev.repository;
+
+import dev.mvvasilev.entity.User;
+import org.springframework.data.domain.Sort;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * @author Miroslav Vasilev
+ */
+public interface UserRepositoryCustom {
+
+    /**
+     * Look a user up by their ( normalized ) email, which is the natural id of the user.
+     * When the second-level cache is enabled, the id is resolved from the natural id cache and the user from the entity cache,
+     * so repeated lookups do not query the database.
+     */
+    Optional<User> getUserByEmail(String email);
+
+    /**
+     * Delete the addresses of the users with the provided ids in a single statement.
+     * Must be called before {@link UserRepository#deleteAllByIdIn(Collection)}, which does not cascade to the addresses.
+     * Only the cached address collections are invalidated, rather than every cache region.
+     *
+     * @return The number of deleted addresses
+     */
+    int deleteAddressesByUserIdIn(Collection<Long> ids);
+
+    /**
+     * Select the ids of users marked as deleted before the cutoff, which no query of the entity can see.
+     *
+     * @param limit The maximum number of ids to select
+     */
+    List<Long> findIdsDeletedBefore(Instant cutoff, int limit);
+
+    /**
+     * Remove the users with the provided ids, along with their addresses, provided they are marked as deleted.
+     *
+     * @return The number of removed users
+     */
+    int purgeDeletedByIdIn(Collection<Long> ids);
+
+    /**
+     * Select the ids and sort values of the users following a position in the listing order ( keyset pagination ).
+     * The listing is ordered by the sort key, then by id, so the position is the sort value and id of the last user seen.
+     *
+     * @param sortKey   The property to sort by
+     * @param direction The sort direction
+     * @param lastValue The sort value of the last user seen, or null to start from the beginning
+     * @param lastId    The id of the last user seen, or null to start from the beginning
+     * @param limit     The maximum number of users to select
+     * @return Pairs of user id and sort value, in listing order
+     */
+    List<Object[]> findUserKeysAfter(UserSortKey sortKey, Sort.Direction direction, Object lastValue, Long lastId, int limit);
+
+    /**
+     * Write all pending changes to the database, then detach every entity from the persistence context.
+     * Used after storing a batch of users, so the persistence context does not grow from one batch to the next.
+     */
+    void flushAndClear();
+}
@@ -0,0 +1,123 @@
+package dev.mvvasilev.repository;
+
+import dev.mvvasilev.entity.User;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.query.NativeQuery;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * @author Miroslav Vasilev
+ */
+public class UserRepositoryImpl implements UserRepositoryCustom {
+
+    private static final String ADDRESSES_TABLE = "user_addresses";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<User> getUserByEmail(String email) {
+        return entityManager.unwrap(Session.class).bySimpleNaturalId(User.class).loadOptional(email);
+    }
+
+    @Override
+    @Transactional
+    public int deleteAddressesByUserIdIn(Collection<Long> ids) {
+        return entityManager.createNativeQuery("delete from " + ADDRESSES_TABLE + " where user_id in (:ids)")
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace(ADDRESSES_TABLE)
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @SuppressWarnings("unchecked")
+    public List<Long> findIdsDeletedBefore(Instant cutoff, int limit) {
+        List<Number> ids = entityManager.createNativeQuery("select id from " + userTable() + " where deleted_at < :cutoff order by id")
+                .setParameter("cutoff", Timestamp.from(cutoff))
+                .setMaxResults(limit)
+                .getResultList();
+
+        return ids.stream().map(Number::longValue).collect(Collectors.toList());
+    }
+
+    @Override
+    @Transactional
+    public int purgeDeletedByIdIn(Collection<Long> ids) {
+        deleteAddressesByUserIdIn(ids);
+
+        return entityManager.createNativeQuery("delete from " + userTable() + " where id in (:ids) and deleted_at is not null")
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(User.class)
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    /**
+     * The name of the user table as Hibernate renders it, since native queries cannot refer to the entity,
+     * whose deleted_at filter would hide the users being purged.
+     */
+    private String userTable() {
+        SessionFactoryImplementor sessionFactory = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+
+        return ((AbstractEntityPersister) sessionFactory.getMetamodel().entityPersister(User.class)).getTableName();
+    }
+
+    @Override
+    public List<Object[]> findUserKeysAfter(UserSortKey sortKey, Sort.Direction direction, Object lastValue, Long lastId, int limit) {
+        String property = "u." + sortKey.getProperty();
+        String comparison = direction.isAscending() ? ">" : "<";
+        String order = direction.isAscending() ? "asc" : "desc";
+
+        StringBuilder jpql = new StringBuilder("select u.id, ").append(property).append(" from user u");
+
+        if (lastId != null) {
+            if (sortKey == UserSortKey.ID) {
+                jpql.append(" where u.id ").append(comparison).append(" :lastId");
+            } else {
+                // The first condition is implied by the second, but lets the database scan the index of the property from the cursor on
+                jpql.append(" where ").append(property).append(' ').append(comparison).append("= :lastValue")
+                        .append(" and (").append(property).append(' ').append(comparison).append(" :lastValue or u.id ").append(comparison).append(" :lastId)");
+            }
+        }
+
+        jpql.append(" order by ").append(property).append(' ').append(order);
+
+        if (sortKey != UserSortKey.ID) {
+            jpql.append(", u.id ").append(order);
+        }
+
+        TypedQuery<Object[]> query = entityManager.createQuery(jpql.toString(), Object[].class).setMaxResults(limit);
+
+        if (lastId != null) {
+            query.setParameter("lastId", lastId);
+
+            if (sortKey != UserSortKey.ID) {
+                query.setParameter("lastValue", lastValue);
+            }
+        }
+
+        return query.getResultList();
+    }
+
+    @Override
+    public void flushAndClear() {
+        entityManager.flush();
+        entityManager.clear();
+    }
+}
@@ -0,0 +1,29 @@
+package dev.mvvasilev.repository;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * The user properties which listings may be sorted by. Only indexed columns are allowed,
+ * as sorting by any other column requires a full table sort.
+ *
+ * @author Miroslav Vasilev
+ */
+public enum UserSortKey {
+    ID("id"),
+    EMAIL("email");
+
+    private final String property;
+
+    UserSortKey(String property) {
+        this.property = property;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public static Optional<UserSortKey> fromProperty(String property) {
+        return Arrays.stream(values()).filter(key -> key.property.equals(property)).findFirst();
+    }
+}
@@ -0,0 +1,19 @@
+package dev.mvvasilev.security;
+
+/**
+ * Determines how the principal of an authenticated request is built.
+ *
+ * @author Miroslav Vasilev
+ */
+public enum AuthenticationMode {
+
+    /**
+     * The principal is loaded from the database for every request
+     */
+    DATABASE,
+
+    /**
+     * The principal is built from the signed token claims, checking only the user's permission version
+     */
+    STATELESS
+}
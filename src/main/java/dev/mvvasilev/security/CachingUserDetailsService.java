@@ -0,0 +1,91 @@
+package dev.mvvasilev.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, time-limited cache in front of {@link UserDetailsServiceImpl}, keyed by email.
+ * Callers which modify or delete users are responsible for evicting the affected entries.
+ *
+ * @author Miroslav Vasilev
+ */
+@Primary
+@Component
+public class CachingUserDetailsService implements UserDetailsService, MeterBinder {
+
+    private static final String CACHE_NAME = "user-details";
+
+    private UserDetailsServiceImpl delegate;
+
+    private boolean enabled;
+
+    private Cache<String, UserDetails> cache;
+
+    @Autowired
+    public CachingUserDetailsService(
+            UserDetailsServiceImpl delegate,
+            @Value("${security.user-details-cache.enabled:true}") boolean enabled,
+            @Value("${security.user-details-cache.ttl-seconds:60}") long ttlSeconds,
+            @Value("${security.user-details-cache.maximum-size:10000}") long maximumSize
+    ) {
+        this.delegate = delegate;
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        if (!enabled) {
+            return delegate.loadUserByUsername(username);
+        }
+
+        return cache.get(username, delegate::loadUserByUsername);
+    }
+
+    /**
+     * Evict the cached details of the user with the provided email.
+     * If called within a transaction, the entry is evicted again once it commits,
+     * so that a concurrent request cannot re-cache the uncommitted state.
+     *
+     * @param email The email of the user
+     */
+    public void evict(String email) {
+        evictNowAndAfterCommit(() -> cache.invalidate(email));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    private void evictNowAndAfterCommit(Runnable eviction) {
+        eviction.run();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    eviction.run();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package dev.mvvasilev.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Determines how passwords are hashed: the algorithm and its cost.
+ * Hashes are stored prefixed with the id of their algorithm ( e.g. {bcrypt} ), while hashes without a prefix are treated as bcrypt.
+ * <p>
+ * When calibration is enabled, the cost is chosen at startup as the highest one whose hashing time on the current hardware
+ * does not exceed the target latency, but never lower than the configured cost.
+ *
+ * @author Miroslav Vasilev
+ */
+@Component
+public class PasswordHashingPolicy {
+
+    public static final String BCRYPT = "bcrypt";
+
+    public static final String PBKDF2 = "pbkdf2";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PasswordHashingPolicy.class);
+
+    private static final int MAX_BCRYPT_STRENGTH = 31;
+
+    private static final int PBKDF2_HASH_WIDTH = 256;
+
+    private static final int PBKDF2_CALIBRATION_ITERATIONS = 10000;
+
+    private static final String CALIBRATION_PASSWORD = "calibration-password";
+
+    private String algorithm;
+
+    private int bcryptStrength;
+
+    private int pbkdf2Iterations;
+
+    @Autowired
+    public PasswordHashingPolicy(
+            @Value("${security.password.algorithm:bcrypt}") String algorithm,
+            @Value("${security.password.bcrypt.strength:10}") int bcryptStrength,
+            @Value("${security.password.pbkdf2.iterations:185000}") int pbkdf2Iterations,
+            @Value("${security.password.calibration.enabled:false}") boolean calibrate,
+            @Value("${security.password.calibration.target-millis:250}") long targetMillis
+    ) {
+        Assert.isTrue(BCRYPT.equals(algorithm) || PBKDF2.equals(algorithm), "Unsupported password hashing algorithm '" + algorithm + "'");
+
+        this.algorithm = algorithm;
+        this.bcryptStrength = bcryptStrength;
+        this.pbkdf2Iterations = pbkdf2Iterations;
+
+        if (calibrate) {
+            calibrate(targetMillis);
+        }
+
+        LOGGER.info("Hashing passwords with {} ( bcrypt strength {}, pbkdf2 iterations {} )", algorithm, this.bcryptStrength, this.pbkdf2Iterations);
+    }
+
+    /**
+     * Create an encoder which hashes with the current algorithm and cost, and which can verify hashes of every supported algorithm.
+     *
+     * @return The password encoder
+     */
+    public PasswordEncoder createPasswordEncoder() {
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(bcryptStrength);
+
+        Map<String, PasswordEncoder> encoders = new HashMap<>();
+        encoders.put(BCRYPT, bcrypt);
+        encoders.put(PBKDF2, createPbkdf2Encoder(pbkdf2Iterations));
+
+        DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder(algorithm, encoders);
+        encoder.setDefaultPasswordEncoderForMatches(bcrypt);
+
+        return encoder;
+    }
+
+    /**
+     * Whether a stored hash falls short of the current policy, either in algorithm or, for bcrypt, in strength.
+     * Only a lower strength counts, as instances calibrated on different hardware may choose different strengths,
+     * and would otherwise re-hash the same password back and forth whenever its user logs in through another instance.
+     * PBKDF2 hashes do not record their iteration count, so only a change of algorithm is detected for them.
+     *
+     * @param passwordHash The stored password hash
+     * @return true if the password should be re-hashed
+     */
+    public boolean needsRehash(String passwordHash) {
+        if (passwordHash == null) {
+            return false;
+        }
+
+        String storedAlgorithm = BCRYPT;
+        String hash = passwordHash;
+
+        if (passwordHash.startsWith("{") && passwordHash.indexOf('}') > 0) {
+            storedAlgorithm = passwordHash.substring(1, passwordHash.indexOf('}'));
+            hash = passwordHash.substring(passwordHash.indexOf('}') + 1);
+        }
+
+        if (!algorithm.equals(storedAlgorithm)) {
+            return true;
+        }
+
+        return BCRYPT.equals(algorithm) && parseBcryptStrength(hash) < bcryptStrength;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getBcryptStrength() {
+        return bcryptStrength;
+    }
+
+    public int getPbkdf2Iterations() {
+        return pbkdf2Iterations;
+    }
+
+    private void calibrate(long targetMillis) {
+        if (BCRYPT.equals(algorithm)) {
+            int strength = bcryptStrength;
+
+            // Every increment of the strength doubles the hashing time
+            while (strength < MAX_BCRYPT_STRENGTH && measureMillis(new BCryptPasswordEncoder(strength + 1)) <= targetMillis) {
+                strength++;
+            }
+
+            bcryptStrength = strength;
+        } else {
+            long millis = Math.max(1, measureMillis(createPbkdf2Encoder(PBKDF2_CALIBRATION_ITERATIONS)));
+            long calibrated = PBKDF2_CALIBRATION_ITERATIONS * targetMillis / millis;
+
+            pbkdf2Iterations = (int) Math.max(pbkdf2Iterations, Math.min(Integer.MAX_VALUE, calibrated));
+        }
+    }
+
+    private static long measureMillis(PasswordEncoder encoder) {
+        // Warm up once, then measure
+        encoder.encode(CALIBRATION_PASSWORD);
+
+        long start = System.nanoTime();
+        encoder.encode(CALIBRATION_PASSWORD);
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static PasswordEncoder createPbkdf2Encoder(int iterations) {
+        Pbkdf2PasswordEncoder encoder = new Pbkdf2PasswordEncoder("", iterations, PBKDF2_HASH_WIDTH);
+        encoder.setAlgorithm(Pbkdf2PasswordEncoder.SecretKeyFactoryAlgorithm.PBKDF2WithHmacSHA256);
+        return encoder;
+    }
+
+    private static int parseBcryptStrength(String hash) {
+        // Format: $2a$10$<salt and hash>
+        String[] parts = hash.split("\\$");
+
+        if (parts.length < 3) {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(parts[2]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
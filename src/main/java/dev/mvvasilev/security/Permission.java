@@ -2,16 +2,26 @@ package dev.mvvasilev.security;
 
 import org.springframework.security.core.GrantedAuthority;
 
+/**
+ * Permissions are persisted as a bitmask of their ordinals, so new permissions must only ever be appended.
+ */
 public enum Permission implements GrantedAuthority {
     READ_SELF,
     UPDATE_SELF,
     DELETE_SELF,
     READ_OTHER_USER,
     UPDATE_OTHER_USER,
-    DELETE_OTHER_USER;
+    DELETE_OTHER_USER,
+    EXPORT_USERS,
+    UPDATE_PERMISSIONS,
+    IMPORT_USERS;
 
     @Override
     public String getAuthority() {
         return name();
     }
+
+    public int mask() {
+        return 1 << ordinal();
+    }
 }
@@ -0,0 +1,61 @@
+package dev.mvvasilev.security;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.service.UserShards;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short-lived cache of each user's current permission version, used by stateless authentication to reject
+ * tokens issued before a permission change. The TTL is the upper bound on how long another instance of the
+ * service may keep accepting stale permissions.
+ *
+ * @author Miroslav Vasilev
+ */
+@Component
+public class PermissionVersionCache implements MeterBinder {
+
+    /**
+     * The version reported for users which no longer exist. It never matches the version of an issued token.
+     */
+    public static final long MISSING_USER_VERSION = -1L;
+
+    private static final String CACHE_NAME = "permission-versions";
+
+    private LoadingCache<String, Long> cache;
+
+    @Autowired
+    public PermissionVersionCache(
+            UserRepository userRepository,
+            UserShards shards,
+            @Value("${security.jwt.permission-version.ttl-seconds:30}") long ttlSeconds,
+            @Value("${security.jwt.permission-version.maximum-size:100000}") long maximumSize
+    ) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build(email -> shards.onShardOfEmail(email, () -> userRepository.findPermissionsVersionByEmail(email).orElse(MISSING_USER_VERSION)));
+    }
+
+    public long currentVersion(String email) {
+        return cache.get(email);
+    }
+
+    public void invalidate(String email) {
+        cache.invalidate(email);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+}
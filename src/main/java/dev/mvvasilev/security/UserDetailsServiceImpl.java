@@ -2,11 +2,13 @@ package dev.mvvasilev.security;
 
 import dev.mvvasilev.entity.User;
 import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.service.UserShards;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
 
@@ -15,14 +17,26 @@ public class UserDetailsServiceImpl implements UserDetailsService {
 
     private UserRepository userRepository;
 
+    private UserShards shards;
+
     @Autowired
-    public UserDetailsServiceImpl(UserRepository userRepository) {
+    public UserDetailsServiceImpl(UserRepository userRepository, UserShards shards) {
         this.userRepository = userRepository;
+        this.shards = shards;
     }
 
+    /**
+     * Deliberately not a read-only transaction, so the user is looked up on the primary database even when a read replica
+     * is configured, as credentials must never be checked against a replica lagging behind.
+     * The read-only transaction of the repository joins this one, rather than being routed to the replica on its own,
+     * and nobody is authenticated yet while a token is being filtered, so read-your-writes would not apply either.
+     */
     @Override
+    @Transactional
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        Optional<User> userByEmail = userRepository.getUserByEmail(username);
+        shards.bindShardOfEmail(username);
+
+        Optional<User> userByEmail = userRepository.getUserByEmail(User.normalizeEmail(username));
 
         if (!userByEmail.isPresent()) {
             throw new UsernameNotFoundException("Could not find user with email " + username);
@@ -30,14 +44,6 @@ public class UserDetailsServiceImpl implements UserDetailsService {
 
         User user = userByEmail.get();
 
-        return org.springframework.security.core.userdetails.User.builder()
-                .username(user.getEmail())
-                .password(user.getPasswordHash())
-                .authorities(user.getPermissions())
-                .accountExpired(false)
-                .accountLocked(false)
-                .credentialsExpired(false)
-                .disabled(false)
-                .build();
+        return new UserPrincipal(user.getId(), user.getEmail(), user.getPasswordHash(), user.getPermissions());
     }
 }
@@ -0,0 +1,25 @@
+package dev.mvvasilev.security;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import java.util.Collection;
+
+/**
+ * A {@link User} which also carries the id of the user entity it was loaded from.
+ *
+ * @author Miroslav Vasilev
+ */
+public class UserPrincipal extends User {
+
+    private final long id;
+
+    public UserPrincipal(long id, String username, String password, Collection<? extends GrantedAuthority> authorities) {
+        super(username, password, true, true, true, true, authorities);
+        this.id = id;
+    }
+
+    public long getId() {
+        return id;
+    }
+}
@@ -0,0 +1,135 @@
+package dev.mvvasilev.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in, short-lived cache of recently verified credentials, so that clients repeatedly authenticating with the same
+ * credentials do not pay for a full password hash verification every time.
+ * <p>
+ * Entries are keyed by an HMAC of the email and raw password, computed with a random key generated at startup which never
+ * leaves the process, so neither raw passwords nor unkeyed digests of them are ever stored. An entry only counts as verified
+ * while the user's stored password hash is still the one it was verified against.
+ *
+ * @author Miroslav Vasilev
+ */
+@Component
+public class VerifiedCredentialCache implements MeterBinder {
+
+    private static final String CACHE_NAME = "verified-credentials";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static final int HMAC_KEY_LENGTH = 32;
+
+    private boolean enabled;
+
+    private Cache<String, VerifiedCredential> cache;
+
+    private ThreadLocal<Mac> mac;
+
+    @Autowired
+    public VerifiedCredentialCache(
+            @Value("${security.credential-cache.enabled:false}") boolean enabled,
+            @Value("${security.credential-cache.ttl-seconds:30}") long ttlSeconds,
+            @Value("${security.credential-cache.maximum-size:1000}") long maximumSize
+    ) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+
+        byte[] key = new byte[HMAC_KEY_LENGTH];
+        new SecureRandom().nextBytes(key);
+        SecretKeySpec keySpec = new SecretKeySpec(key, HMAC_ALGORITHM);
+
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac instance = Mac.getInstance(HMAC_ALGORITHM);
+                instance.init(keySpec);
+                return instance;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(HMAC_ALGORITHM + " is not supported by this JVM", e);
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether these credentials were recently verified against the provided password hash.
+     *
+     * @param email        The user's email
+     * @param rawPassword  The raw password
+     * @param passwordHash The user's currently stored password hash
+     * @return true if the credentials can be considered verified without hashing the password
+     */
+    public boolean isVerified(String email, String rawPassword, String passwordHash) {
+        if (!enabled) {
+            return false;
+        }
+
+        VerifiedCredential credential = cache.getIfPresent(key(email, rawPassword));
+
+        return credential != null && credential.email.equals(email) && credential.passwordHash.equals(passwordHash);
+    }
+
+    /**
+     * Record that the credentials were verified against the provided password hash.
+     *
+     * @param email        The user's email
+     * @param rawPassword  The raw password
+     * @param passwordHash The password hash the credentials were verified against
+     */
+    public void put(String email, String rawPassword, String passwordHash) {
+        if (enabled) {
+            cache.put(key(email, rawPassword), new VerifiedCredential(email, passwordHash));
+        }
+    }
+
+    public void evict(String email) {
+        cache.asMap().values().removeIf(credential -> credential.email.equals(email));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    private String key(String email, String rawPassword) {
+        Mac instance = mac.get();
+        instance.update(email.getBytes(StandardCharsets.UTF_8));
+        instance.update((byte) 0);
+        return Base64.getEncoder().encodeToString(instance.doFinal(rawPassword.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static class VerifiedCredential {
+
+        private final String email;
+
+        private final String passwordHash;
+
+        private VerifiedCredential(String email, String passwordHash) {
+            this.email = email;
+            this.passwordHash = passwordHash;
+        }
+    }
+}
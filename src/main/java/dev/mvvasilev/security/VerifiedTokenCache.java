@@ -0,0 +1,114 @@
+package dev.mvvasilev.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of JWTs whose signature has already been verified.
+ * Entries are keyed by a SHA-256 digest of the raw token and expire at the token's own expiration time,
+ * so a cached token can never outlive its validity.
+ *
+ * @author Miroslav Vasilev
+ */
+@Component
+public class VerifiedTokenCache implements MeterBinder {
+
+    private static final String CACHE_NAME = "verified-tokens";
+
+    private boolean enabled;
+
+    private Cache<String, Jws<Claims>> cache;
+
+    @Autowired
+    public VerifiedTokenCache(
+            @Value("${security.jwt.token-cache.enabled:true}") boolean enabled,
+            @Value("${security.jwt.token-cache.maximum-size:10000}") long maximumSize
+    ) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new TokenExpiry())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Retrieve the verified claims for a token, invoking the verifier only if the token is not already cached.
+     * Exceptions thrown by the verifier are propagated and nothing is cached for the token.
+     *
+     * @param token    The raw compact JWT
+     * @param verifier The function used to verify and parse the token on a cache miss
+     * @return The verified claims
+     */
+    public Jws<Claims> get(String token, Function<String, Jws<Claims>> verifier) {
+        if (!enabled) {
+            return verifier.apply(token);
+        }
+
+        return cache.get(digest(token), key -> verifier.apply(token));
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(messageDigest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+    }
+
+    private static class TokenExpiry implements Expiry<String, Jws<Claims>> {
+
+        @Override
+        public long expireAfterCreate(String key, Jws<Claims> value, long currentTime) {
+            Date expiration = value.getBody().getExpiration();
+
+            // Tokens without an expiration are never retained
+            if (expiration == null) {
+                return 0;
+            }
+
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, expiration.getTime() - System.currentTimeMillis()));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Jws<Claims> value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(String key, Jws<Claims> value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
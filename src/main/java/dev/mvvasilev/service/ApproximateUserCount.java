@@ -0,0 +1,59 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.repository.UserRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * The number of users, counted periodically in the background rather than for every listing request.
+ * The count is refreshed every users.approximate-count.refresh-interval-ms, which bounds how out of date it can be.
+ * When users are sharded, it is the sum of the counts of every shard.
+ *
+ * @author Miroslav Vasilev
+ */
+@Component
+public class ApproximateUserCount implements MeterBinder {
+
+    private static final long NOT_COUNTED = -1L;
+
+    private UserRepository userRepository;
+
+    private UserShards shards;
+
+    private volatile long count = NOT_COUNTED;
+
+    @Autowired
+    public ApproximateUserCount(UserRepository userRepository, UserShards shards) {
+        this.userRepository = userRepository;
+        this.shards = shards;
+    }
+
+    /**
+     * @return The number of users as of the last refresh. Counted on the spot if no refresh has completed yet.
+     */
+    public long get() {
+        long current = count;
+
+        return current == NOT_COUNTED ? refresh() : current;
+    }
+
+    @Scheduled(fixedDelayString = "${users.approximate-count.refresh-interval-ms:300000}")
+    public long refresh() {
+        long counted = shards.onEachShard(shard -> userRepository.count(), true).stream().mapToLong(Long::longValue).sum();
+
+        count = counted;
+
+        return counted;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.count.approximate", this, approximateCount -> approximateCount.count)
+                .description("The number of users as of the last refresh")
+                .register(registry);
+    }
+}
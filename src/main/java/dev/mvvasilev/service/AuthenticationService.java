@@ -1,8 +1,11 @@
 package dev.mvvasilev.service;
 
 import dev.mvvasilev.exception.TokenAuthenticationException;
+import dev.mvvasilev.security.AuthenticationMode;
+import dev.mvvasilev.security.CachingUserDetailsService;
 import dev.mvvasilev.security.Permission;
-import dev.mvvasilev.security.UserDetailsServiceImpl;
+import dev.mvvasilev.security.PermissionVersionCache;
+import dev.mvvasilev.security.VerifiedTokenCache;
 import io.jsonwebtoken.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -13,16 +16,23 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.http.HttpServletRequest;
+import java.security.Key;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.util.Base64;
+import java.util.Collection;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.Set;
 
 @Service
 public class AuthenticationService {
 
+    private static final String PERMISSIONS_CLAIM = "perms";
+
+    private static final String PERMISSIONS_VERSION_CLAIM = "pv";
+
     /**
      * THIS IS NOT A SECURE PRACTICE! For simplicity, we are storing a static key here. Ideally, in a
      * microservices environment, this key would be kept on a config-server.
@@ -33,21 +43,37 @@ public class AuthenticationService {
     @Value("${security.jwt.token.expire-length}")
     private long validityInSeconds = 3600;
 
+    @Value("${security.jwt.authentication-mode:DATABASE}")
+    private AuthenticationMode authenticationMode = AuthenticationMode.DATABASE;
+
     private UserDetailsService userDetailsService;
 
+    private VerifiedTokenCache tokenCache;
+
+    private PermissionVersionCache permissionVersionCache;
+
+    private Key signingKey;
+
+    private JwtParser tokenParser;
+
     @Autowired
-    public AuthenticationService(UserDetailsServiceImpl userDetailsService) {
+    public AuthenticationService(CachingUserDetailsService userDetailsService, VerifiedTokenCache tokenCache, PermissionVersionCache permissionVersionCache) {
         this.userDetailsService = userDetailsService;
+        this.tokenCache = tokenCache;
+        this.permissionVersionCache = permissionVersionCache;
     }
 
     @PostConstruct
     protected void init() {
-        secretKey = Base64.getEncoder().encodeToString(secretKey.getBytes());
+        // Build the key and parser once, rather than decoding the key and configuring a new parser for every request
+        signingKey = new SecretKeySpec(secretKey.getBytes(), SignatureAlgorithm.HS256.getJcaName());
+        tokenParser = Jwts.parser().setSigningKey(signingKey);
     }
 
-    public String createToken(String username, Set<Permission> permissions) {
+    public String createToken(String username, Set<Permission> permissions, long permissionsVersion) {
         Claims claims = Jwts.claims().setSubject(username);
-        claims.put("perms", permissions);
+        claims.put(PERMISSIONS_CLAIM, permissions);
+        claims.put(PERMISSIONS_VERSION_CLAIM, permissionsVersion);
 
         LocalDateTime now = LocalDateTime.now();
         LocalDateTime validUntil = now.plusSeconds(validityInSeconds);
@@ -56,19 +82,61 @@ public class AuthenticationService {
                 .setClaims(claims)
                 .setIssuedAt(Date.from(now.toInstant(ZoneOffset.UTC)))
                 .setExpiration(Date.from(validUntil.toInstant(ZoneOffset.UTC)))
-                .signWith(SignatureAlgorithm.HS256, secretKey)
+                .signWith(SignatureAlgorithm.HS256, signingKey)
                 .compact();
     }
 
     public Authentication authenticate(HttpServletRequest request) {
         Jws<Claims> token = parseTokenFromRequest(request);
 
-        if (token != null) {
-            UserDetails userDetails = userDetailsService.loadUserByUsername(token.getBody().getSubject());
-            return new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
-        } else {
+        if (token == null) {
             return null;
         }
+
+        UserDetails userDetails;
+
+        if (authenticationMode == AuthenticationMode.STATELESS) {
+            userDetails = buildUserDetailsFromClaims(token.getBody());
+        } else {
+            userDetails = userDetailsService.loadUserByUsername(token.getBody().getSubject());
+        }
+
+        return new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
+    }
+
+    /**
+     * Build the principal from the signed token claims alone.
+     * The only lookup performed is the user's permission version, which is cached for a short time,
+     * so a token issued before a permission change ( or for a since-deleted user ) is rejected once that cache expires.
+     *
+     * @param claims The verified token claims
+     * @return The principal
+     * @throws TokenAuthenticationException If the token's permissions are out of date or malformed
+     */
+    protected UserDetails buildUserDetailsFromClaims(Claims claims) {
+        String username = claims.getSubject();
+        Number tokenVersion = claims.get(PERMISSIONS_VERSION_CLAIM, Number.class);
+
+        if (username == null || tokenVersion == null || tokenVersion.longValue() != permissionVersionCache.currentVersion(username)) {
+            throw new TokenAuthenticationException("Token permissions are no longer valid");
+        }
+
+        Set<Permission> permissions = EnumSet.noneOf(Permission.class);
+        Collection<?> permissionNames = claims.get(PERMISSIONS_CLAIM, Collection.class);
+
+        if (permissionNames != null) {
+            try {
+                permissionNames.forEach(name -> permissions.add(Permission.valueOf(String.valueOf(name))));
+            } catch (IllegalArgumentException e) {
+                throw new TokenAuthenticationException("Invalid token");
+            }
+        }
+
+        return org.springframework.security.core.userdetails.User.builder()
+                .username(username)
+                .password("")
+                .authorities(permissions)
+                .build();
     }
 
     public String retrieveUsernameFromRequest(HttpServletRequest request) {
@@ -88,7 +156,7 @@ public class AuthenticationService {
         token = authorizationHeader.substring(7);
 
         try {
-            parsedToken = Jwts.parser().setSigningKey(secretKey).parseClaimsJws(token);
+            parsedToken = tokenCache.get(token, tokenParser::parseClaimsJws);
         } catch (JwtException | IllegalArgumentException e) {
             throw new TokenAuthenticationException("Invalid token");
         }
@@ -0,0 +1,183 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.util.BloomFilter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+
+/**
+ * In-memory Bloom filter of the ( normalized ) emails of all users, so that checking whether a new email is taken
+ * only queries the database when the filter reports the email as possibly present.
+ * <p>
+ * The filter is built by streaming all emails at startup, and rebuilt periodically in the background, which also drops
+ * the emails of deleted users. Created users and changed emails are added as they happen. Until the first build completes,
+ * or when disabled, every email is reported as possibly present. The unique constraint on the email column remains the
+ * guarantee of uniqueness, so a missed email only costs the early rejection of a duplicate.
+ * When users are sharded, the filter holds the emails of every shard.
+ *
+ * @author Miroslav Vasilev
+ */
+@Component
+public class EmailBloomFilter implements MeterBinder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmailBloomFilter.class);
+
+    private UserRepository userRepository;
+
+    private UserShards shards;
+
+    private TransactionTemplate transactionTemplate;
+
+    private boolean enabled;
+
+    private long expectedEmails;
+
+    private double falsePositiveProbability;
+
+    private volatile BloomFilter filter;
+
+    private volatile BloomFilter building;
+
+    private AtomicLong skippedLookups = new AtomicLong();
+
+    private AtomicLong falsePositives = new AtomicLong();
+
+    @Autowired
+    public EmailBloomFilter(
+            UserRepository userRepository,
+            UserShards shards,
+            PlatformTransactionManager transactionManager,
+            @Value("${users.email-filter.enabled:true}") boolean enabled,
+            @Value("${users.email-filter.expected-emails:1000000}") long expectedEmails,
+            @Value("${users.email-filter.false-positive-probability:0.01}") double falsePositiveProbability
+    ) {
+        this.userRepository = userRepository;
+        this.shards = shards;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.enabled = enabled;
+        this.expectedEmails = expectedEmails;
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    /**
+     * @param email The normalized email
+     * @return False if no user has the email, true if a user may have it
+     */
+    public boolean mightContain(String email) {
+        BloomFilter current = filter;
+
+        if (!enabled || current == null) {
+            return true;
+        }
+
+        if (!current.mightContain(email)) {
+            skippedLookups.incrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Record that an email reported as possibly present turned out not to belong to any user.
+     */
+    public void recordFalsePositive() {
+        if (enabled && filter != null) {
+            falsePositives.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param email The normalized email of a created user, or the new email of an existing one
+     */
+    public void put(String email) {
+        BloomFilter current = filter;
+
+        if (current != null) {
+            current.put(email);
+        }
+
+        BloomFilter next = building;
+
+        if (next != null) {
+            next.put(email);
+        }
+
+        // The filter was replaced by one which had already been built when the email was added to it
+        BloomFilter replaced = filter;
+
+        if (replaced != current) {
+            replaced.put(email);
+        }
+    }
+
+    /**
+     * Build a new filter from the emails currently in the database, then swap it in.
+     * The filter is sized for at least twice the current number of users, so it does not saturate before the next rebuild.
+     */
+    @Scheduled(fixedDelayString = "${users.email-filter.rebuild-interval-ms:21600000}")
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        long userCount = shards.onEachShard(shard -> userRepository.count(), true).stream().mapToLong(Long::longValue).sum();
+        BloomFilter next = new BloomFilter(Math.max(expectedEmails, userCount * 2), falsePositiveProbability);
+
+        building = next;
+
+        try {
+            shards.forEachShard(shard -> transactionTemplate.execute(status -> {
+                try (Stream<String> emails = userRepository.streamAllEmails()) {
+                    emails.forEach(next::put);
+                }
+
+                return null;
+            }));
+
+            filter = next;
+        } finally {
+            building = null;
+        }
+
+        LOGGER.info("Built email filter of about {} emails ( {} bytes ) in {}ms",
+                next.approximateElementCount(), next.sizeInBytes(), System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        gauge(registry, "users.email.filter.false.positive.probability", BloomFilter::expectedFalsePositiveProbability, null);
+        gauge(registry, "users.email.filter.size", BloomFilter::sizeInBytes, "bytes");
+        gauge(registry, "users.email.filter.emails", BloomFilter::approximateElementCount, null);
+
+        FunctionCounter.builder("users.email.filter.skipped.lookups", skippedLookups, AtomicLong::get)
+                .description("Email existence checks answered by the filter alone")
+                .register(registry);
+
+        FunctionCounter.builder("users.email.filter.false.positives", falsePositives, AtomicLong::get)
+                .description("Emails reported as possibly present by the filter, which did not belong to any user")
+                .register(registry);
+    }
+
+    private void gauge(MeterRegistry registry, String name, ToDoubleFunction<BloomFilter> value, String baseUnit) {
+        Gauge.builder(name, this, emailFilter -> emailFilter.filter == null ? Double.NaN : value.applyAsDouble(emailFilter.filter))
+                .baseUnit(baseUnit)
+                .register(registry);
+    }
+}
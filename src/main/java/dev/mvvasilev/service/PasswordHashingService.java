@@ -0,0 +1,124 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.security.PasswordHashingPolicy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+/**
+ * Runs password hashing on a dedicated, bounded executor, keeping the CPU-heavy work off request threads.
+ * If the executor's queue is full, submissions fail immediately with a {@link java.util.concurrent.RejectedExecutionException}.
+ *
+ * @author Miroslav Vasilev
+ */
+@Service
+public class PasswordHashingService {
+
+    private PasswordEncoder passwordEncoder;
+
+    private PasswordHashingPolicy passwordHashingPolicy;
+
+    private ThreadPoolTaskExecutor executor;
+
+    private Semaphore bulkPermits;
+
+    /**
+     * @param bulkShare The share of the executor's threads which {@link #encodeAll(List)} may take up at once
+     */
+    @Autowired
+    public PasswordHashingService(
+            PasswordEncoder passwordEncoder,
+            PasswordHashingPolicy passwordHashingPolicy,
+            @Qualifier("passwordHashingExecutor") ThreadPoolTaskExecutor executor,
+            @Value("${security.password.hashing.bulk-share:0.5}") double bulkShare
+    ) {
+        Assert.isTrue(bulkShare > 0 && bulkShare <= 1, "security.password.hashing.bulk-share must be greater than 0 and at most 1");
+
+        this.passwordEncoder = passwordEncoder;
+        this.passwordHashingPolicy = passwordHashingPolicy;
+        this.executor = executor;
+        this.bulkPermits = new Semaphore(Math.max(1, (int) (executor.getMaxPoolSize() * bulkShare)));
+    }
+
+    /**
+     * Hash a raw password.
+     *
+     * @param rawPassword The raw password
+     * @return A future of the password hash
+     */
+    public CompletableFuture<String> encode(String rawPassword) {
+        return CompletableFuture.supplyAsync(() -> passwordEncoder.encode(rawPassword), executor);
+    }
+
+    /**
+     * Hash many raw passwords in parallel, each in a task of its own, so that other hashing can run in between.
+     * At most a share of the executor's threads ( security.password.hashing.bulk-share ) hash these passwords at once,
+     * while the calling thread waits for one of them to finish before submitting the next, so a large batch never takes up
+     * the whole executor or its queue, and logins and registrations keep being served meanwhile.
+     *
+     * @param rawPasswords The raw passwords
+     * @return The password hashes, in the order of the raw passwords
+     * @throws RejectedExecutionException If the executor's queue is full, as for single passwords
+     */
+    public List<String> encodeAll(List<String> rawPasswords) {
+        List<CompletableFuture<String>> hashes = new ArrayList<>(rawPasswords.size());
+
+        for (String rawPassword : rawPasswords) {
+            bulkPermits.acquireUninterruptibly();
+
+            CompletableFuture<String> hash;
+
+            try {
+                hash = CompletableFuture.supplyAsync(() -> passwordEncoder.encode(rawPassword), executor);
+            } catch (RejectedExecutionException e) {
+                bulkPermits.release();
+                throw e;
+            }
+
+            hash.whenComplete((result, failure) -> bulkPermits.release());
+            hashes.add(hash);
+        }
+
+        return hashes.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    /**
+     * Check a raw password against a password hash.
+     *
+     * @param rawPassword  The raw password
+     * @param passwordHash The stored password hash
+     * @return A future of whether the password matches the hash
+     */
+    public CompletableFuture<Boolean> matches(String rawPassword, String passwordHash) {
+        return CompletableFuture.supplyAsync(() -> passwordEncoder.matches(rawPassword, passwordHash), executor);
+    }
+
+    /**
+     * Re-hash a password whose stored hash no longer matches the current hashing policy.
+     * This hashes on the calling thread, and is meant to be called from a continuation of {@link #matches(String, String)}
+     * after the password has been verified, so it runs on the password hashing executor as well.
+     *
+     * @param rawPassword  The verified raw password
+     * @param passwordHash The stored password hash
+     * @return The new password hash, or empty if the stored hash already matches the policy
+     */
+    public Optional<String> rehashIfNeeded(String rawPassword, String passwordHash) {
+        if (!passwordHashingPolicy.needsRehash(passwordHash)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(passwordEncoder.encode(rawPassword));
+    }
+}
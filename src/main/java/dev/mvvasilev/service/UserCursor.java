@@ -0,0 +1,70 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.exception.ValidationException;
+import dev.mvvasilev.repository.UserSortKey;
+import org.springframework.data.domain.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * A position in a keyset-paginated user listing: the sort order, and the sort value and id of the last user seen.
+ * It is handed to clients as an opaque, URL-safe string.
+ *
+ * @author Miroslav Vasilev
+ */
+public class UserCursor {
+
+    private static final String SEPARATOR = "|";
+
+    private final UserSortKey sortKey;
+
+    private final Sort.Direction direction;
+
+    private final long lastId;
+
+    private final String lastValue;
+
+    public UserCursor(UserSortKey sortKey, Sort.Direction direction, long lastId, String lastValue) {
+        this.sortKey = sortKey;
+        this.direction = direction;
+        this.lastId = lastId;
+        this.lastValue = lastValue;
+    }
+
+    public static UserCursor decode(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\" + SEPARATOR, 4);
+
+            return new UserCursor(
+                    UserSortKey.valueOf(parts[0]),
+                    Sort.Direction.valueOf(parts[1]),
+                    Long.parseLong(parts[2]),
+                    parts[3]
+            );
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new ValidationException("The provided cursor is invalid.");
+        }
+    }
+
+    public String encode() {
+        String cursor = sortKey.name() + SEPARATOR + direction.name() + SEPARATOR + lastId + SEPARATOR + lastValue;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public UserSortKey getSortKey() {
+        return sortKey;
+    }
+
+    public Sort.Direction getDirection() {
+        return direction;
+    }
+
+    public long getLastId() {
+        return lastId;
+    }
+
+    public String getLastValue() {
+        return lastValue;
+    }
+}
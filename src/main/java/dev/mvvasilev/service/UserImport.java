@@ -0,0 +1,57 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.entity.User;
+
+/**
+ * A single row of a bulk user import: the user to create, its raw password, and the outcome of the import.
+ *
+ * @author Miroslav Vasilev
+ */
+public class UserImport {
+
+    private final int index;
+
+    private final User user;
+
+    private final String rawPassword;
+
+    private String error;
+
+    /**
+     * @param index       The position of the row within the import
+     * @param user        The user to create, without a password hash
+     * @param rawPassword The user's password
+     */
+    public UserImport(int index, User user, String rawPassword) {
+        this.index = index;
+        this.user = user;
+        this.rawPassword = rawPassword;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public String getRawPassword() {
+        return rawPassword;
+    }
+
+    /**
+     * @return The reason the row could not be imported, or null if it was not rejected
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    public void fail(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,166 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.entity.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Imports users in chunks. Each chunk costs one query to check for existing emails, one parallel round of password hashing,
+ * and one transaction of batched inserts per shard, instead of all of these for every user.
+ * Passwords are hashed outside of any transaction, so no database connection is held while hashing.
+ *
+ * @author Miroslav Vasilev
+ */
+@Service
+public class UserImportService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserImportService.class);
+
+    private static final String EMAIL_EXISTS_MESSAGE = "A user with this email address already exists.";
+
+    private UserService userService;
+
+    private PasswordHashingService passwordHashingService;
+
+    private int chunkSize;
+
+    @Autowired
+    public UserImportService(UserService userService, PasswordHashingService passwordHashingService, @Value("${users.import.chunk-size:500}") int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "users.import.chunk-size must be positive");
+
+        this.userService = userService;
+        this.passwordHashingService = passwordHashingService;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return The number of rows which should be passed to {@link #importChunk(List)} at once
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Create the users of a chunk of import rows.
+     * Rows which have already failed are skipped. Rows which cannot be imported are marked as failed,
+     * while the users of the remaining rows are stored, and have their ids set.
+     * A row which conflicts with the database when stored only fails itself ( see {@link #store(List, Map, boolean)} ).
+     *
+     * @param chunk The import rows
+     */
+    public void importChunk(List<UserImport> chunk) {
+        Assert.notNull(chunk, "chunk cannot be null");
+
+        Map<String, UserImport> rowsByEmail = new LinkedHashMap<>();
+        LocalDate currentDate = LocalDate.now();
+
+        for (UserImport row : chunk) {
+            if (row.isFailed()) {
+                continue;
+            }
+
+            User user = row.getUser();
+
+            if (currentDate.isBefore(user.getDateOfBirth())) {
+                row.fail("The date of birth cannot be in the future.");
+            } else if (rowsByEmail.putIfAbsent(user.getEmail(), row) != null) {
+                row.fail("The email address appears more than once in the import.");
+            }
+        }
+
+        for (String email : userService.findExistingEmails(rowsByEmail.keySet())) {
+            rowsByEmail.remove(email).fail(EMAIL_EXISTS_MESSAGE);
+        }
+
+        if (rowsByEmail.isEmpty()) {
+            return;
+        }
+
+        List<UserImport> accepted = new ArrayList<>(rowsByEmail.values());
+        List<String> passwordHashes = passwordHashingService.encodeAll(
+                accepted.stream().map(UserImport::getRawPassword).collect(Collectors.toList())
+        );
+
+        for (int i = 0; i < accepted.size(); i++) {
+            accepted.get(i).getUser().setPasswordHash(passwordHashes.get(i));
+        }
+
+        Map<User, UserImport> rowsByUser = new IdentityHashMap<>(accepted.size() * 2);
+        accepted.forEach(row -> rowsByUser.put(row.getUser(), row));
+
+        store(accepted.stream().map(UserImport::getUser).collect(Collectors.toList()), rowsByUser, false);
+    }
+
+    /**
+     * Store the users in one batch per shard. When the batch of a shard conflicts with the database, its users are stored again:
+     * <ul>
+     * <li>If the email of one of them was taken, as by another request since the existence check, the emails are checked again,
+     * failing the rows of those taken, and the others are stored again in a batch, once.</li>
+     * <li>Otherwise, or if the batch conflicts again, they are stored one at a time, failing only the rows which conflict.</li>
+     * </ul>
+     */
+    private void store(List<User> users, Map<User, UserImport> rowsByUser, boolean retried) {
+        if (users.isEmpty()) {
+            return;
+        }
+
+        userService.createUsers(users, (shardUsers, failure) -> {
+            if (!(failure instanceof DataIntegrityViolationException)) {
+                throw failure;
+            }
+
+            LOGGER.warn("Could not store a batch of {} imported users, storing them again", shardUsers.size(), failure);
+
+            if (!retried && UserService.isEmailConstraintViolation((DataIntegrityViolationException) failure)) {
+                store(failExistingEmails(shardUsers, rowsByUser), rowsByUser, true);
+            } else {
+                shardUsers.forEach(user -> storeOne(user, rowsByUser.get(user)));
+            }
+        });
+    }
+
+    private void storeOne(User user, UserImport row) {
+        userService.createUsers(Collections.singletonList(user), (shardUsers, failure) -> {
+            if (!(failure instanceof DataIntegrityViolationException)) {
+                throw failure;
+            }
+
+            row.fail(UserService.isEmailConstraintViolation((DataIntegrityViolationException) failure)
+                    ? EMAIL_EXISTS_MESSAGE
+                    : "The user could not be stored, as it violates a constraint of the database.");
+        });
+    }
+
+    /**
+     * @return The users whose emails do not belong to a user, having failed the rows of the others
+     */
+    private List<User> failExistingEmails(List<User> users, Map<User, UserImport> rowsByUser) {
+        Set<String> existingEmails = userService.findExistingEmails(users.stream().map(User::getEmail).collect(Collectors.toList()));
+        List<User> remaining = new ArrayList<>(users.size());
+
+        for (User user : users) {
+            if (existingEmails.contains(user.getEmail())) {
+                rowsByUser.get(user).fail(EMAIL_EXISTS_MESSAGE);
+            } else {
+                remaining.add(user);
+            }
+        }
+
+        return remaining;
+    }
+}
@@ -0,0 +1,136 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.repository.UserRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Removes users which were soft deleted more than users.soft-delete.retention-ms ago, along with their addresses.
+ * Users are purged in chunks of users.purge.chunk-size, each in its own transaction, and the job pauses between chunks
+ * so that it removes at most users.purge.rows-per-second users per second, leaving the database to live traffic.
+ * When users are sharded, the shards are purged one after another.
+ *
+ * @author Miroslav Vasilev
+ */
+@Component
+@ConditionalOnProperty(value = "users.soft-delete.enabled", havingValue = "true")
+public class UserPurgeJob implements MeterBinder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserPurgeJob.class);
+
+    private UserRepository userRepository;
+
+    private UserShards shards;
+
+    private TransactionTemplate transactionTemplate;
+
+    private long retentionMillis;
+
+    private int chunkSize;
+
+    private double rowsPerSecond;
+
+    private AtomicLong purged = new AtomicLong();
+
+    @Autowired
+    public UserPurgeJob(
+            UserRepository userRepository,
+            UserShards shards,
+            PlatformTransactionManager transactionManager,
+            @Value("${users.soft-delete.retention-ms:604800000}") long retentionMillis,
+            @Value("${users.purge.chunk-size:500}") int chunkSize,
+            @Value("${users.purge.rows-per-second:1000}") double rowsPerSecond
+    ) {
+        if (chunkSize < 1 || rowsPerSecond <= 0) {
+            throw new IllegalArgumentException("The purge chunk size and rows per second must be positive.");
+        }
+
+        this.userRepository = userRepository;
+        this.shards = shards;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.retentionMillis = retentionMillis;
+        this.chunkSize = chunkSize;
+        this.rowsPerSecond = rowsPerSecond;
+    }
+
+    /**
+     * Purge every user whose retention has expired, chunk by chunk.
+     *
+     * @return The number of purged users
+     */
+    @Scheduled(fixedDelayString = "${users.purge.interval-ms:60000}")
+    public long purge() {
+        Instant cutoff = Instant.now().minusMillis(retentionMillis);
+        long total = shards.forEachShard(shard -> purgeShard(cutoff)).stream().mapToLong(Long::longValue).sum();
+
+        if (total > 0) {
+            LOGGER.info("Purged {} users deleted before {}", total, cutoff);
+        }
+
+        return total;
+    }
+
+    private long purgeShard(Instant cutoff) {
+        long total = 0;
+        int removed;
+
+        do {
+            long start = System.nanoTime();
+
+            removed = transactionTemplate.execute(status -> purgeChunk(cutoff));
+            total += removed;
+            purged.addAndGet(removed);
+
+            if (removed == chunkSize && !pause(removed, System.nanoTime() - start)) {
+                break;
+            }
+        } while (removed == chunkSize);
+
+        return total;
+    }
+
+    private int purgeChunk(Instant cutoff) {
+        List<Long> ids = userRepository.findIdsDeletedBefore(cutoff, chunkSize);
+
+        return ids.isEmpty() ? 0 : userRepository.purgeDeletedByIdIn(ids);
+    }
+
+    /**
+     * Sleep for the rest of the time the budget allows for purging the given number of users.
+     *
+     * @return False if interrupted
+     */
+    private boolean pause(int removed, long elapsedNanos) {
+        long budgetNanos = (long) (removed / rowsPerSecond * TimeUnit.SECONDS.toNanos(1));
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(budgetNanos - elapsedNanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.purged", purged, AtomicLong::get)
+                .description("The number of soft deleted users removed by the purge job")
+                .register(registry);
+    }
+}
@@ -1,47 +1,157 @@
 package dev.mvvasilev.service;
 
+import dev.mvvasilev.datasource.ReadYourWritesContext;
+import dev.mvvasilev.dto.UserDTO;
 import dev.mvvasilev.entity.User;
+import dev.mvvasilev.exception.PreconditionFailedException;
 import dev.mvvasilev.exception.UserNotFoundException;
 import dev.mvvasilev.exception.ValidationException;
+import dev.mvvasilev.repository.UserAddressRow;
 import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.repository.UserSortKey;
+import dev.mvvasilev.security.CachingUserDetailsService;
 import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.security.PermissionVersionCache;
+import dev.mvvasilev.security.VerifiedCredentialCache;
 import dev.mvvasilev.util.Address;
+import dev.mvvasilev.util.CursorPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 import org.springframework.util.ObjectUtils;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
+ * Methods which only read are run in read-only transactions, which are routed to the read replica when one is configured,
+ * and in which Hibernate neither keeps snapshots of the loaded entities nor flushes them.
+ * <p>
+ * When users are sharded, methods concerning a single user run on the shard of that user, while the others gather
+ * the users of every shard involved ( see {@link UserShards} ).
+ *
  * @author Miroslav Vasilev
  */
 @Service
 @Transactional
 public class UserService {
 
+    public static final int MAX_PAGE_SIZE = 100;
+
+    public static final int MAX_BULK_DELETE_SIZE = 1000;
+
+    /**
+     * Listing a page by offset selects the keys of the users up to the end of the page from every shard,
+     * so only pages ending within this many users can be listed by offset when users are sharded.
+     */
+    public static final int MAX_SHARDED_OFFSET_WINDOW = 10000;
+
+    /**
+     * The order in which the keys selected from every shard are merged when sorting by email. It compares code points,
+     * as the binary "C" collation of the email column compares the UTF-8 bytes of the emails ( see V4__user_email_binary_collation ),
+     * so that the merged listing agrees with the order in which each shard returns its users and with the cursors it seeks from.
+     * {@link String#compareTo(String)} compares UTF-16 chars instead, which differs for characters outside of the basic plane.
+     */
+    static final Comparator<String> EMAIL_ORDER = UserService::compareCodePoints;
+
+    private static final String EMAIL_EXISTS_MESSAGE = "A user with this email address already exists.";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserService.class);
+
     private UserRepository userRepository;
 
-    private BCryptPasswordEncoder passwordEncoder;
+    private PasswordHashingService passwordHashingService;
+
+    private TaskExecutor writeExecutor;
 
     private AuthenticationService authenticationService;
 
+    private PermissionVersionCache permissionVersionCache;
+
+    private CachingUserDetailsService userDetailsCache;
+
+    private VerifiedCredentialCache credentialCache;
+
+    private EmailBloomFilter emailFilter;
+
+    private UserShards shards;
+
+    private TransactionTemplate writeTransaction;
+
+    private boolean softDelete;
+
     @Autowired
-    public UserService(UserRepository userRepository, BCryptPasswordEncoder passwordEncoder, AuthenticationService authenticationService) {
+    public UserService(
+            UserRepository userRepository,
+            PasswordHashingService passwordHashingService,
+            @Qualifier("userWriteExecutor") TaskExecutor writeExecutor,
+            AuthenticationService authenticationService,
+            PermissionVersionCache permissionVersionCache,
+            CachingUserDetailsService userDetailsCache,
+            VerifiedCredentialCache credentialCache,
+            EmailBloomFilter emailFilter,
+            UserShards shards,
+            PlatformTransactionManager transactionManager,
+            @Value("${users.soft-delete.enabled:false}") boolean softDelete
+    ) {
         this.userRepository = userRepository;
-        this.passwordEncoder = passwordEncoder;
+        this.passwordHashingService = passwordHashingService;
+        this.writeExecutor = writeExecutor;
         this.authenticationService = authenticationService;
+        this.permissionVersionCache = permissionVersionCache;
+        this.userDetailsCache = userDetailsCache;
+        this.credentialCache = credentialCache;
+        this.emailFilter = emailFilter;
+        this.shards = shards;
+        this.writeTransaction = new TransactionTemplate(transactionManager);
+        this.softDelete = softDelete;
     }
 
     /**
      * Create a new user and store into the database.
+     * The user is validated immediately, after which the password is hashed on the password hashing executor,
+     * and the user is then stored on the user write executor, in a transaction of its own.
+     * An email known to be taken is rejected before the password is hashed. The email is checked again in the transaction
+     * storing the user, as it may have been taken in the meantime, and the database enforces uniqueness when the user is stored.
      *
      * @param email       The user's email
      * @param rawPassword The user's password
@@ -49,11 +159,18 @@ public class UserService {
      * @param lastName    The user's last name
      * @param dateOfBirth The user's date of birth
      * @param addresses   The user's addresses
+     * @return A future of the stored user entity, failing with a {@link ValidationException} if a user with the email already exists,
+     * or with a {@link RejectedExecutionException} if the user write executor is saturated
+     * @throws RejectedExecutionException If the password hashing executor is saturated
      */
-    public User createUser(String email, String rawPassword, String firstName, String lastName, LocalDate dateOfBirth, Set<Address> addresses) {
+    public CompletableFuture<User> createUser(String email, String rawPassword, String firstName, String lastName, LocalDate dateOfBirth, Set<Address> addresses) {
+        Assert.notNull(email, "email cannot be null");
+
+        shards.bindShardOfEmail(email);
+
         User user = new User();
 
-        if (validateEmailDoesNotExist(email)) {
+        if (validateEmailDoesNotExist(User.normalizeEmail(email))) {
             user.setEmail(email);
         }
 
@@ -64,17 +181,106 @@ public class UserService {
             user.setDateOfBirth(dateOfBirth);
         }
 
-        user.setPasswordHash(passwordEncoder.encode(rawPassword));
         user.setAddresses(addresses);
 
-        Set<Permission> defaultPermissions = new HashSet<>();
-        defaultPermissions.add(Permission.READ_OTHER_USER);
-        defaultPermissions.add(Permission.READ_SELF);
-        defaultPermissions.add(Permission.UPDATE_SELF);
-        defaultPermissions.add(Permission.DELETE_SELF);
-        user.setPermissions(defaultPermissions);
+        user.setPermissions(defaultPermissions());
+
+        return passwordHashingService.encode(rawPassword).thenApplyAsync(passwordHash -> {
+            user.setPasswordHash(passwordHash);
+
+            // Recorded for the new user, rather than for nobody, so that their first reads see the user despite replication lag
+            User savedUser = ReadYourWritesContext.asPrincipal(user.getEmail(), () -> shards.onShardOfEmail(user.getEmail(), () -> writeTransaction.execute(status -> {
+                if (emailFilter.mightContain(user.getEmail()) && userRepository.existsByEmail(user.getEmail())) {
+                    throw new ValidationException(EMAIL_EXISTS_MESSAGE);
+                }
+
+                return writeWithUniqueEmail(() -> userRepository.saveAndFlush(user));
+            })));
 
-        return userRepository.save(user);
+            emailFilter.put(savedUser.getEmail());
+
+            return savedUser;
+        }, writeExecutor);
+    }
+
+    /**
+     * Store many new users, whose passwords have already been hashed, granting each of them the default permissions.
+     * The users and their addresses are written in JDBC batches, after which they are detached,
+     * so storing many batches within the same request does not grow the persistence context.
+     * When users are sharded, the users of each shard are stored in a transaction of their own,
+     * so the users of one shard may be stored even if those of another fail.
+     *
+     * @param users The new users
+     * @return The stored users
+     * @throws RuntimeException The failure of any shard, once the users of the other shards have been stored
+     */
+    public List<User> createUsers(List<User> users) {
+        return createUsers(users, (shardUsers, failure) -> {
+            throw failure;
+        });
+    }
+
+    /**
+     * Like {@link #createUsers(List)}, but the users of a shard which could not be stored are passed to the handler
+     * rather than failing the call, as the users of the other shards stay stored.
+     * When users are not sharded, either all of the users are stored, or all of them are passed to the handler.
+     * The users passed to the handler are left without an id, so they can be stored again.
+     *
+     * @param users          The new users
+     * @param onShardFailure Called with the users of each shard which could not be stored, and the reason, once every shard is done
+     * @return The stored users
+     */
+    public List<User> createUsers(List<User> users, BiConsumer<List<User>, RuntimeException> onShardFailure) {
+        Assert.notNull(users, "users cannot be null");
+
+        users.forEach(user -> user.setPermissions(defaultPermissions()));
+
+        Map<Integer, List<User>> usersByShard = shards.groupByShard(users, user -> shards.shardOfEmail(user.getEmail()));
+        Map<Integer, CompletableFuture<List<User>>> results = shards.onShardsSeparately(usersByShard, shardUsers -> {
+            List<User> saved = userRepository.saveAll(shardUsers);
+            userRepository.flushAndClear();
+            return saved;
+        }, false);
+
+        List<User> savedUsers = new ArrayList<>(users.size());
+        Map<Integer, RuntimeException> failures = new LinkedHashMap<>();
+
+        for (Map.Entry<Integer, CompletableFuture<List<User>>> result : results.entrySet()) {
+            try {
+                savedUsers.addAll(result.getValue().join());
+            } catch (CompletionException e) {
+                failures.put(result.getKey(), e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e);
+            }
+        }
+
+        savedUsers.forEach(user -> emailFilter.put(user.getEmail()));
+        failures.forEach((shard, failure) -> {
+            List<User> shardUsers = usersByShard.get(shard);
+            shardUsers.forEach(UserService::resetUnsavedUser);
+            onShardFailure.accept(shardUsers, failure);
+        });
+
+        return savedUsers;
+    }
+
+    /**
+     * Select which of the provided emails already belong to a user, in a single query.
+     * Only the emails the email filter reports as possibly taken are queried.
+     *
+     * @param emails The emails to check
+     * @return The emails which already belong to a user
+     */
+    @Transactional(readOnly = true)
+    public Set<String> findExistingEmails(Collection<String> emails) {
+        List<String> possiblyExisting = emails.stream().filter(emailFilter::mightContain).collect(Collectors.toList());
+
+        if (possiblyExisting.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        return shards.onShards(shards.groupByShard(possiblyExisting, shards::shardOfEmail), userRepository::findExistingEmails, true).stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toSet());
     }
 
     /**
@@ -84,7 +290,10 @@ public class UserService {
      * @return The user entity
      * @throws UserNotFoundException If no user with the provided id could be found
      */
+    @Transactional(readOnly = true)
     public User getUser(long id) {
+        shards.bindShardOfId(id);
+
         Optional<User> userById = userRepository.findById(id);
 
         if (!userById.isPresent()) {
@@ -101,8 +310,11 @@ public class UserService {
      * @return The user entity
      * @throws UserNotFoundException If no user with the provided email could be found
      */
+    @Transactional(readOnly = true)
     public User getUser(String email) {
-        Optional<User> userByEmail = userRepository.getUserByEmail(email);
+        shards.bindShardOfEmail(email);
+
+        Optional<User> userByEmail = userRepository.getUserByEmail(User.normalizeEmail(email));
 
         if (!userByEmail.isPresent()) {
             throw new UserNotFoundException("No user with an email of '" + email + "' could be found.");
@@ -111,19 +323,64 @@ public class UserService {
         return userByEmail.get();
     }
 
+    /**
+     * Retrieve the client-facing view of a user by their id, selecting only the exposed columns and the user's addresses,
+     * without loading the entity.
+     *
+     * @param id The id to search for
+     * @return The user
+     * @throws UserNotFoundException If no user with the provided id could be found
+     */
+    @Transactional(readOnly = true)
+    public UserDTO getUserDTO(long id) {
+        shards.bindShardOfId(id);
+
+        List<UserDTO> users = toUserDTOs(userRepository.findRowsByIdIn(Collections.singleton(id)));
+
+        if (users.isEmpty()) {
+            throw new UserNotFoundException("No user with an id of '" + id + "' could be found.");
+        }
+
+        return users.get(0);
+    }
+
+    /**
+     * Retrieve the client-facing view of a user by their email, selecting only the exposed columns and the user's addresses,
+     * without loading the entity.
+     *
+     * @param email The email to search for
+     * @return The user
+     * @throws UserNotFoundException If no user with the provided email could be found
+     */
+    @Transactional(readOnly = true)
+    public UserDTO getUserDTO(String email) {
+        shards.bindShardOfEmail(email);
+
+        List<UserDTO> users = toUserDTOs(userRepository.findRowsByEmail(User.normalizeEmail(email)));
+
+        if (users.isEmpty()) {
+            throw new UserNotFoundException("No user with an email of '" + email + "' could be found.");
+        }
+
+        return users.get(0);
+    }
+
     /**
      * Updates user information.
      * All parameters except the user id are optional.
      * If a parameter is null/empty, or equal to the same value as it currently exists on the User entity, it will not be updated.
      *
-     * @param id             The id of the user
-     * @param newEmail       The new email of the user ( optional )
-     * @param newFirstName   The new first name of the user ( optional )
-     * @param newLastName    The new last name of the user ( optional )
-     * @param newDateOfBirth The new date of birth of the user ( optional )
+     * @param id              The id of the user
+     * @param newEmail        The new email of the user ( optional )
+     * @param newFirstName    The new first name of the user ( optional )
+     * @param newLastName     The new last name of the user ( optional )
+     * @param newDateOfBirth  The new date of birth of the user ( optional )
+     * @param expectedVersion The version the user must be at for the update to be applied ( optional )
+     * @throws PreconditionFailedException If the user is not at the expected version
      */
-    public User updateUserById(long id, String newEmail, String newFirstName, String newLastName, LocalDate newDateOfBirth, Set<Address> addresses) {
+    public User updateUserById(long id, String newEmail, String newFirstName, String newLastName, LocalDate newDateOfBirth, Set<Address> addresses, Long expectedVersion) {
         User user = getUser(id);
+        validateVersion(user, expectedVersion);
         updateUser(user, newEmail, newFirstName, newLastName, newDateOfBirth, addresses);
         return user;
     }
@@ -133,22 +390,53 @@ public class UserService {
      * All parameters except the user's old email are optional.
      * If a parameter is null/empty, or equal to the same value as it currently exists on the User entity, it will not be updated.
      *
-     * @param oldEmail       The old email of the user
-     * @param newEmail       The new email of the user ( optional )
-     * @param newFirstName   The new first name of the user ( optional )
-     * @param newLastName    The new last name of the user ( optional )
-     * @param newDateOfBirth The new date of birth of the user ( optional )
+     * @param oldEmail        The old email of the user
+     * @param newEmail        The new email of the user ( optional )
+     * @param newFirstName    The new first name of the user ( optional )
+     * @param newLastName     The new last name of the user ( optional )
+     * @param newDateOfBirth  The new date of birth of the user ( optional )
+     * @param expectedVersion The version the user must be at for the update to be applied ( optional )
+     * @throws PreconditionFailedException If the user is not at the expected version
      */
-    public User updateUserByEmail(String oldEmail, String newEmail, String newFirstName, String newLastName, LocalDate newDateOfBirth, Set<Address> addresses) {
+    public User updateUserByEmail(String oldEmail, String newEmail, String newFirstName, String newLastName, LocalDate newDateOfBirth, Set<Address> addresses, Long expectedVersion) {
         User user = getUser(oldEmail);
+        validateVersion(user, expectedVersion);
         updateUser(user, newEmail, newFirstName, newLastName, newDateOfBirth, addresses);
         return user;
     }
 
+    /**
+     * The version is checked again when the update is flushed, so a concurrent update of the user made after it was read
+     * fails the transaction instead of being overwritten.
+     */
+    private static void validateVersion(User user, Long expectedVersion) {
+        if (expectedVersion != null && user.getVersion() != expectedVersion) {
+            throw new PreconditionFailedException("The user is at version " + user.getVersion() + ", not " + expectedVersion + ".");
+        }
+    }
+
+    /**
+     * Apply the changes to the managed user entity, leaving Hibernate's dirty checking to write them on commit.
+     * Only the changed columns are updated, and only the added and removed addresses are inserted and deleted.
+     */
     protected void updateUser(User user, String newEmail, String newFirstName, String newLastName, LocalDate newDateOfBirth, Set<Address> addresses) {
-        // When setting the email of the user, must ensure it does not already exist in the database
+        newEmail = User.normalizeEmail(newEmail);
+        boolean emailChanged = false;
+
+        // Users are placed on shards by the bucket of their email, which is also part of their id
+        if (!ObjectUtils.isEmpty(newEmail) && !user.getEmail().equals(newEmail) && shards.isSharded()) {
+            throw new ValidationException("Emails cannot be changed while users are sharded by email.");
+        }
+
+        // When setting the email of the user, check up-front whether it already exists, so no update is flushed in vain
         if (!ObjectUtils.isEmpty(newEmail) && !user.getEmail().equals(newEmail) && validateEmailDoesNotExist(newEmail)) {
+            // Tokens issued for the old email must no longer authenticate
+            permissionVersionCache.invalidate(user.getEmail());
+            userDetailsCache.evict(user.getEmail());
+            credentialCache.evict(user.getEmail());
             user.setEmail(newEmail);
+            emailFilter.put(newEmail);
+            emailChanged = true;
         }
 
         if (!ObjectUtils.isEmpty(newFirstName) && !user.getFirstName().equals(newFirstName)) {
@@ -163,39 +451,484 @@ public class UserService {
             user.setDateOfBirth(newDateOfBirth);
         }
 
-        if (addresses != null && !addresses.isEmpty() && !addresses.equals(user.getAddresses())) {
-            user.setAddresses(addresses);
+        if (addresses != null && !addresses.isEmpty()) {
+            replaceAddresses(user, addresses);
         }
 
-        userRepository.save(user);
+        if (emailChanged) {
+            // Flush now, so a concurrent registration of the same email is reported as a validation error
+            writeWithUniqueEmail(() -> {
+                userRepository.flush();
+                return user;
+            });
+        }
+
+        userDetailsCache.evict(user.getEmail());
+    }
+
+    /**
+     * Turn the user's addresses into the provided ones by removing and adding only the differing addresses,
+     * rather than replacing the collection, which would delete and re-insert every address row.
+     */
+    private static void replaceAddresses(User user, Set<Address> addresses) {
+        if (user.getAddresses() == null) {
+            user.setAddresses(new HashSet<>(addresses));
+            return;
+        }
+
+        user.getAddresses().retainAll(addresses);
+        user.getAddresses().addAll(addresses);
+    }
+
+    /**
+     * Replaces the permissions of a user.
+     * The user's permission version is incremented, so tokens carrying the old permissions are rejected in stateless authentication mode.
+     *
+     * @param id          The id of the user
+     * @param permissions The new permissions of the user
+     */
+    public User updatePermissions(long id, Set<Permission> permissions) {
+        Assert.notNull(permissions, "permissions cannot be null");
+
+        User user = getUser(id);
+        Set<Permission> newPermissions = EnumSet.noneOf(Permission.class);
+        newPermissions.addAll(permissions);
+        user.setPermissions(newPermissions);
+        user.setPermissionsVersion(user.getPermissionsVersion() + 1);
+
+        permissionVersionCache.invalidate(user.getEmail());
+        userDetailsCache.evict(user.getEmail());
+
+        return user;
     }
 
     /**
      * Deletes a user by their id.
      *
-     * @param userId The id of the user entity which is to be deleted
+     * @param userId          The id of the user entity which is to be deleted
+     * @param expectedVersion The version the user must be at for it to be deleted ( optional )
+     * @return Whether a user was deleted
+     * @throws PreconditionFailedException If the user is not at the expected version
      */
-    public void deleteUserById(Long userId) {
-        userRepository.deleteUserById(userId);
+    public boolean deleteUserById(long userId, Long expectedVersion) {
+        shards.bindShardOfId(userId);
+
+        // Claiming the expected version locks the row, so the user cannot change between the check and the delete
+        if (expectedVersion != null && userRepository.incrementVersion(userId, expectedVersion) == 0) {
+            Optional<Long> version = userRepository.findVersionById(userId);
+
+            if (!version.isPresent()) {
+                return false;
+            }
+
+            throw new PreconditionFailedException("The user is at version " + version.get() + ", not " + expectedVersion + ".");
+        }
+
+        return !deleteUsersById(Collections.singleton(userId)).isEmpty();
     }
 
     /**
      * Deletes a user by their email.
      *
-     * @param email The email of the user entity which is to be deleted
+     * @param email           The email of the user entity which is to be deleted
+     * @param expectedVersion The version the user must be at for it to be deleted ( optional )
+     * @return The id of the deleted user, or empty if no user was deleted
+     * @throws PreconditionFailedException If the user is not at the expected version
+     */
+    public Optional<Long> deleteUserByEmail(String email, Long expectedVersion) {
+        shards.bindShardOfEmail(email);
+
+        return userRepository.findIdByEmail(User.normalizeEmail(email)).filter(id -> deleteUserById(id, expectedVersion));
+    }
+
+    /**
+     * Retrieve the current version of a user, which is all a conditional read needs to compare.
+     *
+     * @param id The id of the user
+     * @return The version of the user
+     * @throws UserNotFoundException If no user with the provided id could be found
      */
-    public void deleteUserByEmail(String email) {
-        userRepository.deleteUserByEmail(email);
+    @Transactional(readOnly = true)
+    public long getUserVersion(long id) {
+        shards.bindShardOfId(id);
+
+        return userRepository.findVersionById(id).orElseThrow(
+                () -> new UserNotFoundException("No user with an id of '" + id + "' could be found.")
+        );
     }
 
-    public Page<User> getUsers(Pageable pageable) {
+    /**
+     * Retrieve the current version of a user, which is all a conditional read needs to compare.
+     *
+     * @param email The email of the user
+     * @return The version of the user
+     * @throws UserNotFoundException If no user with the provided email could be found
+     */
+    @Transactional(readOnly = true)
+    public long getUserVersion(String email) {
+        shards.bindShardOfEmail(email);
+
+        return userRepository.findVersionByEmail(User.normalizeEmail(email)).orElseThrow(
+                () -> new UserNotFoundException("No user with an email of '" + email + "' could be found.")
+        );
+    }
+
+    /**
+     * Deletes the users with the provided ids, without loading them.
+     * In soft delete mode, the users are only marked as deleted in a single statement, hiding them from every query,
+     * and are removed later by the {@link UserPurgeJob}. Otherwise, the addresses and the users are each deleted in a single statement.
+     * Either way, the number of statements does not depend on the number of users, but only on the number of shards they are on.
+     *
+     * @param userIds The ids of the users to delete, at most {@value #MAX_BULK_DELETE_SIZE}
+     * @return The ids of the users which were deleted. Ids of users which did not exist are left out.
+     * @throws ValidationException If too many ids are provided
+     */
+    public List<Long> deleteUsersById(Collection<Long> userIds) {
+        Assert.notNull(userIds, "userIds cannot be null");
+
+        if (userIds.size() > MAX_BULK_DELETE_SIZE) {
+            throw new ValidationException("At most " + MAX_BULK_DELETE_SIZE + " users can be deleted at once.");
+        }
+
+        if (userIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Object[]> users = shards.onShards(shards.groupByShard(userIds, shards::shardOfId), this::deleteShardUsersById, false).stream()
+                .flatMap(List::stream)
+                .collect(Collectors.toList());
+
+        List<Long> deletedIds = users.stream().map(user -> (Long) user[0]).collect(Collectors.toList());
+
+        for (Object[] user : users) {
+            String email = (String) user[1];
+
+            permissionVersionCache.invalidate(email);
+            userDetailsCache.evict(email);
+            credentialCache.evict(email);
+        }
+
+        return deletedIds;
+    }
+
+    /**
+     * Delete those of the users which exist, all on the same shard.
+     *
+     * @return Pairs of id and email of the deleted users
+     */
+    private List<Object[]> deleteShardUsersById(Collection<Long> userIds) {
+        List<Object[]> users = userRepository.findIdsAndEmailsByIdIn(userIds);
+
+        if (users.isEmpty()) {
+            return users;
+        }
+
+        List<Long> deletedIds = users.stream().map(user -> (Long) user[0]).collect(Collectors.toList());
+
+        if (softDelete) {
+            userRepository.softDeleteAllByIdIn(deletedIds, Instant.now());
+        } else {
+            userRepository.deleteAddressesByUserIdIn(deletedIds);
+            userRepository.deleteAllByIdIn(deletedIds);
+        }
+
+        return users;
+    }
+
+    /**
+     * Retrieve a page of users.
+     * The page of ids is selected first, after which the users and their addresses are fetched in one query,
+     * so the number of queries does not depend on the size of the page. Only the exposed columns are selected.
+     * When users are sharded, the keys of the users up to the end of the page are selected from every shard and merged,
+     * and only the users on the page are then fetched.
+     *
+     * @param pageable The page to retrieve
+     * @return The page of users
+     * @throws ValidationException If sorting by an unsupported property, or listing too far into the users of several shards
+     */
+    @Transactional(readOnly = true)
+    public Page<UserDTO> getUsers(Pageable pageable) {
         Assert.notNull(pageable, "pageable cannot be null");
 
-        return userRepository.findAll(pageable);
+        pageable.getSort().forEach(order -> resolveSortKey(order.getProperty()));
+
+        if (shards.isSharded()) {
+            Pageable window = shardedWindow(pageable);
+            List<Page<Object[]>> pages = shards.onEachShard(shard -> userRepository.findUserKeys(window), true);
+
+            return new PageImpl<>(
+                    findUserDTOsInOrder(mergeKeys(pages, pageable)),
+                    pageable,
+                    pages.stream().mapToLong(Page::getTotalElements).sum()
+            );
+        }
+
+        Page<Long> userIds = userRepository.findUserIds(pageable);
+
+        return new PageImpl<>(findUserDTOsInOrder(userIds.getContent()), pageable, userIds.getTotalElements());
+    }
+
+    /**
+     * Retrieve a page of users without counting all users, which on a large table can cost more than the page itself.
+     *
+     * @param pageable The page to retrieve
+     * @return The page of users, along with whether a following page exists
+     */
+    @Transactional(readOnly = true)
+    public Slice<UserDTO> getUserSlice(Pageable pageable) {
+        Assert.notNull(pageable, "pageable cannot be null");
+
+        pageable.getSort().forEach(order -> resolveSortKey(order.getProperty()));
+
+        if (shards.isSharded()) {
+            Pageable window = shardedWindow(pageable);
+            List<Slice<Object[]>> slices = shards.onEachShard(shard -> userRepository.findUserKeySlice(window), true);
+
+            boolean hasNext = slices.stream().anyMatch(Slice::hasNext)
+                    || slices.stream().mapToInt(Slice::getNumberOfElements).sum() > window.getPageSize();
+
+            return new SliceImpl<>(findUserDTOsInOrder(mergeKeys(slices, pageable)), pageable, hasNext);
+        }
+
+        Slice<Long> userIds = userRepository.findUserIdSlice(pageable);
+
+        return new SliceImpl<>(findUserDTOsInOrder(userIds.getContent()), pageable, userIds.hasNext());
+    }
+
+    /**
+     * Retrieve a page of users using keyset pagination, which seeks directly to the position of the cursor,
+     * so the cost of a page does not grow with how far into the listing it is.
+     *
+     * @param cursor       The cursor returned with the previous page, or null for the first page
+     * @param sortProperty The property to sort by, ignored when a cursor is provided
+     * @param direction    The sort direction, ignored when a cursor is provided
+     * @param size         The size of the page
+     * @return The page of users, along with the cursor of the following page
+     * @throws ValidationException If the cursor, sort property or size are invalid
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<UserDTO> getUsers(String cursor, String sortProperty, Sort.Direction direction, int size) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ValidationException("The page size must be between 1 and " + MAX_PAGE_SIZE + ".");
+        }
+
+        UserSortKey sortKey;
+        Object lastValue = null;
+        Long lastId = null;
+
+        if (cursor != null) {
+            UserCursor position = UserCursor.decode(cursor);
+            sortKey = position.getSortKey();
+            direction = position.getDirection();
+            lastId = position.getLastId();
+            lastValue = position.getLastValue();
+        } else {
+            Assert.notNull(direction, "direction cannot be null");
+            sortKey = resolveSortKey(sortProperty);
+        }
+
+        // Select one extra row to find out whether there is a following page
+        List<Object[]> keys = findUserKeysAfter(sortKey, direction, lastValue, lastId, size + 1);
+        boolean hasNext = keys.size() > size;
+
+        List<Object[]> pageKeys = hasNext ? keys.subList(0, size) : keys;
+        List<UserDTO> users = findUserDTOsInOrder(pageKeys.stream().map(key -> (Long) key[0]).collect(Collectors.toList()));
+
+        String nextCursor = null;
+
+        if (hasNext) {
+            Object[] last = pageKeys.get(pageKeys.size() - 1);
+            nextCursor = new UserCursor(sortKey, direction, (Long) last[0], String.valueOf(last[1])).encode();
+        }
+
+        return new CursorPage<>(users, nextCursor);
+    }
+
+    /**
+     * Select the keys following the cursor from every shard, and keep the first ones of them all in the order of the listing.
+     */
+    private List<Object[]> findUserKeysAfter(UserSortKey sortKey, Sort.Direction direction, Object lastValue, Long lastId, int limit) {
+        if (!shards.isSharded()) {
+            return userRepository.findUserKeysAfter(sortKey, direction, lastValue, lastId, limit);
+        }
+
+        Comparator<Object[]> order = (sortKey == UserSortKey.EMAIL
+                ? Comparator.comparing((Object[] key) -> (String) key[1], EMAIL_ORDER)
+                : Comparator.comparing((Object[] key) -> (Long) key[1]))
+                .thenComparing(key -> (Long) key[0]);
+
+        return shards.onEachShard(shard -> userRepository.findUserKeysAfter(sortKey, direction, lastValue, lastId, limit), true).stream()
+                .flatMap(List::stream)
+                .sorted(direction.isAscending() ? order : order.reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The first page of each shard which covers every user up to the end of the page, sorted by id after the requested sort,
+     * so that the keys of all shards can be merged in a single order.
+     */
+    private Pageable shardedWindow(Pageable pageable) {
+        long windowSize = pageable.getOffset() + pageable.getPageSize();
+
+        if (windowSize > MAX_SHARDED_OFFSET_WINDOW) {
+            throw new ValidationException("Only the first " + MAX_SHARDED_OFFSET_WINDOW + " users can be listed by page, use the cursor listing to go further.");
+        }
+
+        Sort sort = pageable.getSort();
+
+        if (sort.getOrderFor(UserSortKey.ID.getProperty()) == null) {
+            sort = sort.and(Sort.by(UserSortKey.ID.getProperty()));
+        }
+
+        return PageRequest.of(0, (int) windowSize, sort);
+    }
+
+    /**
+     * Merge the pairs of id and email selected from every shard in the order of the page, and keep the ids of the users on the page.
+     */
+    private static List<Long> mergeKeys(List<? extends Slice<Object[]>> shardKeys, Pageable pageable) {
+        Comparator<Object[]> order = null;
+
+        for (Sort.Order sortOrder : pageable.getSort().and(Sort.by(UserSortKey.ID.getProperty()))) {
+            Comparator<Object[]> byProperty = UserSortKey.ID.getProperty().equals(sortOrder.getProperty())
+                    ? Comparator.comparing(key -> (Long) key[0])
+                    : Comparator.comparing(key -> (String) key[1], EMAIL_ORDER);
+
+            byProperty = sortOrder.isAscending() ? byProperty : byProperty.reversed();
+            order = order == null ? byProperty : order.thenComparing(byProperty);
+        }
+
+        return shardKeys.stream()
+                .flatMap(slice -> slice.getContent().stream())
+                .sorted(order)
+                .skip(pageable.getOffset())
+                .limit(pageable.getPageSize())
+                .map(key -> (Long) key[0])
+                .collect(Collectors.toList());
+    }
+
+    private static int compareCodePoints(String first, String second) {
+        int i = 0;
+        int j = 0;
+
+        while (i < first.length() && j < second.length()) {
+            int firstCodePoint = first.codePointAt(i);
+            int secondCodePoint = second.codePointAt(j);
+
+            if (firstCodePoint != secondCodePoint) {
+                return Integer.compare(firstCodePoint, secondCodePoint);
+            }
+
+            i += Character.charCount(firstCodePoint);
+            j += Character.charCount(secondCodePoint);
+        }
+
+        return Integer.compare(first.length() - i, second.length() - j);
+    }
+
+    /**
+     * Pass every user, along with their addresses, to the consumer, in order of id.
+     * Users are read from a single streamed query within one read-only transaction, and are never attached to the persistence context,
+     * so memory usage does not grow with the number of users. When users are sharded, the shards are exported one after another,
+     * each in order of id.
+     *
+     * @param consumer The consumer of the detached users
+     */
+    @Transactional(readOnly = true)
+    public void exportUsers(Consumer<User> consumer) {
+        Assert.notNull(consumer, "consumer cannot be null");
+
+        shards.inTurnOnEachShard(shard -> {
+            exportShardUsers(consumer);
+            return null;
+        });
+    }
+
+    private void exportShardUsers(Consumer<User> consumer) {
+        try (Stream<UserAddressRow> rows = userRepository.streamAllWithAddresses()) {
+            User current = null;
+            Iterator<UserAddressRow> iterator = rows.iterator();
+
+            while (iterator.hasNext()) {
+                UserAddressRow row = iterator.next();
+
+                if (current == null || !current.getId().equals(row.getId())) {
+                    if (current != null) {
+                        consumer.accept(current);
+                    }
+
+                    current = row.toUser();
+                }
+
+                if (row.hasAddress()) {
+                    current.getAddresses().add(row.toAddress());
+                }
+            }
+
+            if (current != null) {
+                consumer.accept(current);
+            }
+        }
     }
 
-    public String fetchUserJWT(String email, String rawPassword) {
-        Optional<User> userByEmail = userRepository.getUserByEmail(email);
+    private UserSortKey resolveSortKey(String property) {
+        return UserSortKey.fromProperty(property).orElseThrow(
+                () -> new ValidationException("Sorting by '" + property + "' is not supported.")
+        );
+    }
+
+    private List<UserDTO> findUserDTOsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<Long, UserDTO> usersById = shards.onShards(shards.groupByShard(ids, shards::shardOfId), userRepository::findRowsByIdIn, true).stream()
+                .flatMap(rows -> toUserDTOs(rows).stream())
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
+
+        // A user may have been deleted between the two queries
+        return ids.stream()
+                .map(usersById::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Group rows of users joined with their addresses into one DTO per user, in order of their first row.
+     */
+    private static List<UserDTO> toUserDTOs(List<UserAddressRow> rows) {
+        Map<Long, UserDTO> usersById = new LinkedHashMap<>();
+
+        for (UserAddressRow row : rows) {
+            UserDTO user = usersById.computeIfAbsent(row.getId(), id -> row.toUserDTO());
+
+            if (row.hasAddress()) {
+                user.getAddresses().add(row.toAddressDTO());
+            }
+        }
+
+        return new ArrayList<>(usersById.values());
+    }
+
+    /**
+     * Verify a user's credentials and issue a JWT for them.
+     * The user is looked up immediately, while the password is verified on the password hashing executor.
+     * If the stored hash does not match the current hashing policy, the password is transparently re-hashed on the same executor,
+     * and the new hash is stored on the user write executor, so that the hashing threads never wait on the database.
+     * The transaction is not read-only, so the user is always looked up on the primary database, as by the UserDetailsServiceImpl.
+     * A replica lagging behind would reject a user who just registered, or accept a password which was just changed.
+     *
+     * @param email       The user's email
+     * @param rawPassword The user's password
+     * @return A future of the issued token
+     * @throws UserNotFoundException If no user with the provided email could be found
+     */
+    @Transactional
+    public CompletableFuture<String> fetchUserJWT(String email, String rawPassword) {
+        shards.bindShardOfEmail(email);
+
+        Optional<User> userByEmail = userRepository.getUserByEmail(User.normalizeEmail(email));
 
         if (!userByEmail.isPresent()) {
             throw new UserNotFoundException("Could not find user with the provided email address");
@@ -203,23 +936,138 @@ public class UserService {
 
         User user = userByEmail.get();
 
-        if (passwordEncoder.matches(rawPassword, user.getPasswordHash())) {
-            return authenticationService.createToken(email, user.getPermissions());
-        } else {
-            throw new ValidationException("User could not be authenticated");
+        // Recently verified credentials skip the password hashing executor entirely
+        if (credentialCache.isVerified(user.getEmail(), rawPassword, user.getPasswordHash())) {
+            return CompletableFuture.completedFuture(
+                    authenticationService.createToken(user.getEmail(), user.getPermissions(), user.getPermissionsVersion())
+            );
+        }
+
+        return passwordHashingService.matches(rawPassword, user.getPasswordHash()).thenCompose(matches -> {
+            if (!matches) {
+                throw new ValidationException("User could not be authenticated");
+            }
+
+            Optional<String> newHash = rehashPasswordIfNeeded(user, rawPassword);
+
+            if (!newHash.isPresent()) {
+                return CompletableFuture.completedFuture(issueToken(user, rawPassword, user.getPasswordHash()));
+            }
+
+            try {
+                return CompletableFuture.supplyAsync(() -> issueToken(user, rawPassword, storeRehashedPassword(user, newHash.get())), writeExecutor);
+            } catch (RejectedExecutionException e) {
+                // The login itself succeeded, the password will be re-hashed on a later one
+                return CompletableFuture.completedFuture(issueToken(user, rawPassword, user.getPasswordHash()));
+            }
+        });
+    }
+
+    private String issueToken(User user, String rawPassword, String passwordHash) {
+        credentialCache.put(user.getEmail(), rawPassword, passwordHash);
+
+        return authenticationService.createToken(user.getEmail(), user.getPermissions(), user.getPermissionsVersion());
+    }
+
+    /**
+     * Hash the password again if its stored hash does not match the current hashing policy. Runs on the password hashing executor.
+     *
+     * @return The new password hash, or empty if the stored one is kept
+     */
+    private Optional<String> rehashPasswordIfNeeded(User user, String rawPassword) {
+        try {
+            return passwordHashingService.rehashIfNeeded(rawPassword, user.getPasswordHash());
+        } catch (RuntimeException e) {
+            // The login itself succeeded, the password will be re-hashed on a later one
+            LOGGER.warn("Could not re-hash password of user {}", user.getId(), e);
+            return Optional.empty();
         }
     }
 
+    /**
+     * Store a re-hashed password, provided the stored hash has not changed since the user was read. Runs on the user write executor.
+     *
+     * @return The password hash stored for the user afterwards
+     */
+    private String storeRehashedPassword(User user, String newHash) {
+        try {
+            Integer updated = ReadYourWritesContext.asPrincipal(user.getEmail(), () -> shards.onShardOfId(user.getId(), () -> writeTransaction.execute(
+                    status -> userRepository.updatePasswordHash(user.getId(), user.getPasswordHash(), newHash)
+            )));
+
+            if (updated != null && updated > 0) {
+                userDetailsCache.evict(user.getEmail());
+                return newHash;
+            }
+        } catch (RuntimeException e) {
+            // The login itself succeeded, the password will be re-hashed on a later one
+            LOGGER.warn("Could not store re-hashed password of user {}", user.getId(), e);
+        }
+
+        return user.getPasswordHash();
+    }
+
+    private static Set<Permission> defaultPermissions() {
+        return EnumSet.of(
+                Permission.READ_OTHER_USER,
+                Permission.READ_SELF,
+                Permission.UPDATE_SELF,
+                Permission.DELETE_SELF
+        );
+    }
+
+    /**
+     * Run a write which flushes immediately, so a violation of the unique email constraint surfaces here,
+     * rather than on commit, and can be reported as a {@link ValidationException}.
+     */
+    private User writeWithUniqueEmail(Supplier<User> write) {
+        try {
+            return write.get();
+        } catch (DataIntegrityViolationException e) {
+            if (isEmailConstraintViolation(e)) {
+                throw new ValidationException(EMAIL_EXISTS_MESSAGE);
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Undo what persisting a new user set on it, once its transaction has rolled back, so it is persisted as a new user again.
+     * Its addresses are copied out of the collection Hibernate wrapped them in.
+     */
+    private static void resetUnsavedUser(User user) {
+        user.setId(null);
+        user.setVersion(0);
+
+        if (user.getAddresses() != null) {
+            user.setAddresses(new HashSet<>(user.getAddresses()));
+        }
+    }
+
+    /**
+     * @return Whether the violated constraint is the unique constraint on the email column
+     */
+    static boolean isEmailConstraintViolation(DataIntegrityViolationException e) {
+        return e.getCause() instanceof ConstraintViolationException
+                && User.EMAIL_CONSTRAINT.equalsIgnoreCase(((ConstraintViolationException) e.getCause()).getConstraintName());
+    }
+
     private boolean validateEmailDoesNotExist(String email) {
         Assert.notNull(email, "email cannot be null");
 
-        Optional<User> userByEmail = userRepository.getUserByEmail(email);
+        // Emails which the filter has never seen cannot belong to a user
+        if (!emailFilter.mightContain(email)) {
+            return true;
+        }
 
         // If a user with this email already exists, throw an exception.
-        if (userByEmail.isPresent()) {
-            throw new ValidationException("A user with this email address already exists.");
+        if (userRepository.existsByEmail(email)) {
+            throw new ValidationException(EMAIL_EXISTS_MESSAGE);
         }
 
+        emailFilter.recordFalsePositive();
+
         return true;
     }
 
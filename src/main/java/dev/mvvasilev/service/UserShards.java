@@ -0,0 +1,255 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.datasource.ShardContext;
+import dev.mvvasilev.datasource.ShardMap;
+import dev.mvvasilev.entity.User;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Runs work against the shards holding the users it concerns. When users are not sharded, there is a single shard,
+ * and all work runs on the calling thread, within the current transaction if there is one.
+ * <p>
+ * Work concerning a single user is routed by binding the shard of the user to the current transaction.
+ * Work spanning several shards is scattered to every shard involved in parallel, each part in its own transaction,
+ * and the results gathered, so it is not atomic across shards.
+ *
+ * @author Miroslav Vasilev
+ */
+@Component
+public class UserShards implements DisposableBean {
+
+    private ShardMap shardMap;
+
+    private TransactionTemplate readWriteTransaction;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    private TransactionTemplate newReadOnlyTransaction;
+
+    private ExecutorService executor;
+
+    @Autowired
+    public UserShards(PlatformTransactionManager transactionManager, Optional<ShardMap> shardMap) {
+        this.shardMap = shardMap.orElse(null);
+        this.readWriteTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.newReadOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.newReadOnlyTransaction.setReadOnly(true);
+        this.newReadOnlyTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        if (this.shardMap != null) {
+            this.executor = Executors.newFixedThreadPool(this.shardMap.getShardCount(), new CustomizableThreadFactory("user-shards-"));
+        }
+    }
+
+    public boolean isSharded() {
+        return shardMap != null;
+    }
+
+    public int getShardCount() {
+        return isSharded() ? shardMap.getShardCount() : 1;
+    }
+
+    public int shardOfId(long id) {
+        return isSharded() ? shardMap.shardOfId(id) : 0;
+    }
+
+    /**
+     * @param email The email of a user, normalized here
+     */
+    public int shardOfEmail(String email) {
+        return isSharded() ? shardMap.shardOfEmail(User.normalizeEmail(email)) : 0;
+    }
+
+    /**
+     * Route the current transaction to the shard of the user with the id. Must be called before the transaction first queries.
+     */
+    public void bindShardOfId(long id) {
+        if (isSharded()) {
+            ShardContext.bindToTransaction(shardOfId(id));
+        }
+    }
+
+    /**
+     * Route the current transaction to the shard of the user with the email. Must be called before the transaction first queries.
+     */
+    public void bindShardOfEmail(String email) {
+        if (isSharded()) {
+            ShardContext.bindToTransaction(shardOfEmail(email));
+        }
+    }
+
+    /**
+     * Run the work, routing the transactions it begins to the shard of the user with the email.
+     */
+    public <T> T onShardOfEmail(String email, Supplier<T> work) {
+        return isSharded() ? ShardContext.onShard(shardOfEmail(email), work) : work.get();
+    }
+
+    /**
+     * Run the work, routing the transactions it begins to the shard of the user with the id.
+     */
+    public <T> T onShardOfId(long id, Supplier<T> work) {
+        return isSharded() ? ShardContext.onShard(shardOfId(id), work) : work.get();
+    }
+
+    /**
+     * @return The keys grouped by the shard returned for each of them, keeping their order within each shard
+     */
+    public <K> Map<Integer, List<K>> groupByShard(Collection<K> keys, ToIntFunction<K> shardOf) {
+        if (!isSharded()) {
+            return Collections.singletonMap(0, new ArrayList<>(keys));
+        }
+
+        return keys.stream().collect(Collectors.groupingBy(shardOf::applyAsInt, LinkedHashMap::new, Collectors.toList()));
+    }
+
+    /**
+     * Run the work on each shard, with that shard's input. If all the input belongs to the shard the current transaction
+     * is already bound to, or users are not sharded, the work runs within the current transaction.
+     * Otherwise, it runs in parallel, each shard in a transaction of its own.
+     *
+     * @return The result of each shard, in no particular order
+     * @throws RuntimeException The failure of any shard, once every shard has completed
+     */
+    public <T, R> List<R> onShards(Map<Integer, T> inputByShard, Function<T, R> work, boolean readOnly) {
+        List<CompletableFuture<R>> results = new ArrayList<>(onShardsSeparately(inputByShard, work, readOnly).values());
+
+        try {
+            CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+
+        return results.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    }
+
+    /**
+     * Like {@link #onShards(Map, Function, boolean)}, but the failure of one shard does not fail the others.
+     * When the work runs in a transaction of its own for each shard, the shards which did not fail stay committed.
+     *
+     * @return The outcome of each shard, by shard
+     */
+    public <T, R> Map<Integer, CompletableFuture<R>> onShardsSeparately(Map<Integer, T> inputByShard, Function<T, R> work, boolean readOnly) {
+        TransactionTemplate transaction = readOnly ? readOnlyTransaction : readWriteTransaction;
+        Map<Integer, CompletableFuture<R>> results = new LinkedHashMap<>();
+
+        if (!isSharded() || (inputByShard.size() == 1 && Objects.equals(ShardContext.currentShard(), inputByShard.keySet().iterator().next()))) {
+            for (Map.Entry<Integer, T> input : inputByShard.entrySet()) {
+                CompletableFuture<R> result = new CompletableFuture<>();
+
+                try {
+                    result.complete(transaction.execute(status -> work.apply(input.getValue())));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+
+                results.put(input.getKey(), result);
+            }
+
+            return results;
+        }
+
+        for (Map.Entry<Integer, T> input : inputByShard.entrySet()) {
+            results.put(input.getKey(), CompletableFuture.supplyAsync(
+                    () -> ShardContext.onShard(input.getKey(), () -> transaction.execute(status -> work.apply(input.getValue()))),
+                    executor
+            ));
+        }
+
+        return results;
+    }
+
+    /**
+     * Run the work on every shard, in parallel, each in a transaction of its own ( see {@link #onShards(Map, Function, boolean)} ).
+     *
+     * @return The result of each shard, in no particular order
+     */
+    public <R> List<R> onEachShard(IntFunction<R> work, boolean readOnly) {
+        Map<Integer, Integer> shards = new LinkedHashMap<>();
+
+        for (int shard = 0; shard < getShardCount(); shard++) {
+            shards.put(shard, shard);
+        }
+
+        return onShards(shards, work::apply, readOnly);
+    }
+
+    /**
+     * Run the work on every shard in turn, on the calling thread, each in a new read-only transaction.
+     * Unlike {@link #onEachShard(IntFunction, boolean)}, the work of one shard never overlaps with that of another.
+     *
+     * @return The result of each shard, in order of shard
+     */
+    public <R> List<R> inTurnOnEachShard(IntFunction<R> work) {
+        if (!isSharded()) {
+            return Collections.singletonList(readOnlyTransaction.execute(status -> work.apply(0)));
+        }
+
+        return forEachShard(shard -> newReadOnlyTransaction.execute(status -> work.apply(shard)));
+    }
+
+    /**
+     * Run the work on every shard in turn, on the calling thread, routing the transactions it begins to that shard.
+     * The work is responsible for its own transactions.
+     *
+     * @return The result of each shard, in order of shard
+     */
+    public <R> List<R> forEachShard(IntFunction<R> work) {
+        if (!isSharded()) {
+            return Collections.singletonList(work.apply(0));
+        }
+
+        List<R> results = new ArrayList<>(getShardCount());
+
+        for (int shard = 0; shard < getShardCount(); shard++) {
+            int current = shard;
+            results.add(ShardContext.onShard(current, () -> work.apply(current)));
+        }
+
+        return results;
+    }
+
+    /**
+     * Pick up buckets moved to other shards by the rebalancing of another instance.
+     */
+    @Scheduled(fixedDelayString = "${users.sharding.mapping-refresh-ms:60000}")
+    public void refreshMapping() {
+        if (isSharded()) {
+            shardMap.reload();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
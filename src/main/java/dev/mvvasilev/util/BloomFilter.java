@@ -0,0 +1,138 @@
+package dev.mvvasilev.util;
+
+import org.springframework.util.Assert;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of strings: a set which answers "definitely absent" or "possibly present" in a fixed amount of memory.
+ * It never reports an element it was given as absent, but may report elements it was not given as present.
+ * Elements cannot be removed. Safe for concurrent use.
+ *
+ * @author Miroslav Vasilev
+ */
+public class BloomFilter {
+
+    private static final double LN_2 = Math.log(2);
+
+    private final AtomicLongArray words;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    private final AtomicLong setBitCount = new AtomicLong();
+
+    /**
+     * @param expectedElements         The number of distinct elements the filter is sized for
+     * @param falsePositiveProbability The probability of a false positive once the filter holds the expected number of elements
+     */
+    public BloomFilter(long expectedElements, double falsePositiveProbability) {
+        Assert.isTrue(expectedElements > 0, "expectedElements must be positive");
+        Assert.isTrue(falsePositiveProbability > 0 && falsePositiveProbability < 1, "falsePositiveProbability must be between 0 and 1");
+
+        long optimalBits = (long) Math.ceil(-expectedElements * Math.log(falsePositiveProbability) / (LN_2 * LN_2));
+        long wordCount = Math.max(1, (optimalBits + Long.SIZE - 1) / Long.SIZE);
+
+        this.words = new AtomicLongArray(Math.toIntExact(wordCount));
+        this.bitCount = wordCount * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedElements * LN_2));
+    }
+
+    public void put(String element) {
+        long hash1 = hash(element);
+        long hash2 = mix(hash1 + 0x9E3779B97F4A7C15L);
+
+        for (int i = 1; i <= hashCount; i++) {
+            if (setBit(index(hash1, hash2, i))) {
+                setBitCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return False if the element was definitely never put into the filter, true if it may have been
+     */
+    public boolean mightContain(String element) {
+        long hash1 = hash(element);
+        long hash2 = mix(hash1 + 0x9E3779B97F4A7C15L);
+
+        for (int i = 1; i <= hashCount; i++) {
+            if (!isBitSet(index(hash1, hash2, i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The probability that an element which was never put into the filter is reported as present, given its current contents
+     */
+    public double expectedFalsePositiveProbability() {
+        return Math.pow((double) setBitCount.get() / bitCount, hashCount);
+    }
+
+    /**
+     * @return An estimate of the number of distinct elements put into the filter
+     */
+    public long approximateElementCount() {
+        double fractionSet = (double) setBitCount.get() / bitCount;
+        return Math.round(-Math.log1p(-fractionSet) * bitCount / hashCount);
+    }
+
+    public long sizeInBytes() {
+        return bitCount / Byte.SIZE;
+    }
+
+    private long index(long hash1, long hash2, int i) {
+        return ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+    }
+
+    private boolean setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long current;
+
+        do {
+            current = words.get(word);
+
+            if ((current & mask) != 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(word, current, current | mask));
+
+        return true;
+    }
+
+    private boolean isBitSet(long index) {
+        return (words.get((int) (index >>> 6)) & (1L << index)) != 0;
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of the string, finalized with {@link #mix(long)}
+     */
+    private static long hash(String element) {
+        long hash = 0xCBF29CE484222325L;
+
+        for (int i = 0; i < element.length(); i++) {
+            hash ^= element.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+
+        return mix(hash);
+    }
+
+    /**
+     * The 64-bit finalizer of MurmurHash3
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,79 @@
+package dev.mvvasilev.util;
+
+import dev.mvvasilev.exception.PreconditionFailedException;
+
+/**
+ * Strong entity tags derived from the version of a resource, and their comparison with conditional request headers.
+ *
+ * @author Miroslav Vasilev
+ */
+public final class EntityTags {
+
+    private static final String ANY = "*";
+
+    private static final String WEAK_PREFIX = "W/";
+
+    private EntityTags() {
+    }
+
+    /**
+     * @return The quoted entity tag of the version
+     */
+    public static String of(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Weakly compare an If-None-Match header with the current version of a resource.
+     *
+     * @param ifNoneMatch The header value, a list of entity tags or *
+     * @return Whether any of the entity tags matches the version, so the client's copy of the resource is not modified
+     */
+    public static boolean isNotModified(String ifNoneMatch, long version) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        String current = of(version);
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+
+            if (tag.equals(ANY) || stripWeakPrefix(tag).equals(current)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Read the version a client expects a resource to be at from an If-Match header.
+     * Only a single strong entity tag can be matched, as it is compared with the version when the resource is written.
+     *
+     * @param ifMatch The header value
+     * @return The expected version, or null if the header is absent or *, so any version matches
+     * @throws PreconditionFailedException If the header cannot match any version, such as a weak or foreign entity tag
+     */
+    public static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals(ANY)) {
+            return null;
+        }
+
+        String tag = ifMatch.trim();
+
+        if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            try {
+                return Long.parseLong(tag.substring(1, tag.length() - 1));
+            } catch (NumberFormatException e) {
+                // Fall through, the tag was not issued by this service
+            }
+        }
+
+        throw new PreconditionFailedException("The entity tag " + tag + " does not match the current version.");
+    }
+
+    private static String stripWeakPrefix(String tag) {
+        return tag.startsWith(WEAK_PREFIX) ? tag.substring(WEAK_PREFIX.length()) : tag;
+    }
+}
@@ -0,0 +1,76 @@
+package dev.mvvasilev.util;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A page of a listing which is not counted, so it only reports whether a following page exists.
+ *
+ * @author Miroslav Vasilev
+ */
+public class SlicePage<T> {
+
+    private List<T> content;
+
+    private int number;
+
+    private int size;
+
+    private boolean hasNext;
+
+    private Long approximateTotal;
+
+    public SlicePage(List<T> content, int number, int size, boolean hasNext, Long approximateTotal) {
+        this.content = content;
+        this.number = number;
+        this.size = size;
+        this.hasNext = hasNext;
+        this.approximateTotal = approximateTotal;
+    }
+
+    public <R> SlicePage<R> map(Function<? super T, ? extends R> mapper) {
+        return new SlicePage<>(content.stream().map(mapper).collect(Collectors.toList()), number, size, hasNext, approximateTotal);
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isHasNext() {
+        return hasNext;
+    }
+
+    /**
+     * @return The periodically refreshed number of users, or null if it was not requested
+     */
+    public Long getApproximateTotal() {
+        return approximateTotal;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SlicePage<?> that = (SlicePage<?>) o;
+        return number == that.number &&
+                size == that.size &&
+                hasNext == that.hasNext &&
+                Objects.equals(content, that.content) &&
+                Objects.equals(approximateTotal, that.approximateTotal);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(content, number, size, hasNext, approximateTotal);
+    }
+}
@@ -0,0 +1,20 @@
+-- PostgreSQL migration replacing the user_permissions element collection table with a bitmask column on "user".
+-- Bit n of the mask corresponds to the Permission enum constant with ordinal n, which is also what user_permissions stored.
+-- Run this before deploying the version of the service which maps User.permissions to the bitmask column.
+
+BEGIN;
+
+ALTER TABLE "user" ADD COLUMN permissions INTEGER NOT NULL DEFAULT 0;
+
+UPDATE "user" u
+SET permissions = p.mask
+FROM (
+    SELECT user_id, SUM(DISTINCT 1 << permissions) AS mask
+    FROM user_permissions
+    GROUP BY user_id
+) p
+WHERE p.user_id = u.id;
+
+DROP TABLE user_permissions;
+
+COMMIT;
@@ -0,0 +1,17 @@
+-- PostgreSQL migration moving "user".id from a serial column to the pooled user_id_seq sequence.
+-- The serial column already owns a sequence named user_id_seq, which is reused: its increment becomes the allocation size
+-- ( spring.jpa.properties.users.id.allocation-size, 50 by default ), and it is restarted after the highest existing id.
+-- Run this before deploying the version of the service which generates user ids with UserIdGenerator.
+-- Instances of the previous version must be stopped first, as they would keep inserting with increments of 1.
+
+BEGIN;
+
+LOCK TABLE "user" IN EXCLUSIVE MODE;
+
+ALTER TABLE "user" ALTER COLUMN id DROP DEFAULT;
+
+ALTER SEQUENCE user_id_seq INCREMENT BY 50;
+
+SELECT setval('user_id_seq', (SELECT COALESCE(MAX(id), 0) + 1 FROM "user"), false);
+
+COMMIT;
@@ -0,0 +1,36 @@
+-- PostgreSQL migration normalizing user emails to their trimmed, lower-cased form, and naming their unique constraint uk_user_email.
+-- Run this before deploying the version of the service which normalizes emails ( see User.normalizeEmail ).
+-- If two users have emails which differ only in case or surrounding whitespace, the migration fails without changes,
+-- and the accounts must be merged or renamed by hand first.
+
+BEGIN;
+
+LOCK TABLE "user" IN EXCLUSIVE MODE;
+
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM "user" GROUP BY lower(trim(email)) HAVING COUNT(*) > 1) THEN
+        RAISE EXCEPTION 'Some users have emails which differ only in case or surrounding whitespace';
+    END IF;
+END $$;
+
+UPDATE "user" SET email = lower(trim(email)) WHERE email <> lower(trim(email));
+
+-- Replace the unique constraint on email generated by Hibernate, whose name is not known in advance
+DO $$
+DECLARE
+    constraint_name TEXT;
+BEGIN
+    FOR constraint_name IN
+        SELECT c.conname
+        FROM pg_constraint c
+        JOIN pg_attribute a ON a.attrelid = c.conrelid AND a.attnum = c.conkey[1]
+        WHERE c.conrelid = '"user"'::regclass AND c.contype = 'u' AND array_length(c.conkey, 1) = 1 AND a.attname = 'email'
+    LOOP
+        EXECUTE format('ALTER TABLE "user" DROP CONSTRAINT %I', constraint_name);
+    END LOOP;
+END $$;
+
+ALTER TABLE "user" ADD CONSTRAINT uk_user_email UNIQUE (email);
+
+COMMIT;
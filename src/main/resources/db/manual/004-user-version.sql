@@ -0,0 +1,9 @@
+-- PostgreSQL migration adding the optimistic locking version and the last update time of users.
+-- Existing users start at version 0, last updated at the time of the migration.
+
+BEGIN;
+
+ALTER TABLE "user" ADD COLUMN IF NOT EXISTS version bigint NOT NULL DEFAULT 0;
+ALTER TABLE "user" ADD COLUMN IF NOT EXISTS updated_at timestamp NOT NULL DEFAULT current_timestamp;
+
+COMMIT;
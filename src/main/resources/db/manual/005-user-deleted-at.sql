@@ -0,0 +1,13 @@
+-- PostgreSQL migration adding the soft delete time of users, which was previously only added by Hibernate's schema update.
+-- Run this before deploying the version of the service which soft deletes users, as every query of users filters on the column,
+-- whether users.soft-delete.enabled is set or not. Existing users are not deleted.
+-- The partial index only holds the deleted users, which the purge job looks up by deletion time.
+
+BEGIN;
+
+ALTER TABLE "user" ADD COLUMN IF NOT EXISTS deleted_at timestamp;
+
+COMMIT;
+
+-- Cannot run inside a transaction
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_user_deleted_at ON "user" (deleted_at) WHERE deleted_at IS NOT NULL;
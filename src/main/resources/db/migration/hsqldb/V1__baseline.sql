@@ -0,0 +1,28 @@
+-- The schema of users, for the embedded database. Kept in step with the PostgreSQL migrations.
+
+CREATE SEQUENCE user_id_seq AS BIGINT START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE "user" (
+    id                  BIGINT       NOT NULL,
+    first_name          VARCHAR(255),
+    last_name           VARCHAR(255),
+    date_of_birth       DATE,
+    email               VARCHAR(255) NOT NULL,
+    password_hash       VARCHAR(255) NOT NULL,
+    permissions         INTEGER      DEFAULT 0 NOT NULL,
+    permissions_version BIGINT       DEFAULT 0 NOT NULL,
+    version             BIGINT       DEFAULT 0 NOT NULL,
+    updated_at          TIMESTAMP    DEFAULT CURRENT_TIMESTAMP NOT NULL,
+    deleted_at          TIMESTAMP,
+    CONSTRAINT pk_user PRIMARY KEY (id),
+    CONSTRAINT uk_user_email UNIQUE (email)
+);
+
+CREATE TABLE user_addresses (
+    user_id        BIGINT NOT NULL,
+    city           VARCHAR(255),
+    country        VARCHAR(255),
+    post_code      VARCHAR(255),
+    street_address VARCHAR(255),
+    CONSTRAINT fk_user_addresses_user FOREIGN KEY (user_id) REFERENCES "user" (id)
+);
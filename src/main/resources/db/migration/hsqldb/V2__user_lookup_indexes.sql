@@ -0,0 +1,7 @@
+-- Indexes for the lookups the repository makes besides those by id and email, which the primary key and uk_user_email cover.
+
+-- Loading, replacing and deleting the addresses of users
+CREATE INDEX idx_user_addresses_user_id ON user_addresses (user_id);
+
+-- Finding soft deleted users to purge
+CREATE INDEX idx_user_deleted_at ON "user" (deleted_at);
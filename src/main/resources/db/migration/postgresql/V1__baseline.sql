@@ -0,0 +1,30 @@
+-- The schema of users as it stands after the manual migrations 001 to 005 in db/manual.
+-- Databases created before the service used Flyway must have those applied, after which Flyway baselines them at this version
+-- instead of running it. New databases are created by this migration, and never need the manual ones.
+
+CREATE SEQUENCE user_id_seq INCREMENT BY 50;
+
+CREATE TABLE "user" (
+    id                  BIGINT       NOT NULL,
+    first_name          VARCHAR(255),
+    last_name           VARCHAR(255),
+    date_of_birth       DATE,
+    email               VARCHAR(255) NOT NULL,
+    password_hash       VARCHAR(255) NOT NULL,
+    permissions         INTEGER      NOT NULL DEFAULT 0,
+    permissions_version BIGINT       NOT NULL DEFAULT 0,
+    version             BIGINT       NOT NULL DEFAULT 0,
+    updated_at          TIMESTAMP    NOT NULL DEFAULT current_timestamp,
+    deleted_at          TIMESTAMP,
+    CONSTRAINT pk_user PRIMARY KEY (id),
+    CONSTRAINT uk_user_email UNIQUE (email)
+);
+
+CREATE TABLE user_addresses (
+    user_id        BIGINT NOT NULL,
+    city           VARCHAR(255),
+    country        VARCHAR(255),
+    post_code      VARCHAR(255),
+    street_address VARCHAR(255),
+    CONSTRAINT fk_user_addresses_user FOREIGN KEY (user_id) REFERENCES "user" (id)
+);
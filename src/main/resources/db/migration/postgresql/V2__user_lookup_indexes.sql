@@ -0,0 +1,8 @@
+-- Indexes for the lookups the repository makes besides those by id and email, which the primary key and uk_user_email cover.
+-- They are built concurrently, so existing tables stay writable meanwhile, which Flyway does outside of a transaction.
+
+-- Loading, replacing and deleting the addresses of users
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_user_addresses_user_id ON user_addresses (user_id);
+
+-- Finding soft deleted users to purge. Only the few deleted users are indexed.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_user_deleted_at ON "user" (deleted_at) WHERE deleted_at IS NOT NULL;
@@ -0,0 +1,8 @@
+-- The shard each virtual bucket of users is assigned to, see dev.mvvasilev.datasource.ShardMap.
+-- Only read on the first shard, and only when users are sharded. Filled in by the service on first use.
+
+CREATE TABLE user_shard_bucket (
+    bucket INTEGER NOT NULL,
+    shard  INTEGER NOT NULL,
+    CONSTRAINT pk_user_shard_bucket PRIMARY KEY (bucket)
+);
@@ -0,0 +1,12 @@
+-- Order emails by the binary "C" collation, which compares their bytes, rather than by the collation of the database.
+-- When users are sharded, listings sorted by email merge the users of every shard in the service ( see UserService.EMAIL_ORDER ),
+-- which only agrees with the order of each shard, and with the cursors each shard seeks from, under a collation the service can reproduce.
+-- Locale collations such as en_US also differ between operating systems and their versions, so shards on different hosts could disagree.
+-- Emails are lower-cased on the way in, so the order only changes for punctuation and digits. HSQLDB already orders strings this way.
+--
+-- The type does not change, so rows are not rewritten, but uk_user_email is rebuilt under an ACCESS EXCLUSIVE lock on "user",
+-- which blocks every read and write of users until it completes, for a time which grows with the number of users.
+-- Flyway runs this on the first startup of the version which contains it, whether users are sharded or not, so deploy
+-- that version to databases holding many users in a maintenance window, with the other instances of the service stopped.
+
+ALTER TABLE "user" ALTER COLUMN email TYPE VARCHAR(255) COLLATE "C";
@@ -0,0 +1,71 @@
+package dev.mvvasilev.controller;
+
+import dev.mvvasilev.controller.advice.UserControllerAdvice;
+import dev.mvvasilev.dto.AuthenticateUserDTO;
+import dev.mvvasilev.facade.UserFacade;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Checks that a full password hashing or user write queue is answered with 503, whether the facade is rejected
+ * before returning or its future fails later on.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class UserControllerRejectionTest {
+
+    private static final String AUTHENTICATE_BODY = "{\"email\":\"someemail@domain.com\",\"rawPassword\":\"test_password123\"}";
+
+    @Mock
+    private UserFacade userFacade;
+
+    private MockMvc mockMvc;
+
+    @Before
+    public void init() {
+        mockMvc = MockMvcBuilders.standaloneSetup(new UserController(userFacade))
+                .setControllerAdvice(new UserControllerAdvice())
+                .build();
+    }
+
+    @Test
+    public void testAuthenticate_rejectedBeforeReturning() throws Exception {
+        Mockito.when(userFacade.authenticateUser(Matchers.any(AuthenticateUserDTO.class)))
+                .thenThrow(new TaskRejectedException("Password hashing queue is full"));
+
+        mockMvc.perform(post("/api/users/authenticate").contentType(MediaType.APPLICATION_JSON).content(AUTHENTICATE_BODY))
+                .andExpect(status().isServiceUnavailable());
+    }
+
+    @Test
+    public void testAuthenticate_futureRejected() throws Exception {
+        CompletableFuture<String> rejected = new CompletableFuture<>();
+        rejected.completeExceptionally(new CompletionException(new TaskRejectedException("User write queue is full")));
+
+        Mockito.when(userFacade.authenticateUser(Matchers.any(AuthenticateUserDTO.class))).thenReturn(rejected);
+
+        MvcResult result = mockMvc.perform(post("/api/users/authenticate").contentType(MediaType.APPLICATION_JSON).content(AUTHENTICATE_BODY))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isServiceUnavailable());
+    }
+}
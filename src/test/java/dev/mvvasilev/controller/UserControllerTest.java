@@ -13,6 +13,8 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 
 import java.time.LocalDate;
 import java.time.Month;
@@ -69,7 +71,11 @@ public class UserControllerTest {
         updatedExpectedDTO.setDateOfBirth(updateUserDTO.getDateOfBirth());
 
         Mockito.when(userFacade.getUserById(USER_ID)).thenReturn(expectedUserDTO);
-        Mockito.when(userFacade.updateUserById(USER_ID, updateUserDTO)).thenReturn(updatedExpectedDTO);
+        expectedUserDTO.setVersion(3);
+        updatedExpectedDTO.setVersion(4);
+
+        Mockito.when(userFacade.getUserVersionById(USER_ID)).thenReturn(3L);
+        Mockito.when(userFacade.updateUserById(USER_ID, updateUserDTO, 3L)).thenReturn(updatedExpectedDTO);
     }
 
     @Test
@@ -79,21 +85,40 @@ public class UserControllerTest {
 
     @Test
     public void testGetUser() {
-        UserDTO userDTO = userController.getUser(USER_ID);
+        ResponseEntity<UserDTO> response = userController.getUser(USER_ID, null);
+
+        Assert.assertEquals(response.getBody(), expectedUserDTO);
+        Assert.assertEquals("\"3\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    public void testGetUser_notModified() {
+        ResponseEntity<UserDTO> response = userController.getUser(USER_ID, "\"3\"");
+
+        Assert.assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        Assert.assertNull(response.getBody());
+        Mockito.verify(userFacade, Mockito.never()).getUserById(USER_ID);
+    }
+
+    @Test
+    public void testGetUser_modified() {
+        ResponseEntity<UserDTO> response = userController.getUser(USER_ID, "\"2\"");
 
-        Assert.assertEquals(userDTO, expectedUserDTO);
+        Assert.assertEquals(HttpStatus.OK, response.getStatusCode());
+        Assert.assertEquals(response.getBody(), expectedUserDTO);
     }
 
     @Test
     public void testUpdateUser() {
-        UserDTO userDTO = userController.updateUser(USER_ID, updateUserDTO);
+        ResponseEntity<UserDTO> response = userController.updateUser(USER_ID, updateUserDTO, "\"3\"");
 
-        Assert.assertEquals(userDTO, updatedExpectedDTO);
+        Assert.assertEquals(response.getBody(), updatedExpectedDTO);
+        Assert.assertEquals("\"4\"", response.getHeaders().getETag());
     }
 
     @Test
     public void testDeleteUser() {
-        userController.deleteUser(USER_ID);
+        userController.deleteUser(USER_ID, null);
     }
 
     @Test
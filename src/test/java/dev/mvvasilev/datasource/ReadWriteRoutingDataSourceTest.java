@@ -0,0 +1,126 @@
+package dev.mvvasilev.datasource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+
+/**
+ * Routes between two embedded HSQLDB databases standing in for the primary and the replica.
+ * Each holds a single row naming the database, so every query reveals where it was routed.
+ */
+public class ReadWriteRoutingDataSourceTest {
+
+    private JdbcTemplate jdbcTemplate;
+
+    private TransactionTemplate readWriteTransaction;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    @Before
+    public void init() {
+        DataSource primary = database("primary");
+        DataSource replica = database("replica");
+
+        ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource(primary, replica, new ReadYourWritesTracker(60000, 100));
+        routingDataSource.afterPropertiesSet();
+
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        readWriteTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    @After
+    public void clearAuthentication() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testReadOnlyTransaction_usesReplica() {
+        Assert.assertEquals("replica", readOnlyTransaction.execute(status -> queryDatabaseName()));
+    }
+
+    @Test
+    public void testReadWriteTransaction_usesPrimary() {
+        Assert.assertEquals("primary", readWriteTransaction.execute(status -> queryDatabaseName()));
+    }
+
+    @Test
+    public void testReadOnlyTransaction_afterOwnWrite_usesPrimary() {
+        authenticate("writer@domain.com");
+        readWriteTransaction.execute(status -> queryDatabaseName());
+
+        Assert.assertEquals("primary", readOnlyTransaction.execute(status -> queryDatabaseName()));
+
+        authenticate("reader@domain.com");
+
+        Assert.assertEquals("replica", readOnlyTransaction.execute(status -> queryDatabaseName()));
+    }
+
+    @Test
+    public void testReadOnlyTransaction_afterRolledBackWrite_usesReplica() {
+        authenticate("writer@domain.com");
+        readWriteTransaction.execute(status -> {
+            status.setRollbackOnly();
+            return queryDatabaseName();
+        });
+
+        Assert.assertEquals("replica", readOnlyTransaction.execute(status -> queryDatabaseName()));
+    }
+
+    @Test
+    public void testReadOnlyTransaction_afterWriteForPrincipal_usesPrimary() {
+        // Nobody is authenticated, as when a user registers, or a write is made off the request thread
+        ReadYourWritesContext.asPrincipal("writer@domain.com", () -> readWriteTransaction.execute(status -> queryDatabaseName()));
+
+        Assert.assertNull(ReadYourWritesContext.currentPrincipal());
+
+        authenticate("writer@domain.com");
+
+        Assert.assertEquals("primary", readOnlyTransaction.execute(status -> queryDatabaseName()));
+    }
+
+    @Test
+    public void testReadOnlyTransaction_afterUnattributedWrite_usesReplica() {
+        readWriteTransaction.execute(status -> queryDatabaseName());
+
+        authenticate("writer@domain.com");
+
+        Assert.assertEquals("replica", readOnlyTransaction.execute(status -> queryDatabaseName()));
+    }
+
+    private String queryDatabaseName() {
+        return jdbcTemplate.queryForObject("select name from database_name", String.class);
+    }
+
+    private static void authenticate(String principal) {
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, "", Collections.emptyList())
+        );
+    }
+
+    private static DataSource database(String name) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:routing-" + name, "sa", "");
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("drop table database_name if exists");
+        jdbcTemplate.execute("create table database_name (name varchar(16))");
+        jdbcTemplate.update("insert into database_name values (?)", name);
+
+        return dataSource;
+    }
+}
@@ -0,0 +1,86 @@
+package dev.mvvasilev.datasource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+
+/**
+ * Creates the assignment of buckets in an embedded HSQLDB database standing in for the first shard,
+ * holding only the tables the assignment depends on.
+ */
+public class ShardMapTest {
+
+    private static final int SHARD_COUNT = 3;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private ShardMap shardMap;
+
+    @Before
+    public void init() {
+        DataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:shard-map", "sa", "");
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("drop table user_shard_bucket if exists");
+        jdbcTemplate.execute("drop table \"user\" if exists");
+        jdbcTemplate.execute("create table user_shard_bucket (bucket integer not null primary key, shard integer not null)");
+        jdbcTemplate.execute("create table \"user\" (id bigint not null primary key, email varchar(255) not null)");
+
+        shardMap = new ShardMap(dataSource, SHARD_COUNT);
+    }
+
+    @Test
+    public void testLoad_assignsEveryBucketToFirstShard() {
+        Assert.assertEquals(ShardMap.BUCKET_COUNT, shardMap.bucketsOf(0).size());
+        Assert.assertTrue(shardMap.bucketsOf(1).isEmpty());
+        Assert.assertEquals(ShardMap.BUCKET_COUNT, countAssignedBuckets());
+    }
+
+    @Test
+    public void testLoad_withExistingUsers_refusesToShard() {
+        // A user created before sharding was enabled, whose id does not embed the bucket of their email
+        jdbcTemplate.update("insert into \"user\" (id, email) values (?, ?)", 1L, "user@domain.com");
+
+        try {
+            shardMap.shardOfEmail("user@domain.com");
+            Assert.fail("Expected sharding to be refused");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+
+        Assert.assertEquals(0, countAssignedBuckets());
+    }
+
+    @Test
+    public void testReload_withExistingAssignment_ignoresUsers() {
+        shardMap.assign(5, 2);
+
+        // Users created once sharded
+        jdbcTemplate.update("insert into \"user\" (id, email) values (?, ?)", ShardMap.composeId(1, 2, 5), "user@domain.com");
+
+        shardMap.reload();
+
+        Assert.assertEquals(2, shardMap.shardOfBucket(5));
+        Assert.assertEquals(2, shardMap.shardOfId(ShardMap.composeId(1, 2, 5)));
+    }
+
+    @Test
+    public void testAssign_toUnknownShard() {
+        try {
+            shardMap.assign(5, SHARD_COUNT);
+            Assert.fail("Expected the shard to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        Assert.assertEquals(0, shardMap.shardOfBucket(5));
+    }
+
+    private int countAssignedBuckets() {
+        return jdbcTemplate.queryForObject("select count(*) from user_shard_bucket", Integer.class);
+    }
+}
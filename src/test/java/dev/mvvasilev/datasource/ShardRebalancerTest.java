@@ -0,0 +1,155 @@
+package dev.mvvasilev.datasource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves buckets between three embedded HSQLDB databases standing in for the shards, holding only the tables the rebalancer moves.
+ * Interrupted moves are reproduced by leaving the shards in the state the move was interrupted in.
+ */
+public class ShardRebalancerTest {
+
+    private static final int SHARD_COUNT = 3;
+
+    private static final int BUCKET = 5;
+
+    private List<JdbcTemplate> shardTemplates;
+
+    private ShardMap shardMap;
+
+    private ShardRebalancer shardRebalancer;
+
+    @Before
+    public void init() {
+        List<DataSource> dataSources = new ArrayList<>();
+        shardTemplates = new ArrayList<>();
+
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            DataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:shard-rebalancer-" + shard, "sa", "");
+
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            jdbcTemplate.execute("drop table user_addresses if exists");
+            jdbcTemplate.execute("drop table \"user\" if exists");
+            jdbcTemplate.execute("drop table user_shard_bucket if exists");
+            jdbcTemplate.execute("create table user_shard_bucket (bucket integer not null primary key, shard integer not null)");
+            jdbcTemplate.execute("create table \"user\" (id bigint not null primary key, email varchar(255) not null)");
+            jdbcTemplate.execute("create table user_addresses (user_id bigint not null, city varchar(255) not null)");
+
+            dataSources.add(dataSource);
+            shardTemplates.add(jdbcTemplate);
+        }
+
+        shardMap = new ShardMap(dataSources.get(0), SHARD_COUNT);
+        // Create the assignment while the first shard holds no users
+        shardMap.reload();
+
+        shardRebalancer = new ShardRebalancer(new ShardRoutingDataSource(dataSources), shardMap);
+    }
+
+    @Test
+    public void testRebalance_movesEveryUserToTheShardOfItsBucket() {
+        for (int bucket = 0; bucket < ShardMap.BUCKET_COUNT; bucket += 7) {
+            insertUser(0, ShardMap.composeId(1, 0, bucket));
+        }
+
+        int userCount = countUsers(0);
+
+        shardRebalancer.rebalance();
+
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            Assert.assertTrue(shardMap.bucketsOf(shard).size() >= ShardMap.BUCKET_COUNT / SHARD_COUNT);
+            Assert.assertEquals(countUsers(shard), countAddresses(shard));
+
+            for (Long id : shardTemplates.get(shard).queryForList("select id from \"user\"", Long.class)) {
+                Assert.assertEquals(shard, shardMap.shardOfId(id));
+            }
+        }
+
+        Assert.assertEquals(userCount, countUsers(0) + countUsers(1) + countUsers(2));
+        Assert.assertEquals(0, shardRebalancer.rebalance());
+    }
+
+    @Test
+    public void testMoveBucket_interruptedBeforeAssigning_copiesAgain() {
+        long id = ShardMap.composeId(1, 0, BUCKET);
+        insertUser(0, id);
+        // Copied, but the bucket was never routed to the target
+        insertUser(1, id);
+
+        Assert.assertEquals(1, shardRebalancer.moveBucket(BUCKET, 1));
+
+        Assert.assertEquals(1, shardMap.shardOfBucket(BUCKET));
+        Assert.assertEquals(0, countUsers(0));
+        Assert.assertEquals(1, countUsers(1));
+        Assert.assertEquals(1, countAddresses(1));
+    }
+
+    @Test
+    public void testMoveBucket_interruptedAfterAssigning_deletesSourceCopy() {
+        interruptMoveAfterAssigning(ShardMap.composeId(1, 0, BUCKET));
+
+        Assert.assertEquals(0, shardRebalancer.moveBucket(BUCKET, 1));
+
+        Assert.assertEquals(0, countUsers(0));
+        Assert.assertEquals(0, countAddresses(0));
+        Assert.assertEquals(1, countUsers(1));
+        Assert.assertEquals(1, countAddresses(1));
+    }
+
+    @Test
+    public void testRebalance_interruptedAfterAssigning_deletesSourceCopy() {
+        long id = ShardMap.composeId(1, 0, BUCKET);
+        interruptMoveAfterAssigning(id);
+
+        shardRebalancer.rebalance();
+
+        int holders = 0;
+
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            holders += shardTemplates.get(shard).queryForObject("select count(*) from \"user\" where id = ?", Integer.class, id);
+        }
+
+        Assert.assertEquals(1, holders);
+        Assert.assertEquals(1, countUsers(shardMap.shardOfId(id)));
+    }
+
+    @Test
+    public void testRemoveStrayUsers_keepsUsersOfAssignedBuckets() {
+        insertUser(0, ShardMap.composeId(1, 0, BUCKET));
+        interruptMoveAfterAssigning(ShardMap.composeId(1, 0, BUCKET + 1));
+
+        Assert.assertEquals(1, shardRebalancer.removeStrayUsers());
+
+        Assert.assertEquals(1, countUsers(0));
+        Assert.assertEquals(1, countUsers(1));
+    }
+
+    /**
+     * Leave the user on both shards, with its bucket routed to the second one, as if the move stopped before deleting it from the first.
+     */
+    private void interruptMoveAfterAssigning(long id) {
+        insertUser(0, id);
+        insertUser(1, id);
+        shardMap.assign(ShardMap.bucketOfId(id), 1);
+    }
+
+    private void insertUser(int shard, long id) {
+        shardTemplates.get(shard).update("insert into \"user\" (id, email) values (?, ?)", id, "user" + id + "@domain.com");
+        shardTemplates.get(shard).update("insert into user_addresses (user_id, city) values (?, ?)", id, "City");
+    }
+
+    private int countUsers(int shard) {
+        return shardTemplates.get(shard).queryForObject("select count(*) from \"user\"", Integer.class);
+    }
+
+    private int countAddresses(int shard) {
+        return shardTemplates.get(shard).queryForObject("select count(*) from user_addresses", Integer.class);
+    }
+}
@@ -0,0 +1,34 @@
+package dev.mvvasilev.entity.converter;
+
+import dev.mvvasilev.security.Permission;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+public class PermissionSetConverterTest {
+
+    private PermissionSetConverter converter = new PermissionSetConverter();
+
+    @Test
+    public void testRoundTrip() {
+        Set<Permission> permissions = EnumSet.of(Permission.READ_SELF, Permission.DELETE_SELF, Permission.DELETE_OTHER_USER);
+
+        Integer mask = converter.convertToDatabaseColumn(permissions);
+
+        Assert.assertEquals(Integer.valueOf(0b100101), mask);
+        Assert.assertEquals(permissions, converter.convertToEntityAttribute(mask));
+    }
+
+    @Test
+    public void testConvertToDatabaseColumn_withNullOrEmptySet() {
+        Assert.assertEquals(Integer.valueOf(0), converter.convertToDatabaseColumn(null));
+        Assert.assertEquals(Integer.valueOf(0), converter.convertToDatabaseColumn(EnumSet.noneOf(Permission.class)));
+    }
+
+    @Test
+    public void testConvertToEntityAttribute_withNullMask() {
+        Assert.assertTrue(converter.convertToEntityAttribute(null).isEmpty());
+    }
+}
@@ -1,37 +1,64 @@
 package dev.mvvasilev.facade;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import dev.mvvasilev.common.enums.EventType;
+import dev.mvvasilev.common.service.EventLogService;
 import dev.mvvasilev.dto.RegisterUserDTO;
 import dev.mvvasilev.dto.UpdateUserDTO;
 import dev.mvvasilev.dto.UserDTO;
 import dev.mvvasilev.entity.User;
+import dev.mvvasilev.exception.UserNotFoundException;
+import dev.mvvasilev.mapper.UserMapper;
+import dev.mvvasilev.security.Permission;
 import dev.mvvasilev.service.UserService;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
-import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
-import org.modelmapper.ModelMapper;
 import org.springframework.data.domain.PageRequest;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.Month;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 @RunWith(MockitoJUnitRunner.class)
 public class UserFacadeTest {
 
     private static final long USER_ID = 123L;
 
+    private static final long EXPECTED_VERSION = 2L;
+
     private UserFacade userFacade;
 
-    @Spy
-    private ModelMapper modelMapper;
+    private ObjectMapper objectMapper;
 
     @Mock
     private UserService userService;
 
+    @Mock
+    private EventLogService eventLogService;
+
     private RegisterUserDTO registerUserDTO;
 
     private UpdateUserDTO updateUserDTO;
@@ -46,7 +73,10 @@ public class UserFacadeTest {
 
     @Before
     public void init() {
-        userFacade = new UserFacade(userService, modelMapper, tokenProvider, eventLogService);
+        objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+
+        userFacade = new UserFacade(userService, new UserMapper(), null, eventLogService, objectMapper, null, null, null);
 
         updateUserDTO = new UpdateUserDTO();
 
@@ -97,25 +127,31 @@ public class UserFacadeTest {
                 registerUserDTO.getRawPassword(),
                 registerUserDTO.getFirstName(),
                 registerUserDTO.getLastName(),
-                registerUserDTO.getDateOfBirth()
-        )).thenReturn(USER_ID);
+                registerUserDTO.getDateOfBirth(),
+                null
+        )).thenReturn(CompletableFuture.completedFuture(user));
 
-        Mockito.when(userService.getUser(USER_ID)).thenReturn(user);
+        Mockito.when(userService.getUserDTO(USER_ID)).thenReturn(expectedUserDTO);
 
         Mockito.when(userService.updateUserById(
                 USER_ID,
                 updateUserDTO.getEmail(),
                 updateUserDTO.getFirstName(),
                 updateUserDTO.getLastName(),
-                updateUserDTO.getDateOfBirth()
+                updateUserDTO.getDateOfBirth(),
+                null,
+                EXPECTED_VERSION
         )).thenReturn(updatedUser);
     }
 
     @Test
     public void testCreateUser() {
-        long userId = userFacade.createUser(registerUserDTO);
+        long userId = userFacade.createUser(registerUserDTO).join();
 
         Assert.assertEquals(USER_ID, userId);
+        Mockito.verify(eventLogService).submitEvent(
+                Matchers.eq(EventType.USER_CREATED), Matchers.anyString(), Matchers.any(), Matchers.eq(0), Matchers.eq(expectedUserDTO)
+        );
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -132,23 +168,134 @@ public class UserFacadeTest {
 
     @Test
     public void testUpdateUserById() {
-        UserDTO userDTO = userFacade.updateUserById(USER_ID, updateUserDTO);
+        UserDTO userDTO = userFacade.updateUserById(USER_ID, updateUserDTO, EXPECTED_VERSION);
 
         Assert.assertEquals(expectedUpdatedUserDTO, userDTO);
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void testUpdateUserById_withNullUpdateUserDTO() {
-        userFacade.updateUserById(USER_ID, null);
+        userFacade.updateUserById(USER_ID, null, EXPECTED_VERSION);
+    }
+
+    @Test
+    public void testUpdatePermissionsById() {
+        Set<Permission> permissions = EnumSet.of(Permission.READ_SELF, Permission.EXPORT_USERS);
+        user.setPermissions(permissions);
+        Mockito.when(userService.updatePermissions(USER_ID, permissions)).thenReturn(user);
+
+        Assert.assertEquals(permissions, userFacade.updatePermissionsById(USER_ID, permissions));
+        Mockito.verify(eventLogService).submitEvent(
+                Matchers.eq(EventType.USER_UPDATED), Matchers.anyString(), Matchers.any(), Matchers.eq(0), Matchers.eq(expectedUserDTO)
+        );
     }
 
     @Test
     public void testDeleteUserById() {
-        userFacade.deleteUserById(USER_ID);
+        Mockito.when(userService.deleteUserById(USER_ID, EXPECTED_VERSION)).thenReturn(true);
+
+        userFacade.deleteUserById(USER_ID, EXPECTED_VERSION);
+
+        Mockito.verify(userService).deleteUserById(USER_ID, EXPECTED_VERSION);
+    }
+
+    @Test(expected = UserNotFoundException.class)
+    public void testDeleteUserById_withNonExistentUserId() {
+        Mockito.when(userService.deleteUserById(USER_ID, EXPECTED_VERSION)).thenReturn(false);
+
+        userFacade.deleteUserById(USER_ID, EXPECTED_VERSION);
     }
 
     @Test
     public void testGetAllUsersPaginated() {
         userFacade.getAllUsersPaginated(PageRequest.of(0, 5));
     }
+
+    @Test
+    public void testExportUsers() throws IOException {
+        exportUsers(user, updatedUser);
+        CountingFlushOutputStream outputStream = new CountingFlushOutputStream(new ByteArrayOutputStream());
+
+        userFacade.exportUsers(outputStream);
+
+        List<String> lines = readLines(((ByteArrayOutputStream) outputStream.getTarget()).toByteArray(), false);
+
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals(expectedUserDTO, objectMapper.readValue(lines.get(0), UserDTO.class));
+        Assert.assertEquals(expectedUpdatedUserDTO, objectMapper.readValue(lines.get(1), UserDTO.class));
+        Assert.assertEquals("The export should only be flushed once it is done", 1, outputStream.flushes);
+    }
+
+    @Test
+    public void testExportUsers_flushesEveryRowsChunk() throws IOException {
+        List<User> users = new ArrayList<>();
+
+        for (int i = 0; i < UserFacade.EXPORT_FLUSH_ROWS * 2 + 1; i++) {
+            users.add(user);
+        }
+
+        exportUsers(users.toArray(new User[0]));
+        CountingFlushOutputStream outputStream = new CountingFlushOutputStream(new ByteArrayOutputStream());
+
+        userFacade.exportUsers(outputStream);
+
+        Assert.assertEquals(3, outputStream.flushes);
+    }
+
+    @Test
+    public void testExportUsers_gzip() throws IOException {
+        exportUsers(user, updatedUser);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (OutputStream outputStream = new GZIPOutputStream(compressed)) {
+            userFacade.exportUsers(outputStream);
+        }
+
+        List<String> lines = readLines(compressed.toByteArray(), true);
+
+        Assert.assertEquals(2, lines.size());
+        Assert.assertEquals(expectedUserDTO, objectMapper.readValue(lines.get(0), UserDTO.class));
+        Assert.assertEquals(expectedUpdatedUserDTO, objectMapper.readValue(lines.get(1), UserDTO.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void exportUsers(User... users) {
+        Mockito.doAnswer(invocation -> {
+            Consumer<User> consumer = (Consumer<User>) invocation.getArguments()[0];
+
+            for (User exported : users) {
+                consumer.accept(exported);
+            }
+
+            return null;
+        }).when(userService).exportUsers(Matchers.any());
+    }
+
+    private static List<String> readLines(byte[] bytes, boolean gzip) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                gzip ? new GZIPInputStream(new ByteArrayInputStream(bytes)) : new ByteArrayInputStream(bytes),
+                StandardCharsets.UTF_8
+        ))) {
+            return reader.lines().collect(Collectors.toList());
+        }
+    }
+
+    private static class CountingFlushOutputStream extends FilterOutputStream {
+
+        private int flushes;
+
+        private CountingFlushOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        private OutputStream getTarget() {
+            return out;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushes++;
+            super.flush();
+        }
+    }
 }
@@ -0,0 +1,100 @@
+package dev.mvvasilev.mapper;
+
+import dev.mvvasilev.dto.AddressDTO;
+import dev.mvvasilev.dto.RegisterUserDTO;
+import dev.mvvasilev.dto.UserDTO;
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.util.Address;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.modelmapper.ModelMapper;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Checks the {@link UserMapper} against the {@link ModelMapper} it replaced, so that no field is left unmapped.
+ */
+public class UserMapperTest {
+
+    private UserMapper userMapper;
+
+    private ModelMapper modelMapper;
+
+    private User user;
+
+    @Before
+    public void init() {
+        userMapper = new UserMapper();
+        modelMapper = new ModelMapper();
+
+        user = new User();
+        user.setId(42L);
+        user.setEmail("someemail@domain.com");
+        user.setPasswordHash("a password hash");
+        user.setFirstName("First");
+        user.setLastName("Last");
+        user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+        user.setVersion(3L);
+        user.setUpdatedAt(Instant.parse("2019-06-01T10:15:30Z"));
+        user.setAddresses(new HashSet<>(Arrays.asList(address("City1"), address("City2"))));
+    }
+
+    @Test
+    public void testToUserDTO_matchesModelMapper() {
+        UserDTO userDTO = userMapper.toUserDTO(user);
+
+        Assert.assertEquals(modelMapper.map(user, UserDTO.class), userDTO);
+        Assert.assertEquals(2, userDTO.getAddresses().size());
+    }
+
+    @Test
+    public void testToUserDTO_withoutAddresses() {
+        user.setAddresses(null);
+
+        Assert.assertNull(userMapper.toUserDTO(user).getAddresses());
+    }
+
+    @Test
+    public void testToAddresses_matchesModelMapper() {
+        List<AddressDTO> addressDTOs = Arrays.asList(
+                modelMapper.map(address("City1"), AddressDTO.class),
+                modelMapper.map(address("City2"), AddressDTO.class)
+        );
+
+        Assert.assertEquals(user.getAddresses(), userMapper.toAddresses(addressDTOs));
+        Assert.assertNull(userMapper.toAddresses(null));
+    }
+
+    @Test
+    public void testToUser_fromRegisterUserDTO() {
+        RegisterUserDTO registerUserDTO = new RegisterUserDTO();
+        registerUserDTO.setEmail(user.getEmail());
+        registerUserDTO.setRawPassword("test_password123");
+        registerUserDTO.setFirstName(user.getFirstName());
+        registerUserDTO.setLastName(user.getLastName());
+        registerUserDTO.setDateOfBirth(user.getDateOfBirth());
+
+        User mapped = userMapper.toUser(registerUserDTO);
+
+        Assert.assertNull(mapped.getId());
+        Assert.assertNull(mapped.getPasswordHash());
+        Assert.assertEquals(user.getEmail(), mapped.getEmail());
+        Assert.assertEquals(user.getFirstName(), mapped.getFirstName());
+        Assert.assertEquals(user.getLastName(), mapped.getLastName());
+        Assert.assertEquals(user.getDateOfBirth(), mapped.getDateOfBirth());
+    }
+
+    private static Address address(String city) {
+        Address address = new Address();
+        address.setCountry("BG");
+        address.setCity(city);
+        address.setStreetAddress("1 Some Street");
+        address.setPostCode("1000");
+        return address;
+    }
+}
@@ -0,0 +1,216 @@
+package dev.mvvasilev.repository;
+
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.util.Address;
+import org.hibernate.Session;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * Captures the SQL Hibernate generates for the repository lookups, runs it through HSQLDB's EXPLAIN PLAN against the schema
+ * created by the Flyway migrations, and fails if any of it has to scan a whole table.
+ * The parameters are left unbound, as only the plan is of interest.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=dev.mvvasilev.repository.UserQueryPlanTest$CapturingStatementInspector")
+public class UserQueryPlanTest {
+
+    private static final String FULL_SCAN = "access=FULL SCAN";
+
+    @Configuration
+    @EntityScan(basePackageClasses = User.class)
+    @EnableJpaRepositories(basePackageClasses = UserRepository.class)
+    static class TestConfiguration {
+    }
+
+    /**
+     * Records every statement Hibernate prepares, unchanged
+     */
+    public static class CapturingStatementInspector implements StatementInspector {
+
+        private static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+    }
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private User user;
+
+    @Before
+    public void init() {
+        user = new User();
+        user.setEmail("user@domain.com");
+        user.setPasswordHash("a password hash");
+        user.setFirstName("First");
+        user.setLastName("Last");
+        user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+        user.setPermissions(EnumSet.of(Permission.READ_SELF));
+
+        Address address = new Address();
+        address.setCountry("BG");
+        address.setCity("Sofia");
+        address.setStreetAddress("1 Some Street");
+        address.setPostCode("1000");
+        user.setAddresses(Collections.singleton(address));
+
+        entityManager.persistAndFlush(user);
+        entityManager.clear();
+        entityManager.getEntityManager().getEntityManagerFactory().getCache().evictAll();
+
+        CapturingStatementInspector.STATEMENTS.clear();
+    }
+
+    @Test
+    public void testFindById_usesIndex() {
+        userRepository.findById(user.getId()).ifPresent(found -> found.getAddresses().size());
+
+        assertNoFullScan(capturedSelects());
+    }
+
+    @Test
+    public void testGetUserByEmail_usesIndex() {
+        userRepository.getUserByEmail(user.getEmail()).ifPresent(found -> found.getAddresses().size());
+
+        assertNoFullScan(capturedSelects());
+    }
+
+    @Test
+    public void testFindRowsByEmail_usesIndex() {
+        userRepository.findRowsByEmail(user.getEmail());
+
+        assertNoFullScan(capturedSelects());
+    }
+
+    @Test
+    public void testFindRowsByIdIn_usesIndex() {
+        userRepository.findRowsByIdIn(Arrays.asList(user.getId(), user.getId() + 1, user.getId() + 2));
+
+        assertNoFullScan(capturedSelects());
+    }
+
+    @Test
+    public void testUserKeysAfterEmail_usesIndex() {
+        userRepository.findUserKeysAfter(UserSortKey.EMAIL, Sort.Direction.ASC, "a@domain.com", 1L, 20);
+        userRepository.findUserKeysAfter(UserSortKey.EMAIL, Sort.Direction.DESC, "z@domain.com", 1L, 20);
+
+        assertNoFullScan(capturedSelects());
+    }
+
+    @Test
+    public void testUserKeysAfterId_usesIndex() {
+        userRepository.findUserKeysAfter(UserSortKey.ID, Sort.Direction.ASC, 1L, 1L, 20);
+
+        assertNoFullScan(capturedSelects());
+    }
+
+    @Test
+    public void testFindIdsDeletedBefore_usesIndex() {
+        userRepository.findIdsDeletedBefore(Instant.now(), 500);
+
+        assertNoFullScan(capturedSelects());
+    }
+
+    @Test
+    public void testFindUserIdSlice_scansOnlyUsers() {
+        userRepository.findUserIdSlice(PageRequest.of(2, 20, Sort.by("email")));
+        userRepository.findUserKeySlice(PageRequest.of(2, 20, Sort.by("id")));
+
+        // Skipping to the offset reads every user before it, but nothing else may be scanned
+        assertAtMostOneFullScan(capturedSelects());
+    }
+
+    @Test
+    public void testStreamAllWithAddresses_scansOnlyUsers() {
+        try (Stream<UserAddressRow> rows = userRepository.streamAllWithAddresses()) {
+            Assert.assertEquals(1, rows.count());
+        }
+
+        // Every user is read, but their addresses must be looked up by index
+        assertAtMostOneFullScan(capturedSelects());
+    }
+
+    @Test
+    public void testUnindexedQuery_isReportedAsFullScan() {
+        Assert.assertTrue(explain("select id from \"user\" where first_name = 'First'").contains(FULL_SCAN));
+    }
+
+    private static List<String> capturedSelects() {
+        List<String> selects = new ArrayList<>();
+
+        for (String sql : CapturingStatementInspector.STATEMENTS) {
+            if (sql.trim().toLowerCase().startsWith("select")) {
+                selects.add(sql);
+            }
+        }
+
+        Assert.assertFalse("Expected the lookup to query the database", selects.isEmpty());
+
+        return selects;
+    }
+
+    private void assertNoFullScan(List<String> statements) {
+        for (String sql : statements) {
+            String plan = explain(sql);
+
+            Assert.assertFalse("Expected no full table scan in the plan of: " + sql + "\n" + plan, plan.contains(FULL_SCAN));
+        }
+    }
+
+    private void assertAtMostOneFullScan(List<String> statements) {
+        for (String sql : statements) {
+            String plan = explain(sql);
+
+            Assert.assertTrue("Expected at most one full table scan in the plan of: " + sql + "\n" + plan, plan.indexOf(FULL_SCAN) == plan.lastIndexOf(FULL_SCAN));
+        }
+    }
+
+    private String explain(String sql) {
+        return entityManager.getEntityManager().unwrap(Session.class).doReturningWork(connection -> {
+            StringBuilder plan = new StringBuilder();
+
+            try (PreparedStatement statement = connection.prepareStatement("explain plan for " + sql); ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    plan.append(rows.getString(1)).append('\n');
+                }
+            }
+
+            return plan.toString();
+        });
+    }
+}
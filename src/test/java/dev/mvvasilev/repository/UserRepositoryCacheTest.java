@@ -0,0 +1,115 @@
+package dev.mvvasilev.repository;
+
+import dev.mvvasilev.configuration.HibernateCacheConfiguration;
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.util.Address;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Optional;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@TestPropertySource(properties = "users.entity-cache.enabled=true")
+public class UserRepositoryCacheTest {
+
+    private static final String EMAIL = "cached@domain.com";
+
+    @Configuration
+    @EntityScan(basePackageClasses = User.class)
+    @EnableJpaRepositories(basePackageClasses = UserRepository.class)
+    @Import(HibernateCacheConfiguration.class)
+    static class TestConfiguration {
+    }
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private Statistics statistics;
+
+    private long userId;
+
+    @Before
+    public void init() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        User user = new User();
+        user.setEmail(EMAIL);
+        user.setPasswordHash("a password hash");
+        user.setFirstName("First");
+        user.setLastName("Last");
+        user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+        user.setPermissions(EnumSet.of(Permission.READ_SELF));
+
+        Address address = new Address();
+        address.setCountry("BG");
+        address.setCity("Sofia");
+        address.setStreetAddress("1 Some Street");
+        address.setPostCode("1000");
+        user.setAddresses(Collections.singleton(address));
+
+        userId = entityManager.persistAndFlush(user).getId();
+        entityManager.clear();
+    }
+
+    @Test
+    public void testGetUserByEmail_isServedFromCache() {
+        userRepository.getUserByEmail(EMAIL);
+        entityManager.clear();
+        statistics.clear();
+
+        Optional<User> user = userRepository.getUserByEmail(EMAIL);
+
+        Assert.assertTrue(user.isPresent());
+        Assert.assertEquals(userId, (long) user.get().getId());
+        Assert.assertEquals(1, user.get().getAddresses().size());
+        Assert.assertEquals(0, statistics.getPrepareStatementCount());
+        Assert.assertTrue(statistics.getNaturalIdCacheHitCount() > 0);
+    }
+
+    @Test
+    public void testGetUserByEmail_afterEmailChange() {
+        User user = userRepository.getUserByEmail(EMAIL).get();
+        user.setEmail("changed@domain.com");
+        entityManager.flush();
+        entityManager.clear();
+
+        Assert.assertFalse(userRepository.getUserByEmail(EMAIL).isPresent());
+        Assert.assertEquals(userId, (long) userRepository.getUserByEmail("changed@domain.com").get().getId());
+    }
+
+    @Test
+    public void testGetUserByEmail_afterBulkDelete() {
+        userRepository.getUserByEmail(EMAIL);
+        entityManager.clear();
+
+        userRepository.deleteAddressesByUserIdIn(Collections.singleton(userId));
+        userRepository.deleteAllByIdIn(Collections.singleton(userId));
+
+        Assert.assertFalse(userRepository.getUserByEmail(EMAIL).isPresent());
+    }
+}
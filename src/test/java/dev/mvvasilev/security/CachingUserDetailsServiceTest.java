@@ -0,0 +1,60 @@
+package dev.mvvasilev.security;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.util.Collections;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachingUserDetailsServiceTest {
+
+    private static final long USER_ID = 123L;
+
+    private static final String EMAIL = "someemail@domain.com";
+
+    private CachingUserDetailsService userDetailsService;
+
+    @Mock
+    private UserDetailsServiceImpl delegate;
+
+    @Before
+    public void init() {
+        userDetailsService = new CachingUserDetailsService(delegate, true, 60, 100);
+
+        Mockito.when(delegate.loadUserByUsername(EMAIL)).thenReturn(
+                new UserPrincipal(USER_ID, EMAIL, "a password hash", Collections.singleton(Permission.READ_SELF))
+        );
+    }
+
+    @Test
+    public void testLoadUserByUsername_loadsOnce() {
+        UserDetails first = userDetailsService.loadUserByUsername(EMAIL);
+        UserDetails second = userDetailsService.loadUserByUsername(EMAIL);
+
+        Assert.assertSame(first, second);
+        Mockito.verify(delegate, Mockito.times(1)).loadUserByUsername(EMAIL);
+    }
+
+    @Test
+    public void testEvict() {
+        userDetailsService.loadUserByUsername(EMAIL);
+        userDetailsService.evict(EMAIL);
+        userDetailsService.loadUserByUsername(EMAIL);
+
+        Mockito.verify(delegate, Mockito.times(2)).loadUserByUsername(EMAIL);
+    }
+
+    @Test(expected = UsernameNotFoundException.class)
+    public void testLoadUserByUsername_withNonExistentUser() {
+        Mockito.when(delegate.loadUserByUsername("missing@domain.com")).thenThrow(new UsernameNotFoundException("missing"));
+
+        userDetailsService.loadUserByUsername("missing@domain.com");
+    }
+}
@@ -0,0 +1,68 @@
+package dev.mvvasilev.security;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+public class PasswordHashingPolicyTest {
+
+    private static final String PASSWORD = "test_password123";
+
+    @Test
+    public void testCreatePasswordEncoder_prefixesAlgorithmId() {
+        PasswordEncoder encoder = bcryptPolicy(4).createPasswordEncoder();
+
+        String hash = encoder.encode(PASSWORD);
+
+        Assert.assertTrue(hash.startsWith("{bcrypt}"));
+        Assert.assertTrue(encoder.matches(PASSWORD, hash));
+    }
+
+    @Test
+    public void testCreatePasswordEncoder_matchesLegacyUnprefixedHash() {
+        String legacyHash = new BCryptPasswordEncoder(4).encode(PASSWORD);
+
+        Assert.assertTrue(bcryptPolicy(5).createPasswordEncoder().matches(PASSWORD, legacyHash));
+    }
+
+    @Test
+    public void testCreatePasswordEncoder_matchesOtherAlgorithm() {
+        String pbkdf2Hash = pbkdf2Policy().createPasswordEncoder().encode(PASSWORD);
+
+        Assert.assertTrue(pbkdf2Hash.startsWith("{pbkdf2}"));
+        Assert.assertTrue(bcryptPolicy(4).createPasswordEncoder().matches(PASSWORD, pbkdf2Hash));
+    }
+
+    @Test
+    public void testNeedsRehash() {
+        PasswordHashingPolicy policy = bcryptPolicy(5);
+
+        Assert.assertFalse(policy.needsRehash(policy.createPasswordEncoder().encode(PASSWORD)));
+        Assert.assertFalse(policy.needsRehash(new BCryptPasswordEncoder(5).encode(PASSWORD)));
+        Assert.assertTrue(policy.needsRehash(bcryptPolicy(4).createPasswordEncoder().encode(PASSWORD)));
+        // Hashed by an instance calibrated to a higher strength
+        Assert.assertFalse(policy.needsRehash(new BCryptPasswordEncoder(6).encode(PASSWORD)));
+        Assert.assertTrue(policy.needsRehash(pbkdf2Policy().createPasswordEncoder().encode(PASSWORD)));
+    }
+
+    @Test
+    public void testCalibration_neverLowersConfiguredStrength() {
+        PasswordHashingPolicy policy = new PasswordHashingPolicy(PasswordHashingPolicy.BCRYPT, 4, 1000, true, 0);
+
+        Assert.assertEquals(4, policy.getBcryptStrength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedAlgorithm() {
+        new PasswordHashingPolicy("md5", 4, 1000, false, 0);
+    }
+
+    private static PasswordHashingPolicy bcryptPolicy(int strength) {
+        return new PasswordHashingPolicy(PasswordHashingPolicy.BCRYPT, strength, 1000, false, 0);
+    }
+
+    private static PasswordHashingPolicy pbkdf2Policy() {
+        return new PasswordHashingPolicy(PasswordHashingPolicy.PBKDF2, 4, 1000, false, 0);
+    }
+}
@@ -0,0 +1,61 @@
+package dev.mvvasilev.security;
+
+import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.service.UserShards;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Optional;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PermissionVersionCacheTest {
+
+    private static final String EMAIL = "someemail@domain.com";
+
+    private PermissionVersionCache permissionVersionCache;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Before
+    public void init() {
+        UserShards shards = new UserShards(Mockito.mock(PlatformTransactionManager.class), Optional.empty());
+        permissionVersionCache = new PermissionVersionCache(userRepository, shards, 60, 100);
+
+        Mockito.when(userRepository.findPermissionsVersionByEmail(EMAIL)).thenReturn(Optional.of(2L));
+    }
+
+    @Test
+    public void testCurrentVersion_loadsOnce() {
+        Assert.assertEquals(2L, permissionVersionCache.currentVersion(EMAIL));
+        Assert.assertEquals(2L, permissionVersionCache.currentVersion(EMAIL));
+
+        Mockito.verify(userRepository, Mockito.times(1)).findPermissionsVersionByEmail(EMAIL);
+    }
+
+    @Test
+    public void testInvalidate_reloadsChangedVersion() {
+        permissionVersionCache.currentVersion(EMAIL);
+
+        Mockito.when(userRepository.findPermissionsVersionByEmail(EMAIL)).thenReturn(Optional.of(3L));
+        permissionVersionCache.invalidate(EMAIL);
+
+        Assert.assertEquals(3L, permissionVersionCache.currentVersion(EMAIL));
+    }
+
+    @Test
+    public void testInvalidate_afterDelete() {
+        permissionVersionCache.currentVersion(EMAIL);
+
+        Mockito.when(userRepository.findPermissionsVersionByEmail(EMAIL)).thenReturn(Optional.empty());
+        permissionVersionCache.invalidate(EMAIL);
+
+        Assert.assertEquals(PermissionVersionCache.MISSING_USER_VERSION, permissionVersionCache.currentVersion(EMAIL));
+    }
+}
@@ -0,0 +1,136 @@
+package dev.mvvasilev.security;
+
+import dev.mvvasilev.datasource.ReadWriteRoutingDataSource;
+import dev.mvvasilev.datasource.ReadYourWritesTracker;
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.service.UserShards;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Looks users up through a {@link ReadWriteRoutingDataSource} between two embedded HSQLDB databases standing in for the
+ * primary and the replica, as in the ReadWriteRoutingDataSourceTest. The repository is mocked by an answer which,
+ * like {@link UserRepository#getUserByEmail(String)}, queries in a read-only transaction, and records where it was routed.
+ */
+@RunWith(SpringRunner.class)
+@ContextConfiguration
+public class UserDetailsServiceImplTest {
+
+    private static final String EMAIL = "someemail@domain.com";
+
+    @Configuration
+    @EnableTransactionManagement
+    static class TestConfiguration {
+
+        @Bean
+        public DataSource dataSource() {
+            ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource(
+                    database("primary"), database("replica"), new ReadYourWritesTracker(60000, 100)
+            );
+            routingDataSource.afterPropertiesSet();
+
+            return new LazyConnectionDataSourceProxy(routingDataSource);
+        }
+
+        @Bean
+        public PlatformTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        public UserRepository userRepository() {
+            return Mockito.mock(UserRepository.class);
+        }
+
+        @Bean
+        public UserShards userShards(PlatformTransactionManager transactionManager) {
+            return new UserShards(transactionManager, Optional.empty());
+        }
+
+        @Bean
+        public UserDetailsServiceImpl userDetailsService(UserRepository userRepository, UserShards userShards) {
+            return new UserDetailsServiceImpl(userRepository, userShards);
+        }
+    }
+
+    @Autowired
+    private UserDetailsServiceImpl userDetailsService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private List<String> routes;
+
+    @Before
+    public void init() {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        TransactionTemplate readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+
+        User user = new User();
+        user.setId(1L);
+        user.setEmail(EMAIL);
+        user.setPasswordHash("a password hash");
+        user.setPermissions(Collections.singleton(Permission.READ_SELF));
+
+        routes = new ArrayList<>();
+
+        Mockito.reset(userRepository);
+        Mockito.when(userRepository.getUserByEmail(EMAIL)).thenAnswer(invocation -> readOnlyTransaction.execute(status -> {
+            routes.add(jdbcTemplate.queryForObject("select name from database_name", String.class));
+            return Optional.of(user);
+        }));
+    }
+
+    @Test
+    public void testLoadUserByUsername_unauthenticated_usesPrimary() {
+        Assert.assertEquals(EMAIL, userDetailsService.loadUserByUsername(EMAIL).getUsername());
+        Assert.assertEquals(Collections.singletonList("primary"), routes);
+    }
+
+    @Test
+    public void testGetUserByEmail_outsideOfLookup_usesReplica() {
+        userRepository.getUserByEmail(EMAIL);
+
+        Assert.assertEquals(Collections.singletonList("replica"), routes);
+    }
+
+    private static DataSource database(String name) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:user-details-" + name, "sa", "");
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("drop table database_name if exists");
+        jdbcTemplate.execute("create table database_name (name varchar(16))");
+        jdbcTemplate.update("insert into database_name values (?)", name);
+
+        return dataSource;
+    }
+}
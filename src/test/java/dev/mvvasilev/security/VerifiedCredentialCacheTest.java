@@ -0,0 +1,64 @@
+package dev.mvvasilev.security;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VerifiedCredentialCacheTest {
+
+    private static final String EMAIL = "someemail@domain.com";
+
+    private static final String PASSWORD = "test_password123";
+
+    private static final String PASSWORD_HASH = "a password hash";
+
+    private VerifiedCredentialCache credentialCache;
+
+    @Before
+    public void init() {
+        credentialCache = new VerifiedCredentialCache(true, 30, 100);
+    }
+
+    @Test
+    public void testIsVerified_afterPut() {
+        Assert.assertFalse(credentialCache.isVerified(EMAIL, PASSWORD, PASSWORD_HASH));
+
+        credentialCache.put(EMAIL, PASSWORD, PASSWORD_HASH);
+
+        Assert.assertTrue(credentialCache.isVerified(EMAIL, PASSWORD, PASSWORD_HASH));
+    }
+
+    @Test
+    public void testIsVerified_withOtherPassword() {
+        credentialCache.put(EMAIL, PASSWORD, PASSWORD_HASH);
+
+        Assert.assertFalse(credentialCache.isVerified(EMAIL, "other_password123", PASSWORD_HASH));
+        Assert.assertFalse(credentialCache.isVerified("otheremail@domain.com", PASSWORD, PASSWORD_HASH));
+    }
+
+    @Test
+    public void testIsVerified_afterPasswordHashChanged() {
+        credentialCache.put(EMAIL, PASSWORD, PASSWORD_HASH);
+
+        Assert.assertFalse(credentialCache.isVerified(EMAIL, PASSWORD, "a new password hash"));
+    }
+
+    @Test
+    public void testIsVerified_afterEvict() {
+        credentialCache.put(EMAIL, PASSWORD, PASSWORD_HASH);
+
+        credentialCache.evict(EMAIL);
+
+        Assert.assertFalse(credentialCache.isVerified(EMAIL, PASSWORD, PASSWORD_HASH));
+    }
+
+    @Test
+    public void testIsVerified_withDisabledCache() {
+        credentialCache = new VerifiedCredentialCache(false, 30, 100);
+
+        credentialCache.put(EMAIL, PASSWORD, PASSWORD_HASH);
+
+        Assert.assertFalse(credentialCache.isEnabled());
+        Assert.assertFalse(credentialCache.isVerified(EMAIL, PASSWORD, PASSWORD_HASH));
+    }
+}
@@ -0,0 +1,94 @@
+package dev.mvvasilev.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.Key;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class VerifiedTokenCacheTest {
+
+    private static final Key KEY = new SecretKeySpec("the_secret_key".getBytes(), SignatureAlgorithm.HS256.getJcaName());
+
+    private VerifiedTokenCache tokenCache;
+
+    private JwtParser parser;
+
+    private AtomicInteger verifications;
+
+    private Function<String, Jws<Claims>> verifier;
+
+    @Before
+    public void init() {
+        tokenCache = new VerifiedTokenCache(true, 100);
+        parser = Jwts.parser().setSigningKey(KEY);
+        verifications = new AtomicInteger();
+        verifier = token -> {
+            verifications.incrementAndGet();
+            return parser.parseClaimsJws(token);
+        };
+    }
+
+    @Test
+    public void testGet_verifiesKnownTokenOnce() {
+        String token = createToken("someemail@domain.com", 60_000);
+
+        Jws<Claims> first = tokenCache.get(token, verifier);
+        Jws<Claims> second = tokenCache.get(token, verifier);
+
+        Assert.assertEquals(1, verifications.get());
+        Assert.assertEquals("someemail@domain.com", second.getBody().getSubject());
+        Assert.assertSame(first, second);
+    }
+
+    @Test
+    public void testGet_withDisabledCache() {
+        tokenCache = new VerifiedTokenCache(false, 100);
+        String token = createToken("someemail@domain.com", 60_000);
+
+        tokenCache.get(token, verifier);
+        tokenCache.get(token, verifier);
+
+        Assert.assertEquals(2, verifications.get());
+    }
+
+    @Test(expected = ExpiredJwtException.class)
+    public void testGet_withExpiredToken() {
+        tokenCache.get(createToken("someemail@domain.com", -1_000), verifier);
+    }
+
+    @Test
+    public void testGet_doesNotCacheFailedVerification() {
+        String token = createToken("someemail@domain.com", 60_000) + "tampered";
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                tokenCache.get(token, verifier);
+                Assert.fail("Tampered token should not verify");
+            } catch (RuntimeException expected) {
+                // expected
+            }
+        }
+
+        Assert.assertEquals(2, verifications.get());
+        Assert.assertEquals(0, tokenCache.size());
+    }
+
+    private String createToken(String subject, long validForMillis) {
+        return Jwts.builder()
+                .setSubject(subject)
+                .setExpiration(new Date(System.currentTimeMillis() + validForMillis))
+                .signWith(SignatureAlgorithm.HS256, KEY)
+                .compact();
+    }
+}
@@ -0,0 +1,89 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.exception.TokenAuthenticationException;
+import dev.mvvasilev.security.AuthenticationMode;
+import dev.mvvasilev.security.CachingUserDetailsService;
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.security.PermissionVersionCache;
+import dev.mvvasilev.security.VerifiedTokenCache;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class AuthenticationServiceTest {
+
+    private static final String EMAIL = "someemail@domain.com";
+
+    private AuthenticationService authenticationService;
+
+    private CachingUserDetailsService userDetailsService;
+
+    private PermissionVersionCache permissionVersionCache;
+
+    @Before
+    public void init() {
+        userDetailsService = Mockito.mock(CachingUserDetailsService.class);
+        permissionVersionCache = Mockito.mock(PermissionVersionCache.class);
+
+        authenticationService = new AuthenticationService(userDetailsService, new VerifiedTokenCache(true, 100), permissionVersionCache);
+        ReflectionTestUtils.setField(authenticationService, "secretKey", "the_secret_key");
+        ReflectionTestUtils.setField(authenticationService, "authenticationMode", AuthenticationMode.STATELESS);
+        authenticationService.init();
+    }
+
+    @Test
+    public void testAuthenticate_statelessBuildsPrincipalFromClaims() {
+        Mockito.when(permissionVersionCache.currentVersion(EMAIL)).thenReturn(2L);
+
+        Authentication authentication = authenticationService.authenticate(
+                request(authenticationService.createToken(EMAIL, EnumSet.of(Permission.READ_SELF, Permission.UPDATE_SELF), 2))
+        );
+
+        Set<String> authorities = authentication.getAuthorities().stream().map(GrantedAuthority::getAuthority).collect(Collectors.toSet());
+
+        Assert.assertEquals(EMAIL, authentication.getName());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("READ_SELF", "UPDATE_SELF")), authorities);
+
+        // The principal is never loaded from the database
+        Mockito.verify(userDetailsService, Mockito.never()).loadUserByUsername(Matchers.anyString());
+    }
+
+    @Test(expected = TokenAuthenticationException.class)
+    public void testAuthenticate_statelessRejectsTokenAfterPermissionChange() {
+        String token = authenticationService.createToken(EMAIL, EnumSet.of(Permission.READ_SELF), 2);
+        Mockito.when(permissionVersionCache.currentVersion(EMAIL)).thenReturn(3L);
+
+        authenticationService.authenticate(request(token));
+    }
+
+    @Test(expected = TokenAuthenticationException.class)
+    public void testAuthenticate_statelessRejectsTokenOfDeletedUser() {
+        String token = authenticationService.createToken(EMAIL, EnumSet.of(Permission.READ_SELF), 0);
+        Mockito.when(permissionVersionCache.currentVersion(EMAIL)).thenReturn(PermissionVersionCache.MISSING_USER_VERSION);
+
+        authenticationService.authenticate(request(token));
+    }
+
+    @Test
+    public void testAuthenticate_withoutToken() {
+        Assert.assertNull(authenticationService.authenticate(new MockHttpServletRequest()));
+    }
+
+    private static MockHttpServletRequest request(String token) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Authorization", "Bearer " + token);
+        return request;
+    }
+}
@@ -0,0 +1,140 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.security.PasswordHashingPolicy;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class PasswordHashingServiceTest {
+
+    private PasswordEncoder passwordEncoder;
+
+    private ThreadPoolTaskExecutor executor;
+
+    private CountDownLatch hashing;
+
+    private Semaphore started;
+
+    @Before
+    public void init() {
+        hashing = new CountDownLatch(1);
+        started = new Semaphore(0);
+
+        passwordEncoder = Mockito.mock(PasswordEncoder.class);
+        Mockito.when(passwordEncoder.encode(Matchers.anyString())).thenAnswer(invocation -> {
+            started.release();
+            hashing.await();
+            return "hash of " + invocation.getArguments()[0];
+        });
+    }
+
+    @After
+    public void shutdown() {
+        hashing.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testEncode_rejectedWhenQueueIsFull() {
+        PasswordHashingService passwordHashingService = service(1, 1, 1);
+
+        // One hash runs, one waits in the queue
+        CompletableFuture<String> running = passwordHashingService.encode("test_password123");
+        CompletableFuture<String> queued = passwordHashingService.encode("test_password123");
+
+        try {
+            passwordHashingService.encode("test_password123");
+            Assert.fail("Expected the hash to be rejected");
+        } catch (RejectedExecutionException expected) {
+            // expected
+        }
+
+        hashing.countDown();
+
+        Assert.assertEquals("hash of test_password123", running.join());
+        Assert.assertEquals("hash of test_password123", queued.join());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testMatches_rejectedWhenQueueIsFull() {
+        PasswordHashingService passwordHashingService = service(1, 1, 1);
+
+        passwordHashingService.encode("test_password123");
+        passwordHashingService.encode("test_password123");
+
+        passwordHashingService.matches("test_password123", "a password hash");
+    }
+
+    @Test
+    public void testEncodeAll_keepsOrder() {
+        hashing.countDown();
+
+        List<String> hashes = service(2, 10, 0.5).encodeAll(Arrays.asList("password0", "password1", "password2"));
+
+        Assert.assertEquals(Arrays.asList("hash of password0", "hash of password1", "hash of password2"), hashes);
+    }
+
+    @Test
+    public void testEncodeAll_leavesThreadsToOtherHashing() throws InterruptedException {
+        // Of the two threads, the bulk hashing may only take up one
+        PasswordHashingService passwordHashingService = service(2, 10, 0.5);
+
+        CompletableFuture<List<String>> bulk = CompletableFuture.supplyAsync(
+                () -> passwordHashingService.encodeAll(Arrays.asList("password0", "password1", "password2"))
+        );
+
+        Assert.assertTrue(started.tryAcquire(5, TimeUnit.SECONDS));
+        // The other passwords wait for the first one, rather than in the executor's queue
+        Assert.assertTrue(executor.getThreadPoolExecutor().getQueue().isEmpty());
+
+        CompletableFuture<String> single = passwordHashingService.encode("test_password123");
+
+        Assert.assertTrue(started.tryAcquire(5, TimeUnit.SECONDS));
+
+        hashing.countDown();
+
+        Assert.assertEquals("hash of test_password123", single.join());
+        Assert.assertEquals(Arrays.asList("hash of password0", "hash of password1", "hash of password2"), bulk.join());
+    }
+
+    @Test
+    public void testEncodeAll_rejectedWhenQueueIsFull() {
+        PasswordHashingService passwordHashingService = service(1, 1, 1);
+
+        passwordHashingService.encode("test_password123");
+        passwordHashingService.encode("test_password123");
+
+        try {
+            passwordHashingService.encodeAll(Arrays.asList("password0", "password1"));
+            Assert.fail("Expected the hashes to be rejected");
+        } catch (RejectedExecutionException expected) {
+            // expected
+        }
+
+        // Not hashed on the calling thread instead
+        Mockito.verify(passwordEncoder, Mockito.never()).encode("password0");
+    }
+
+    private PasswordHashingService service(int poolSize, int queueCapacity, double bulkShare) {
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.initialize();
+
+        return new PasswordHashingService(passwordEncoder, Mockito.mock(PasswordHashingPolicy.class), executor, bulkShare);
+    }
+}
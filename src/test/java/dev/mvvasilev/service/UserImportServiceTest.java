@@ -0,0 +1,198 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.entity.User;
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UserImportServiceTest {
+
+    private static final String EXISTING_EMAIL = "existing@domain.com";
+
+    private UserImportService userImportService;
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private PasswordHashingService passwordHashingService;
+
+    @Before
+    public void init() {
+        userImportService = new UserImportService(userService, passwordHashingService, 500);
+
+        Mockito.when(userService.findExistingEmails(Matchers.anyCollectionOf(String.class))).thenReturn(Collections.singleton(EXISTING_EMAIL));
+        Mockito.when(passwordHashingService.encodeAll(Matchers.anyListOf(String.class))).thenAnswer(invocation -> {
+            List<String> rawPasswords = (List<String>) invocation.getArguments()[0];
+            return rawPasswords.stream().map(rawPassword -> "hash of " + rawPassword).collect(Collectors.toList());
+        });
+    }
+
+    @Test
+    public void testImportChunk() {
+        UserImport created = row(0, "new@domain.com", LocalDate.of(1990, 1, 1));
+        UserImport existing = row(1, EXISTING_EMAIL, LocalDate.of(1990, 1, 1));
+        UserImport duplicate = row(2, "new@domain.com", LocalDate.of(1990, 1, 1));
+        UserImport bornInFuture = row(3, "future@domain.com", LocalDate.now().plusDays(1));
+
+        userImportService.importChunk(Arrays.asList(created, existing, duplicate, bornInFuture));
+
+        Assert.assertFalse(created.isFailed());
+        Assert.assertEquals("hash of password0", created.getUser().getPasswordHash());
+        Assert.assertTrue(existing.isFailed());
+        Assert.assertTrue(duplicate.isFailed());
+        Assert.assertTrue(bornInFuture.isFailed());
+
+        Mockito.verify(passwordHashingService).encodeAll(Collections.singletonList("password0"));
+        Mockito.verify(userService).createUsers(Matchers.eq(Collections.singletonList(created.getUser())), Matchers.any());
+    }
+
+    @Test
+    public void testImportChunk_skipsAlreadyFailedRows() {
+        UserImport failed = row(0, "new@domain.com", LocalDate.of(1990, 1, 1));
+        failed.fail("invalid");
+
+        userImportService.importChunk(Collections.singletonList(failed));
+
+        Assert.assertEquals("invalid", failed.getError());
+        Mockito.verify(userService, Mockito.never()).createUsers(Matchers.anyListOf(User.class), Matchers.any());
+    }
+
+    @Test
+    public void testImportChunk_whenAnotherRequestCreatesAUser() {
+        UserImport stored = row(0, "new@domain.com", LocalDate.of(1990, 1, 1));
+        UserImport raced = row(1, "raced@domain.com", LocalDate.of(1990, 1, 1));
+
+        Mockito.when(userService.findExistingEmails(Matchers.anyCollectionOf(String.class))).thenReturn(
+                Collections.singleton(EXISTING_EMAIL),
+                Collections.singleton(raced.getUser().getEmail())
+        );
+        storeConflicting(Collections.singletonMap(raced.getUser().getEmail(), emailConflict()), user -> 0);
+
+        userImportService.importChunk(Arrays.asList(stored, raced));
+
+        Assert.assertFalse(stored.isFailed());
+        Assert.assertEquals("A user with this email address already exists.", raced.getError());
+        // The chunk, then the rows whose emails were not taken
+        Mockito.verify(userService, Mockito.times(2)).createUsers(Matchers.anyListOf(User.class), Matchers.any());
+    }
+
+    @Test
+    public void testImportChunk_whenTakenEmailIsNotFound() {
+        // As for the email of a soft deleted user, which is hidden from the existence check
+        UserImport stored = row(0, "new@domain.com", LocalDate.of(1990, 1, 1));
+        UserImport deleted = row(1, "deleted@domain.com", LocalDate.of(1990, 1, 1));
+
+        storeConflicting(Collections.singletonMap(deleted.getUser().getEmail(), emailConflict()), user -> 0);
+
+        userImportService.importChunk(Arrays.asList(stored, deleted));
+
+        Assert.assertFalse(stored.isFailed());
+        Assert.assertEquals("A user with this email address already exists.", deleted.getError());
+    }
+
+    @Test
+    public void testImportChunk_whenStoringViolatesAnotherConstraint() {
+        UserImport before = row(0, "before@domain.com", LocalDate.of(1990, 1, 1));
+        UserImport violating = row(1, "violating@domain.com", LocalDate.of(1990, 1, 1));
+        UserImport after = row(2, "after@domain.com", LocalDate.of(1990, 1, 1));
+
+        storeConflicting(Collections.singletonMap(violating.getUser().getEmail(), new DataIntegrityViolationException("value too long")), user -> 0);
+
+        userImportService.importChunk(Arrays.asList(before, violating, after));
+
+        Assert.assertFalse(before.isFailed());
+        Assert.assertFalse(after.isFailed());
+        Assert.assertEquals("The user could not be stored, as it violates a constraint of the database.", violating.getError());
+    }
+
+    @Test
+    public void testImportChunk_whenStoringConflictsOnOneShard() {
+        UserImport stored = row(0, "new@domain.com", LocalDate.of(1990, 1, 1));
+        UserImport conflicting = row(1, "conflicting@domain.com", LocalDate.of(1990, 1, 1));
+        UserImport sameShard = row(2, "sameshard@domain.com", LocalDate.of(1990, 1, 1));
+
+        Map<String, RuntimeException> conflicts = Collections.singletonMap(conflicting.getUser().getEmail(), emailConflict());
+        storeConflicting(conflicts, user -> user == stored.getUser() ? 0 : 1);
+
+        userImportService.importChunk(Arrays.asList(stored, conflicting, sameShard));
+
+        Assert.assertFalse(stored.isFailed());
+        Assert.assertTrue(conflicting.isFailed());
+        Assert.assertFalse(sameShard.isFailed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testImportChunk_whenStoringFailsOtherwise() {
+        UserImport row = row(0, "new@domain.com", LocalDate.of(1990, 1, 1));
+        storeConflicting(Collections.singletonMap(row.getUser().getEmail(), new IllegalStateException("database is down")), user -> 0);
+
+        userImportService.importChunk(Collections.singletonList(row));
+    }
+
+    /**
+     * Store users in batches of each shard, as the service does. The batch of a shard holding a user whose email has
+     * a conflict fails as a whole, and is passed to the handler along with the failure of that email.
+     */
+    @SuppressWarnings("unchecked")
+    private void storeConflicting(Map<String, RuntimeException> conflicts, ToIntFunction<User> shardOf) {
+        Mockito.when(userService.createUsers(Matchers.anyListOf(User.class), Matchers.any())).thenAnswer(invocation -> {
+            List<User> users = (List<User>) invocation.getArguments()[0];
+            BiConsumer<List<User>, RuntimeException> onShardFailure = (BiConsumer<List<User>, RuntimeException>) invocation.getArguments()[1];
+
+            Map<Integer, List<User>> usersByShard = users.stream().collect(Collectors.groupingBy(shardOf::applyAsInt, LinkedHashMap::new, Collectors.toList()));
+            List<User> stored = new ArrayList<>();
+
+            for (List<User> shardUsers : usersByShard.values()) {
+                Optional<RuntimeException> failure = shardUsers.stream()
+                        .map(user -> conflicts.get(user.getEmail()))
+                        .filter(Objects::nonNull)
+                        .findFirst();
+
+                if (failure.isPresent()) {
+                    onShardFailure.accept(shardUsers, failure.get());
+                } else {
+                    stored.addAll(shardUsers);
+                }
+            }
+
+            return stored;
+        });
+    }
+
+    private static DataIntegrityViolationException emailConflict() {
+        return new DataIntegrityViolationException("conflict", new ConstraintViolationException("conflict", new SQLException(), User.EMAIL_CONSTRAINT));
+    }
+
+    private static UserImport row(int index, String email, LocalDate dateOfBirth) {
+        User user = new User();
+        user.setEmail(email);
+        user.setFirstName("First");
+        user.setLastName("Last");
+        user.setDateOfBirth(dateOfBirth);
+
+        return new UserImport(index, user, "password" + index);
+    }
+}
@@ -0,0 +1,101 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.security.CachingUserDetailsService;
+import dev.mvvasilev.security.PermissionVersionCache;
+import dev.mvvasilev.security.VerifiedCredentialCache;
+import org.mockito.Mockito;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Optional;
+
+/**
+ * Builds the {@link UserService} under test, so that tests only set the collaborators they care about.
+ * Unless set, writes run on the calling thread, the caches and the email filter are mocks, users are kept on a single shard
+ * and deleted users are removed right away.
+ */
+class UserServiceBuilder {
+
+    private UserRepository userRepository;
+
+    private PlatformTransactionManager transactionManager;
+
+    private PasswordHashingService passwordHashingService;
+
+    private TaskExecutor writeExecutor = new SyncTaskExecutor();
+
+    private PermissionVersionCache permissionVersionCache = Mockito.mock(PermissionVersionCache.class);
+
+    private CachingUserDetailsService userDetailsCache = Mockito.mock(CachingUserDetailsService.class);
+
+    private VerifiedCredentialCache credentialCache = Mockito.mock(VerifiedCredentialCache.class);
+
+    private EmailBloomFilter emailFilter = Mockito.mock(EmailBloomFilter.class);
+
+    private UserShards shards;
+
+    private boolean softDelete;
+
+    UserServiceBuilder(UserRepository userRepository, PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.transactionManager = transactionManager;
+    }
+
+    UserServiceBuilder passwordHashingService(PasswordHashingService passwordHashingService) {
+        this.passwordHashingService = passwordHashingService;
+        return this;
+    }
+
+    UserServiceBuilder writeExecutor(TaskExecutor writeExecutor) {
+        this.writeExecutor = writeExecutor;
+        return this;
+    }
+
+    UserServiceBuilder permissionVersionCache(PermissionVersionCache permissionVersionCache) {
+        this.permissionVersionCache = permissionVersionCache;
+        return this;
+    }
+
+    UserServiceBuilder userDetailsCache(CachingUserDetailsService userDetailsCache) {
+        this.userDetailsCache = userDetailsCache;
+        return this;
+    }
+
+    UserServiceBuilder credentialCache(VerifiedCredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+        return this;
+    }
+
+    UserServiceBuilder emailFilter(EmailBloomFilter emailFilter) {
+        this.emailFilter = emailFilter;
+        return this;
+    }
+
+    UserServiceBuilder shards(UserShards shards) {
+        this.shards = shards;
+        return this;
+    }
+
+    UserServiceBuilder softDelete(boolean softDelete) {
+        this.softDelete = softDelete;
+        return this;
+    }
+
+    UserService build() {
+        return new UserService(
+                userRepository,
+                passwordHashingService,
+                writeExecutor,
+                null,
+                permissionVersionCache,
+                userDetailsCache,
+                credentialCache,
+                emailFilter,
+                shards == null ? new UserShards(transactionManager, Optional.empty()) : shards,
+                transactionManager,
+                softDelete
+        );
+    }
+}
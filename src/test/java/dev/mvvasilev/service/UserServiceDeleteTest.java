@@ -0,0 +1,160 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.exception.ValidationException;
+import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.util.Address;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+/**
+ * Checks that deleting users takes the same number of statements however many users are deleted.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+public class UserServiceDeleteTest {
+
+    private static final int USER_COUNT = 4;
+
+    /**
+     * Selecting the ids and emails of the users, then deleting their addresses, then deleting the users
+     */
+    private static final long DELETE_STATEMENTS = 3;
+
+    @Configuration
+    @EntityScan(basePackageClasses = User.class)
+    @EnableJpaRepositories(basePackageClasses = UserRepository.class)
+    static class TestConfiguration {
+    }
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private UserService userService;
+
+    private Statistics statistics;
+
+    private List<Long> userIds;
+
+    @Before
+    public void init() {
+        userService = new UserServiceBuilder(userRepository, transactionManager).build();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        userIds = new ArrayList<>();
+
+        for (int i = 0; i < USER_COUNT; i++) {
+            User user = new User();
+            user.setEmail("user" + i + "@domain.com");
+            user.setPasswordHash("a password hash");
+            user.setFirstName("First");
+            user.setLastName("Last");
+            user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+            user.setPermissions(EnumSet.of(Permission.READ_SELF));
+
+            Address address = new Address();
+            address.setCountry("BG");
+            address.setCity("Sofia");
+            address.setStreetAddress(i + " Some Street");
+            address.setPostCode("1000");
+            user.setAddresses(Collections.singleton(address));
+
+            userIds.add(entityManager.persist(user).getId());
+        }
+
+        entityManager.flush();
+        entityManager.clear();
+        statistics.clear();
+    }
+
+    @Test
+    public void testDeleteUserById_statementCount() {
+        Assert.assertTrue(userService.deleteUserById(userIds.get(0), null));
+
+        Assert.assertEquals(DELETE_STATEMENTS, statistics.getPrepareStatementCount());
+        Assert.assertEquals(USER_COUNT - 1, userRepository.count());
+    }
+
+    @Test
+    public void testDeleteUserById_withExpectedVersion_statementCount() {
+        Assert.assertTrue(userService.deleteUserById(userIds.get(0), 0L));
+
+        // Claiming the expected version takes one more statement
+        Assert.assertEquals(DELETE_STATEMENTS + 1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testDeleteUsersById_statementCountDoesNotDependOnUserCount() {
+        List<Long> deletedIds = userService.deleteUsersById(userIds);
+
+        Assert.assertEquals(USER_COUNT, deletedIds.size());
+        Assert.assertEquals(DELETE_STATEMENTS, statistics.getPrepareStatementCount());
+        Assert.assertEquals(0, userRepository.count());
+    }
+
+    @Test
+    public void testDeleteUsersById_withNonExistentUsers() {
+        List<Long> ids = new ArrayList<>(userIds.subList(0, 2));
+        ids.add(-1L);
+
+        Assert.assertEquals(new HashSet<>(userIds.subList(0, 2)), new HashSet<>(userService.deleteUsersById(ids)));
+        Assert.assertEquals(DELETE_STATEMENTS, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testDeleteUsersById_atSizeLimit() {
+        List<Long> ids = LongStream.range(0, UserService.MAX_BULK_DELETE_SIZE).map(i -> -i - 1).boxed().collect(Collectors.toList());
+        ids.set(0, userIds.get(0));
+
+        Assert.assertEquals(Collections.singletonList(userIds.get(0)), userService.deleteUsersById(ids));
+    }
+
+    @Test
+    public void testDeleteUsersById_overSizeLimit() {
+        List<Long> ids = LongStream.range(0, UserService.MAX_BULK_DELETE_SIZE + 1).map(i -> -i - 1).boxed().collect(Collectors.toList());
+
+        try {
+            userService.deleteUsersById(ids);
+            Assert.fail("Expected too many ids to be rejected");
+        } catch (ValidationException expected) {
+            // expected
+        }
+
+        Assert.assertEquals(0, statistics.getPrepareStatementCount());
+        Assert.assertEquals(USER_COUNT, userRepository.count());
+    }
+}
@@ -0,0 +1,112 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.exception.ValidationException;
+import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.security.Permission;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+public class UserServiceEmailTest {
+
+    private static final String EMAIL = "someemail@domain.com";
+
+    @Configuration
+    @EntityScan(basePackageClasses = User.class)
+    @EnableJpaRepositories(basePackageClasses = UserRepository.class)
+    static class TestConfiguration {
+    }
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private UserService userService;
+
+    private EmailBloomFilter emailFilter;
+
+    @Before
+    public void init() {
+        emailFilter = Mockito.mock(EmailBloomFilter.class);
+
+        PasswordHashingService passwordHashingService = Mockito.mock(PasswordHashingService.class);
+        Mockito.when(passwordHashingService.encode(Matchers.anyString())).thenReturn(CompletableFuture.completedFuture("a password hash"));
+
+        userService = new UserServiceBuilder(userRepository, transactionManager)
+                .passwordHashingService(passwordHashingService)
+                .emailFilter(emailFilter)
+                .build();
+
+        User user = new User();
+        user.setEmail(EMAIL);
+        user.setPasswordHash("a password hash");
+        user.setFirstName("First");
+        user.setLastName("Last");
+        user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+        user.setPermissions(EnumSet.noneOf(Permission.class));
+        entityManager.persistAndFlush(user);
+        entityManager.clear();
+    }
+
+    @Test
+    public void testGetUser_normalizesEmail() {
+        Assert.assertEquals(EMAIL, userService.getUser("  SomeEmail@Domain.com ").getEmail());
+    }
+
+    @Test
+    public void testCreateUser_withExistingEmailInAnotherCase() throws InterruptedException {
+        CompletableFuture<User> future = userService.createUser(
+                "SOMEEMAIL@domain.com", "test_password123", "First", "Last", LocalDate.of(1990, 1, 1), Collections.emptySet()
+        );
+
+        try {
+            future.get();
+            Assert.fail("Expected the unique email constraint to be violated");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ValidationException);
+        }
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testCreateUser_rejectsEmailKnownToFilterBeforeHashing() {
+        Mockito.when(emailFilter.mightContain(EMAIL)).thenReturn(true);
+
+        userService.createUser(
+                "SOMEEMAIL@domain.com", "test_password123", "First", "Last", LocalDate.of(1990, 1, 1), Collections.emptySet()
+        );
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testUpdateUserById_withExistingEmailInAnotherCase() {
+        User other = userService.createUser(
+                "other@domain.com", "test_password123", "First", "Last", LocalDate.of(1990, 1, 1), Collections.emptySet()
+        ).join();
+
+        userService.updateUserById(other.getId(), "SomeEmail@domain.com", null, null, null, null, null);
+    }
+}
@@ -0,0 +1,206 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.dto.UserDTO;
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.exception.UserNotFoundException;
+import dev.mvvasilev.exception.ValidationException;
+import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.util.Address;
+import dev.mvvasilev.util.CursorPage;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+public class UserServiceListingTest {
+
+    private static final int USER_COUNT = 30;
+
+    @Configuration
+    @EntityScan(basePackageClasses = User.class)
+    @EnableJpaRepositories(basePackageClasses = UserRepository.class)
+    static class TestConfiguration {
+    }
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private UserService userService;
+
+    private Statistics statistics;
+
+    @Before
+    public void init() {
+        userService = new UserServiceBuilder(userRepository, transactionManager).build();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        for (int i = 0; i < USER_COUNT; i++) {
+            User user = new User();
+            user.setEmail("user" + i + "@domain.com");
+            user.setPasswordHash("a password hash");
+            user.setFirstName("First" + i);
+            user.setLastName("Last" + i);
+            user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+            user.setPermissions(EnumSet.of(Permission.READ_SELF, Permission.UPDATE_SELF));
+            user.setAddresses(addresses(i));
+            entityManager.persist(user);
+        }
+
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    public void testGetUsers_queryCountDoesNotDependOnPageSize() {
+        long smallPageQueries = countQueries(PageRequest.of(1, 5));
+        long largePageQueries = countQueries(PageRequest.of(1, 20));
+
+        Assert.assertEquals(smallPageQueries, largePageQueries);
+        Assert.assertTrue("Expected at most 3 queries, got " + largePageQueries, largePageQueries <= 3);
+    }
+
+    @Test
+    public void testGetUsers_preservesPageOrderAndLoadsAddresses() {
+        Page<UserDTO> page = userService.getUsers(PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "email")));
+
+        Assert.assertEquals(10, page.getContent().size());
+        Assert.assertEquals(USER_COUNT, page.getTotalElements());
+        Assert.assertEquals("user9@domain.com", page.getContent().get(0).getEmail());
+        Assert.assertEquals("user8@domain.com", page.getContent().get(1).getEmail());
+        page.getContent().forEach(user -> Assert.assertEquals(2, user.getAddresses().size()));
+    }
+
+    @Test
+    public void testGetUserDTO_byIdAndEmail() {
+        UserDTO byEmail = userService.getUserDTO("User3@Domain.com");
+        UserDTO byId = userService.getUserDTO(byEmail.getId());
+
+        Assert.assertEquals("user3@domain.com", byEmail.getEmail());
+        Assert.assertEquals("First3", byEmail.getFirstName());
+        Assert.assertEquals(2, byEmail.getAddresses().size());
+        Assert.assertEquals(byEmail, byId);
+    }
+
+    @Test(expected = UserNotFoundException.class)
+    public void testGetUserDTO_withNonExistentUser() {
+        userService.getUserDTO("missing@domain.com");
+    }
+
+    @Test
+    public void testGetUserSlice_doesNotCount() {
+        entityManager.clear();
+        statistics.clear();
+
+        Slice<UserDTO> slice = userService.getUserSlice(PageRequest.of(0, 10, Sort.by("email")));
+
+        Assert.assertEquals(10, slice.getContent().size());
+        Assert.assertTrue(slice.hasNext());
+        Assert.assertEquals("user0@domain.com", slice.getContent().get(0).getEmail());
+        Assert.assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testGetUserSlice_lastSlice() {
+        Slice<UserDTO> slice = userService.getUserSlice(PageRequest.of(2, 10));
+
+        Assert.assertEquals(10, slice.getContent().size());
+        Assert.assertFalse(slice.hasNext());
+    }
+
+    @Test
+    public void testGetUsersAfterCursor_walksWholeListing() {
+        Set<String> seen = new HashSet<>();
+        String cursor = null;
+        String previousEmail = "";
+
+        do {
+            CursorPage<UserDTO> page = userService.getUsers(cursor, "email", Sort.Direction.ASC, 7);
+
+            for (UserDTO user : page.getContent()) {
+                Assert.assertTrue(user.getEmail().compareTo(previousEmail) > 0);
+                Assert.assertTrue(seen.add(user.getEmail()));
+                previousEmail = user.getEmail();
+            }
+
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        Assert.assertEquals(USER_COUNT, seen.size());
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testGetUsersAfterCursor_withUnindexedSort() {
+        userService.getUsers(null, "firstName", Sort.Direction.ASC, 10);
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testGetUsers_withUnindexedSort() {
+        userService.getUsers(PageRequest.of(0, 10, Sort.by("lastName")));
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testGetUsersAfterCursor_withInvalidCursor() {
+        userService.getUsers("not-a-cursor", "id", Sort.Direction.ASC, 10);
+    }
+
+    private long countQueries(PageRequest pageRequest) {
+        entityManager.clear();
+        statistics.clear();
+
+        Page<UserDTO> page = userService.getUsers(pageRequest);
+        page.getContent().forEach(user -> user.getAddresses().size());
+
+        Assert.assertEquals(pageRequest.getPageSize(), page.getContent().size());
+
+        return statistics.getPrepareStatementCount();
+    }
+
+    private static Set<Address> addresses(int i) {
+        Set<Address> addresses = new HashSet<>();
+
+        for (int j = 0; j < 2; j++) {
+            Address address = new Address();
+            address.setCountry("BG");
+            address.setCity("City" + i);
+            address.setStreetAddress(j + " Some Street");
+            address.setPostCode("1000");
+            addresses.add(address);
+        }
+
+        return addresses;
+    }
+}
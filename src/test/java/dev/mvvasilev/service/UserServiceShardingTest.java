@@ -0,0 +1,366 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.configuration.ShardingConfiguration;
+import dev.mvvasilev.datasource.ShardMap;
+import dev.mvvasilev.datasource.ShardRebalancer;
+import dev.mvvasilev.datasource.ShardRoutingDataSource;
+import dev.mvvasilev.dto.UserDTO;
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.exception.UserNotFoundException;
+import dev.mvvasilev.exception.ValidationException;
+import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.util.Address;
+import dev.mvvasilev.util.CursorPage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Spreads users over three embedded HSQLDB databases standing in for the shards.
+ * Tests are not transactional, as each call to the service runs on the shards it concerns in transactions of its own.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestPropertySource(properties = {
+        "users.sharding.enabled=true",
+        "users.sharding.shards[0].url=jdbc:hsqldb:mem:user-shard-0",
+        "users.sharding.shards[1].url=jdbc:hsqldb:mem:user-shard-1",
+        "users.sharding.shards[2].url=jdbc:hsqldb:mem:user-shard-2"
+})
+public class UserServiceShardingTest {
+
+    private static final int USER_COUNT = 30;
+
+    @Configuration
+    @EntityScan(basePackageClasses = User.class)
+    @EnableJpaRepositories(basePackageClasses = UserRepository.class)
+    @Import({ShardingConfiguration.class, UserShards.class})
+    static class TestConfiguration {
+
+        @Bean
+        public UserService userService(UserRepository userRepository, UserShards shards, PlatformTransactionManager transactionManager) {
+            EmailBloomFilter emailFilter = Mockito.mock(EmailBloomFilter.class);
+            Mockito.when(emailFilter.mightContain(Matchers.anyString())).thenReturn(true);
+
+            return new UserServiceBuilder(userRepository, transactionManager)
+                    .emailFilter(emailFilter)
+                    .shards(shards)
+                    .build();
+        }
+    }
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private ShardRoutingDataSource shardRoutingDataSource;
+
+    @Autowired
+    private ShardMap shardMap;
+
+    @Autowired
+    private ShardRebalancer shardRebalancer;
+
+    private List<User> users;
+
+    @Before
+    public void init() {
+        // Spread the buckets, which all start on the first shard, as --rebalance-shards does. Moves nothing after the first test.
+        shardRebalancer.rebalance();
+
+        List<User> newUsers = new ArrayList<>();
+
+        for (int i = 0; i < USER_COUNT; i++) {
+            User user = new User();
+            user.setEmail("user" + i + "@domain.com");
+            user.setPasswordHash("a password hash");
+            user.setFirstName("First" + i);
+            user.setLastName("Last" + i);
+            user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+
+            Address address = new Address();
+            address.setCountry("BG");
+            address.setCity("City" + i);
+            address.setStreetAddress(i + " Some Street");
+            address.setPostCode("1000");
+            user.setAddresses(new HashSet<>(Collections.singleton(address)));
+
+            newUsers.add(user);
+        }
+
+        users = userService.createUsers(newUsers);
+    }
+
+    @After
+    public void clearShards() {
+        for (int shard = 0; shard < shardRoutingDataSource.getShardCount(); shard++) {
+            JdbcTemplate jdbcTemplate = shardTemplate(shard);
+            jdbcTemplate.update("delete from user_addresses");
+            jdbcTemplate.update("delete from \"user\"");
+        }
+    }
+
+    @Test
+    public void testCreateUsers_storesEachUserOnTheShardOfItsEmail() {
+        int total = 0;
+
+        for (int shard = 0; shard < shardRoutingDataSource.getShardCount(); shard++) {
+            int shardUsers = countUsers(shard);
+
+            Assert.assertTrue("Expected users on shard " + shard, shardUsers > 0);
+            total += shardUsers;
+        }
+
+        Assert.assertEquals(USER_COUNT, total);
+
+        for (User user : users) {
+            Assert.assertEquals(ShardMap.bucketOfEmail(user.getEmail()), ShardMap.bucketOfId(user.getId()));
+            Assert.assertEquals(1, countRows(shardMap.shardOfEmail(user.getEmail()), "select count(*) from \"user\" where id = " + user.getId()));
+            Assert.assertEquals(1, countRows(shardMap.shardOfEmail(user.getEmail()), "select count(*) from user_addresses where user_id = " + user.getId()));
+        }
+    }
+
+    @Test
+    public void testCreateUsers_conflictOnOneShard_storesTheOtherShards() {
+        String existingEmail = users.get(0).getEmail();
+        int conflictingShard = shardMap.shardOfEmail(existingEmail);
+
+        List<User> newUsers = new ArrayList<>();
+        newUsers.add(newUser(existingEmail));
+
+        for (int i = 0; newUsers.size() < 3; i++) {
+            String email = "new" + i + "@domain.com";
+
+            if (shardMap.shardOfEmail(email) != conflictingShard) {
+                newUsers.add(newUser(email));
+            }
+        }
+
+        List<User> failedUsers = new ArrayList<>();
+
+        List<User> savedUsers = userService.createUsers(newUsers, (shardUsers, failure) -> {
+            Assert.assertTrue(failure instanceof DataIntegrityViolationException);
+            failedUsers.addAll(shardUsers);
+        });
+
+        Assert.assertEquals(Collections.singletonList(newUsers.get(0)), failedUsers);
+        Assert.assertEquals(new HashSet<>(newUsers.subList(1, 3)), new HashSet<>(savedUsers));
+
+        for (User user : savedUsers) {
+            Assert.assertEquals(user.getEmail(), userService.getUserDTO(user.getId()).getEmail());
+        }
+
+        // The failed user is left unsaved, so it can be stored again
+        User failedUser = failedUsers.get(0);
+        Assert.assertNull(failedUser.getId());
+
+        failedUser.setEmail("renamed@domain.com");
+        userService.createUsers(failedUsers);
+
+        Assert.assertEquals("renamed@domain.com", userService.getUserDTO(failedUser.getId()).getEmail());
+    }
+
+    @Test
+    public void testGetUserDTO_byIdAndEmail() {
+        for (User user : users) {
+            UserDTO byId = userService.getUserDTO(user.getId());
+            UserDTO byEmail = userService.getUserDTO(user.getEmail().toUpperCase());
+
+            Assert.assertEquals(user.getEmail(), byId.getEmail());
+            Assert.assertEquals(1, byId.getAddresses().size());
+            Assert.assertEquals(byId, byEmail);
+        }
+    }
+
+    @Test
+    public void testFindExistingEmails_acrossShards() {
+        Set<String> existing = userService.findExistingEmails(Arrays.asList("user1@domain.com", "user2@domain.com", "user3@domain.com", "missing@domain.com"));
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("user1@domain.com", "user2@domain.com", "user3@domain.com")), existing);
+    }
+
+    @Test
+    public void testGetUsers_mergesPagesOfEveryShard() {
+        List<String> emails = sortedEmails();
+        Collections.reverse(emails);
+
+        Page<UserDTO> page = userService.getUsers(PageRequest.of(2, 7, Sort.by(Sort.Direction.DESC, "email")));
+
+        Assert.assertEquals(USER_COUNT, page.getTotalElements());
+        Assert.assertEquals(emails.subList(14, 21), page.getContent().stream().map(UserDTO::getEmail).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testGetUserSlice_mergesSlicesOfEveryShard() {
+        Slice<UserDTO> first = userService.getUserSlice(PageRequest.of(0, 20, Sort.by("id")));
+        Slice<UserDTO> last = userService.getUserSlice(PageRequest.of(1, 20, Sort.by("id")));
+
+        List<Long> ids = users.stream().map(User::getId).sorted().collect(Collectors.toList());
+
+        Assert.assertTrue(first.hasNext());
+        Assert.assertFalse(last.hasNext());
+        Assert.assertEquals(ids.subList(0, 20), first.getContent().stream().map(UserDTO::getId).collect(Collectors.toList()));
+        Assert.assertEquals(ids.subList(20, USER_COUNT), last.getContent().stream().map(UserDTO::getId).collect(Collectors.toList()));
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testGetUsers_beyondOffsetWindow() {
+        userService.getUsers(PageRequest.of(UserService.MAX_SHARDED_OFFSET_WINDOW / 10, 10));
+    }
+
+    @Test
+    public void testGetUsersAfterCursor_walksEveryShardInOrder() {
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+
+        do {
+            CursorPage<UserDTO> page = userService.getUsers(cursor, "email", Sort.Direction.ASC, 7);
+            page.getContent().forEach(user -> seen.add(user.getEmail()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        Assert.assertEquals(sortedEmails(), seen);
+    }
+
+    @Test
+    public void testGetUsersAfterCursor_ordersEmailsAsEveryShard() {
+        List<User> newUsers = new ArrayList<>();
+
+        for (String email : Arrays.asList("user.1@domain.com", "user_1@domain.com", "user-1@domain.com", "user1a@domain.com", "user~1@domain.com")) {
+            newUsers.add(newUser(email));
+        }
+
+        users.addAll(userService.createUsers(newUsers));
+
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+
+        do {
+            CursorPage<UserDTO> page = userService.getUsers(cursor, "email", Sort.Direction.ASC, 4);
+            page.getContent().forEach(user -> seen.add(user.getEmail()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        Assert.assertEquals(users.stream().map(User::getEmail).sorted(UserService.EMAIL_ORDER).collect(Collectors.toList()), seen);
+
+        for (int shard = 0; shard < shardRoutingDataSource.getShardCount(); shard++) {
+            List<String> shardEmails = shardTemplate(shard).queryForList("select email from \"user\" order by email", String.class);
+            List<String> mergedEmails = seen.stream().filter(shardEmails::contains).collect(Collectors.toList());
+
+            Assert.assertEquals(mergedEmails, shardEmails);
+        }
+    }
+
+    @Test
+    public void testDeleteUsersById_acrossShards() {
+        List<Long> ids = users.stream().map(User::getId).limit(10).collect(Collectors.toList());
+
+        Assert.assertEquals(new HashSet<>(ids), new HashSet<>(userService.deleteUsersById(ids)));
+
+        int remaining = 0;
+
+        for (int shard = 0; shard < shardRoutingDataSource.getShardCount(); shard++) {
+            remaining += countUsers(shard);
+        }
+
+        Assert.assertEquals(USER_COUNT - 10, remaining);
+    }
+
+    @Test(expected = UserNotFoundException.class)
+    public void testGetUserDTO_afterDelete() {
+        userService.deleteUserById(users.get(0).getId(), null);
+
+        userService.getUserDTO(users.get(0).getId());
+    }
+
+    @Test(expected = ValidationException.class)
+    public void testUpdateUser_emailCannotChange() {
+        userService.updateUserById(users.get(0).getId(), "another@domain.com", null, null, null, null, null);
+    }
+
+    @Test
+    public void testRebalance_movesBucketsWithoutChangingIds() {
+        // Empty the last shard, as if it had just been added
+        for (int bucket : shardMap.bucketsOf(2)) {
+            shardRebalancer.moveBucket(bucket, bucket % 2);
+        }
+
+        Assert.assertEquals(0, countUsers(2));
+        Assert.assertFalse(shardRebalancer.plan().isEmpty());
+
+        shardRebalancer.rebalance();
+
+        Assert.assertTrue(shardRebalancer.plan().isEmpty());
+        Assert.assertTrue(countUsers(2) > 0);
+
+        for (int shard = 0; shard < shardRoutingDataSource.getShardCount(); shard++) {
+            Assert.assertTrue(Math.abs(shardMap.bucketsOf(shard).size() - ShardMap.BUCKET_COUNT / 3) <= 1);
+        }
+
+        for (User user : users) {
+            Assert.assertEquals(user.getEmail(), userService.getUserDTO(user.getId()).getEmail());
+            Assert.assertEquals(1, countRows(shardMap.shardOfId(user.getId()), "select count(*) from user_addresses where user_id = " + user.getId()));
+        }
+    }
+
+    private static User newUser(String email) {
+        User user = new User();
+        user.setEmail(email);
+        user.setPasswordHash("a password hash");
+        user.setFirstName("First");
+        user.setLastName("Last");
+        user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+        user.setAddresses(new HashSet<>());
+        return user;
+    }
+
+    private List<String> sortedEmails() {
+        return users.stream().map(User::getEmail).sorted().collect(Collectors.toList());
+    }
+
+    private int countUsers(int shard) {
+        return countRows(shard, "select count(*) from \"user\"");
+    }
+
+    private int countRows(int shard, String sql) {
+        return shardTemplate(shard).queryForObject(sql, Integer.class);
+    }
+
+    private JdbcTemplate shardTemplate(int shard) {
+        return new JdbcTemplate(shardRoutingDataSource.getShard(shard));
+    }
+}
@@ -4,21 +4,33 @@ import dev.mvvasilev.entity.User;
 import dev.mvvasilev.exception.UserNotFoundException;
 import dev.mvvasilev.exception.ValidationException;
 import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.security.CachingUserDetailsService;
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.security.PermissionVersionCache;
+import dev.mvvasilev.security.VerifiedCredentialCache;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
-import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
-import org.modelmapper.ModelMapper;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.time.LocalDate;
 import java.time.Month;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 @RunWith(MockitoJUnitRunner.class)
 public class UserServiceTest {
@@ -33,6 +45,8 @@ public class UserServiceTest {
 
     private static final String PASSWORD = "test_password123";
 
+    private static final String PASSWORD_HASH = "a password hash";
+
     private static final LocalDate DATE_OF_BIRTH = LocalDate.of(1997, Month.DECEMBER, 6);
 
     private static final String UPDATED_EMAIL = "updatedemail@domain.com";
@@ -48,76 +62,96 @@ public class UserServiceTest {
     @Mock
     private UserRepository userRepository;
 
-    @Spy
-    private BCryptPasswordEncoder passwordEncoder;
+    @Mock
+    private PasswordHashingService passwordHashingService;
 
-    @Spy
-    private ModelMapper modelMapper;
+    @Mock
+    private PermissionVersionCache permissionVersionCache;
 
-    private User createdUser;
+    @Mock
+    private CachingUserDetailsService userDetailsCache;
 
-    private User createdUserWithId;
+    @Mock
+    private VerifiedCredentialCache credentialCache;
+
+    @Mock
+    private EmailBloomFilter emailFilter;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
 
-    private User updatedUser;
+    private User createdUserWithId;
 
     @Before
     public void init() {
-        userService = new UserService(userRepository, passwordEncoder, tokenProvider);
-
-        createdUser = new User();
-        createdUser.setEmail(EMAIL);
-        createdUser.setFirstName(FIRST_NAME);
-        createdUser.setLastName(LAST_NAME);
-        createdUser.setPasswordHash(passwordEncoder.encode(PASSWORD));
-        createdUser.setDateOfBirth(DATE_OF_BIRTH);
+        userService = service().build();
 
         createdUserWithId = new User();
-        modelMapper.map(createdUser, createdUserWithId);
         createdUserWithId.setId(USER_ID);
-
-        updatedUser = new User();
-        updatedUser.setId(USER_ID);
-        updatedUser.setEmail(UPDATED_EMAIL);
-        updatedUser.setFirstName(UPDATED_FIRST_NAME);
-        updatedUser.setLastName(UPDATED_LAST_NAME);
-        updatedUser.setPasswordHash(createdUser.getPasswordHash());
-        updatedUser.setDateOfBirth(UPDATED_DATE_OF_BIRTH);
+        createdUserWithId.setEmail(EMAIL);
+        createdUserWithId.setFirstName(FIRST_NAME);
+        createdUserWithId.setLastName(LAST_NAME);
+        createdUserWithId.setPasswordHash(PASSWORD_HASH);
+        createdUserWithId.setDateOfBirth(DATE_OF_BIRTH);
+        createdUserWithId.setPermissions(EnumSet.of(Permission.READ_SELF));
     }
 
     @Test
     public void testCreateUser() {
-        Mockito.when(userRepository.save(Mockito.any(User.class))).thenReturn(createdUserWithId);
-        Mockito.when(userRepository.getUserByEmail(EMAIL)).thenReturn(Optional.empty());
-
-        long id = userService.createUser(EMAIL, FIRST_NAME, LAST_NAME, PASSWORD, DATE_OF_BIRTH);
+        Mockito.when(passwordHashingService.encode(PASSWORD)).thenReturn(CompletableFuture.completedFuture(PASSWORD_HASH));
+        Mockito.when(userRepository.saveAndFlush(Matchers.any(User.class))).thenAnswer(invocation -> {
+            User user = (User) invocation.getArguments()[0];
+            user.setId(USER_ID);
+            return user;
+        });
+
+        User user = userService.createUser(EMAIL, PASSWORD, FIRST_NAME, LAST_NAME, DATE_OF_BIRTH, Collections.emptySet()).join();
+
+        Assert.assertEquals(USER_ID, (long) user.getId());
+        Assert.assertEquals(PASSWORD_HASH, user.getPasswordHash());
+        Mockito.verify(emailFilter).put(EMAIL);
+    }
 
-        Assert.assertEquals(USER_ID, id);
+    @Test
+    public void testCreateUser_withFullWriteQueue() {
+        userService = service()
+                .writeExecutor(task -> {
+                    throw new TaskRejectedException("User write queue is full");
+                })
+                .build();
+
+        Mockito.when(passwordHashingService.encode(PASSWORD)).thenReturn(CompletableFuture.completedFuture(PASSWORD_HASH));
+
+        try {
+            userService.createUser(EMAIL, PASSWORD, FIRST_NAME, LAST_NAME, DATE_OF_BIRTH, Collections.emptySet()).join();
+            Assert.fail("Expected the user to be rejected");
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        Mockito.verify(userRepository, Mockito.never()).saveAndFlush(Matchers.any(User.class));
     }
 
     @Test(expected = ValidationException.class)
     public void testCreateUser_withAlreadyExistingEmail() {
-        Mockito.when(userRepository.save(Mockito.any(User.class))).thenReturn(createdUserWithId);
-        Mockito.when(userRepository.getUserByEmail(EMAIL)).thenReturn(Optional.of(createdUserWithId));
+        Mockito.when(emailFilter.mightContain(EMAIL)).thenReturn(true);
+        Mockito.when(userRepository.existsByEmail(EMAIL)).thenReturn(true);
 
-        userService.createUser(EMAIL, FIRST_NAME, LAST_NAME, PASSWORD, DATE_OF_BIRTH);
+        userService.createUser(EMAIL, PASSWORD, FIRST_NAME, LAST_NAME, DATE_OF_BIRTH, Collections.emptySet());
     }
 
     @Test(expected = ValidationException.class)
     public void testCreateUser_withFutureDateOfBirth() {
-        Mockito.when(userRepository.save(Mockito.any(User.class))).thenReturn(createdUserWithId);
-        Mockito.when(userRepository.getUserByEmail(EMAIL)).thenReturn(Optional.empty());
-
         LocalDate futureDate = LocalDate.now().plusDays(7);
 
-        userService.createUser(EMAIL, FIRST_NAME, LAST_NAME, PASSWORD, futureDate);
+        userService.createUser(EMAIL, PASSWORD, FIRST_NAME, LAST_NAME, futureDate, Collections.emptySet());
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void testCreateUser_withNullEmail() {
-        userService.createUser(null, FIRST_NAME, LAST_NAME, PASSWORD, DATE_OF_BIRTH);
+        userService.createUser(null, PASSWORD, FIRST_NAME, LAST_NAME, DATE_OF_BIRTH, Collections.emptySet());
     }
 
-
     @Test
     public void testGetUser() {
         Mockito.when(userRepository.findById(USER_ID)).thenReturn(Optional.of(createdUserWithId));
@@ -130,111 +164,144 @@ public class UserServiceTest {
     @Test
     public void testUpdateUser() {
         Mockito.when(userRepository.findById(USER_ID)).thenReturn(Optional.of(createdUserWithId));
-        Mockito.when(userRepository.getUserByEmail(UPDATED_EMAIL)).thenReturn(Optional.empty());
-        Mockito.when(userRepository.save(updatedUser)).thenReturn(updatedUser);
 
-        User user = userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, UPDATED_DATE_OF_BIRTH);
+        User user = userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, UPDATED_DATE_OF_BIRTH, null, null);
 
-        Assert.assertEquals(updatedUser, user);
+        Assert.assertEquals(UPDATED_EMAIL, user.getEmail());
+        Assert.assertEquals(UPDATED_FIRST_NAME, user.getFirstName());
+        Assert.assertEquals(UPDATED_LAST_NAME, user.getLastName());
+        Assert.assertEquals(UPDATED_DATE_OF_BIRTH, user.getDateOfBirth());
+
+        // Tokens issued for the old email must no longer authenticate
+        Mockito.verify(permissionVersionCache).invalidate(EMAIL);
+        Mockito.verify(credentialCache).evict(EMAIL);
+        Mockito.verify(emailFilter).put(UPDATED_EMAIL);
     }
 
     @Test
     public void testUpdateUser_withNullEmail() {
-        User updatedUserWithSameEmail = modelMapper.map(updatedUser, User.class);
-        updatedUserWithSameEmail.setEmail(createdUser.getEmail());
-
         Mockito.when(userRepository.findById(USER_ID)).thenReturn(Optional.of(createdUserWithId));
-        Mockito.when(userRepository.getUserByEmail(UPDATED_EMAIL)).thenReturn(Optional.empty());
-        Mockito.when(userRepository.save(updatedUserWithSameEmail)).thenReturn(updatedUserWithSameEmail);
 
-        User user = userService.updateUserById(USER_ID, null, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, UPDATED_DATE_OF_BIRTH);
+        User user = userService.updateUserById(USER_ID, null, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, UPDATED_DATE_OF_BIRTH, null, null);
 
-        Assert.assertEquals(updatedUserWithSameEmail, user);
+        Assert.assertEquals(EMAIL, user.getEmail());
+        Assert.assertEquals(UPDATED_FIRST_NAME, user.getFirstName());
+        Mockito.verify(permissionVersionCache, Mockito.never()).invalidate(Matchers.anyString());
     }
 
     @Test
     public void testUpdateUser_withNullFirstName() {
-        User updatedUserWithSameFirstName = modelMapper.map(updatedUser, User.class);
-        updatedUserWithSameFirstName.setFirstName(createdUser.getFirstName());
-
         Mockito.when(userRepository.findById(USER_ID)).thenReturn(Optional.of(createdUserWithId));
-        Mockito.when(userRepository.getUserByEmail(UPDATED_EMAIL)).thenReturn(Optional.empty());
-        Mockito.when(userRepository.save(updatedUserWithSameFirstName)).thenReturn(updatedUserWithSameFirstName);
 
-        User user = userService.updateUserById(USER_ID, UPDATED_EMAIL, null, UPDATED_LAST_NAME, UPDATED_DATE_OF_BIRTH);
+        User user = userService.updateUserById(USER_ID, UPDATED_EMAIL, null, UPDATED_LAST_NAME, UPDATED_DATE_OF_BIRTH, null, null);
 
-        Assert.assertEquals(updatedUserWithSameFirstName, user);
+        Assert.assertEquals(FIRST_NAME, user.getFirstName());
+        Assert.assertEquals(UPDATED_LAST_NAME, user.getLastName());
     }
 
     @Test
     public void testUpdateUser_withNullLastName() {
-        User updatedUserWithSameLastName = modelMapper.map(updatedUser, User.class);
-        updatedUserWithSameLastName.setLastName(createdUser.getLastName());
-
         Mockito.when(userRepository.findById(USER_ID)).thenReturn(Optional.of(createdUserWithId));
-        Mockito.when(userRepository.getUserByEmail(UPDATED_EMAIL)).thenReturn(Optional.empty());
-        Mockito.when(userRepository.save(updatedUserWithSameLastName)).thenReturn(updatedUserWithSameLastName);
 
-        User user = userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, null, UPDATED_DATE_OF_BIRTH);
+        User user = userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, null, UPDATED_DATE_OF_BIRTH, null, null);
 
-        Assert.assertEquals(updatedUserWithSameLastName, user);
+        Assert.assertEquals(LAST_NAME, user.getLastName());
+        Assert.assertEquals(UPDATED_FIRST_NAME, user.getFirstName());
     }
 
     @Test
     public void testUpdateUser_withNullDateOfBirth() {
-        User updatedUserWithSameDateOfBirth = modelMapper.map(updatedUser, User.class);
-        updatedUserWithSameDateOfBirth.setDateOfBirth(createdUser.getDateOfBirth());
-
         Mockito.when(userRepository.findById(USER_ID)).thenReturn(Optional.of(createdUserWithId));
-        Mockito.when(userRepository.getUserByEmail(UPDATED_EMAIL)).thenReturn(Optional.empty());
-        Mockito.when(userRepository.save(updatedUserWithSameDateOfBirth)).thenReturn(updatedUserWithSameDateOfBirth);
 
-        User user = userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, null);
+        User user = userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, null, null, null);
 
-        Assert.assertEquals(updatedUserWithSameDateOfBirth, user);
+        Assert.assertEquals(DATE_OF_BIRTH, user.getDateOfBirth());
+        Assert.assertEquals(UPDATED_LAST_NAME, user.getLastName());
     }
 
     @Test(expected = ValidationException.class)
     public void testUpdateUser_withFutureDateOfBirth() {
         Mockito.when(userRepository.findById(USER_ID)).thenReturn(Optional.of(createdUserWithId));
-        Mockito.when(userRepository.getUserByEmail(UPDATED_EMAIL)).thenReturn(Optional.empty());
-        Mockito.when(userRepository.save(updatedUser)).thenReturn(updatedUser);
 
         LocalDate futureDate = LocalDate.now().plusDays(7);
 
-        userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, futureDate);
+        userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, futureDate, null, null);
     }
 
     @Test(expected = ValidationException.class)
     public void testUpdateUser_withAlreadyExistingEmail() {
         Mockito.when(userRepository.findById(USER_ID)).thenReturn(Optional.of(createdUserWithId));
-        Mockito.when(userRepository.getUserByEmail(UPDATED_EMAIL)).thenReturn(Optional.of(updatedUser));
-        Mockito.when(userRepository.save(updatedUser)).thenReturn(updatedUser);
+        Mockito.when(emailFilter.mightContain(UPDATED_EMAIL)).thenReturn(true);
+        Mockito.when(userRepository.existsByEmail(UPDATED_EMAIL)).thenReturn(true);
 
-        userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, UPDATED_DATE_OF_BIRTH);
+        userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, UPDATED_DATE_OF_BIRTH, null, null);
     }
 
     @Test(expected = UserNotFoundException.class)
     public void testUpdateUser_withNonExistentUserId() {
         Mockito.when(userRepository.findById(USER_ID)).thenReturn(Optional.empty());
-        Mockito.when(userRepository.getUserByEmail(UPDATED_EMAIL)).thenReturn(Optional.empty());
-        Mockito.when(userRepository.save(updatedUser)).thenReturn(updatedUser);
 
-        userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, UPDATED_DATE_OF_BIRTH);
+        userService.updateUserById(USER_ID, UPDATED_EMAIL, UPDATED_FIRST_NAME, UPDATED_LAST_NAME, UPDATED_DATE_OF_BIRTH, null, null);
+    }
+
+    @Test
+    public void testUpdatePermissions_invalidatesPermissionVersion() {
+        Mockito.when(userRepository.findById(USER_ID)).thenReturn(Optional.of(createdUserWithId));
+
+        User user = userService.updatePermissions(USER_ID, EnumSet.of(Permission.READ_SELF, Permission.UPDATE_SELF));
+
+        Assert.assertEquals(1, user.getPermissionsVersion());
+        Assert.assertEquals(EnumSet.of(Permission.READ_SELF, Permission.UPDATE_SELF), user.getPermissions());
+        Mockito.verify(permissionVersionCache).invalidate(EMAIL);
+        Mockito.verify(userDetailsCache).evict(EMAIL);
     }
 
     @Test
     public void testDeleteUser() {
-        userService.deleteUserById(USER_ID);
+        Mockito.when(userRepository.findIdsAndEmailsByIdIn(Collections.singletonList(USER_ID)))
+                .thenReturn(Collections.singletonList(new Object[]{USER_ID, EMAIL}));
+
+        Assert.assertTrue(userService.deleteUserById(USER_ID, null));
+
+        Mockito.verify(userRepository).deleteAddressesByUserIdIn(Collections.singletonList(USER_ID));
+        Mockito.verify(userRepository).deleteAllByIdIn(Collections.singletonList(USER_ID));
+
+        // Tokens issued to the deleted user must no longer authenticate
+        Mockito.verify(permissionVersionCache).invalidate(EMAIL);
+        Mockito.verify(userDetailsCache).evict(EMAIL);
+        Mockito.verify(credentialCache).evict(EMAIL);
+    }
+
+    @Test
+    public void testDeleteUser_withNonExistentUserId() {
+        Mockito.when(userRepository.findIdsAndEmailsByIdIn(Collections.singletonList(USER_ID))).thenReturn(Collections.emptyList());
+
+        Assert.assertFalse(userService.deleteUserById(USER_ID, null));
+
+        Mockito.verify(userRepository, Mockito.never()).deleteAllByIdIn(Matchers.anyCollectionOf(Long.class));
+        Mockito.verify(permissionVersionCache, Mockito.never()).invalidate(Matchers.anyString());
     }
 
     @Test
     public void testGetUsers() {
-        userService.getUsers(PageRequest.of(0, 5));
+        Pageable pageable = PageRequest.of(0, 5);
+        Page<Long> noIds = new PageImpl<>(Collections.emptyList(), pageable, 0);
+        Mockito.when(userRepository.findUserIds(pageable)).thenReturn(noIds);
+
+        Assert.assertEquals(0, userService.getUsers(pageable).getTotalElements());
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void testGetUsers_withNullPageable() {
         userService.getUsers(null);
     }
+
+    private UserServiceBuilder service() {
+        return new UserServiceBuilder(userRepository, transactionManager)
+                .passwordHashingService(passwordHashingService)
+                .permissionVersionCache(permissionVersionCache)
+                .userDetailsCache(userDetailsCache)
+                .credentialCache(credentialCache)
+                .emailFilter(emailFilter);
+    }
 }
@@ -0,0 +1,150 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.exception.PreconditionFailedException;
+import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.util.Address;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+public class UserServiceUpdateTest {
+
+    @Configuration
+    @EntityScan(basePackageClasses = User.class)
+    @EnableJpaRepositories(basePackageClasses = UserRepository.class)
+    static class TestConfiguration {
+    }
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private UserService userService;
+
+    private Statistics statistics;
+
+    private long userId;
+
+    @Before
+    public void init() {
+        userService = new UserServiceBuilder(userRepository, transactionManager).build();
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        User user = new User();
+        user.setEmail("someemail@domain.com");
+        user.setPasswordHash("a password hash");
+        user.setFirstName("First");
+        user.setLastName("Last");
+        user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+        user.setPermissions(EnumSet.of(Permission.READ_SELF));
+        user.setAddresses(new HashSet<>(Arrays.asList(address("1 Some Street"), address("2 Some Street"))));
+
+        userId = entityManager.persistAndFlush(user).getId();
+        entityManager.clear();
+        statistics.clear();
+    }
+
+    @Test
+    public void testUpdateUserById_writesOnlyChangedAddresses() {
+        Set<Address> addresses = new HashSet<>(Arrays.asList(address("1 Some Street"), address("3 Some Street")));
+
+        userService.updateUserById(userId, null, null, null, null, addresses, null);
+        entityManager.flush();
+
+        Assert.assertEquals(0, statistics.getCollectionRecreateCount());
+        Assert.assertEquals(1, statistics.getCollectionUpdateCount());
+
+        entityManager.clear();
+        Assert.assertEquals(addresses, userService.getUser(userId).getAddresses());
+    }
+
+    @Test
+    public void testUpdateUserById_withoutAddresses() {
+        userService.updateUserById(userId, null, "NewFirst", null, null, null, null);
+        entityManager.flush();
+
+        Assert.assertEquals(0, statistics.getCollectionUpdateCount());
+        Assert.assertEquals(0, statistics.getCollectionRecreateCount());
+        Assert.assertEquals(1, statistics.getEntityUpdateCount());
+
+        entityManager.clear();
+        User user = userService.getUser(userId);
+        Assert.assertEquals("NewFirst", user.getFirstName());
+        Assert.assertEquals(2, user.getAddresses().size());
+    }
+
+    @Test
+    public void testUpdateUserById_incrementsVersion() {
+        long version = userService.getUserVersion(userId);
+
+        User user = userService.updateUserById(userId, null, "NewFirst", null, null, null, version);
+        entityManager.flush();
+
+        Assert.assertEquals(version + 1, user.getVersion());
+        Assert.assertEquals(version + 1, userService.getUserVersion(userId));
+        Assert.assertNotNull(user.getUpdatedAt());
+    }
+
+    @Test(expected = PreconditionFailedException.class)
+    public void testUpdateUserById_withStaleVersion() {
+        long version = userService.getUserVersion(userId);
+
+        userService.updateUserById(userId, null, "NewFirst", null, null, null, version + 1);
+    }
+
+    @Test
+    public void testDeleteUserById_withExpectedVersion() {
+        long version = userService.getUserVersion(userId);
+
+        try {
+            userService.deleteUserById(userId, version + 1);
+            Assert.fail("Expected the delete to fail with a stale version");
+        } catch (PreconditionFailedException e) {
+            // expected
+        }
+
+        Assert.assertTrue(userService.deleteUserById(userId, version));
+        Assert.assertFalse(userService.deleteUserById(userId, version));
+    }
+
+    private static Address address(String streetAddress) {
+        Address address = new Address();
+        address.setCountry("BG");
+        address.setCity("Sofia");
+        address.setStreetAddress(streetAddress);
+        address.setPostCode("1000");
+        return address;
+    }
+}
@@ -0,0 +1,144 @@
+package dev.mvvasilev.service;
+
+import dev.mvvasilev.entity.User;
+import dev.mvvasilev.exception.UserNotFoundException;
+import dev.mvvasilev.repository.UserRepository;
+import dev.mvvasilev.security.Permission;
+import dev.mvvasilev.util.Address;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+
+@RunWith(SpringRunner.class)
+@DataJpaTest
+public class UserSoftDeleteTest {
+
+    private static final int USER_COUNT = 4;
+
+    @Configuration
+    @EntityScan(basePackageClasses = User.class)
+    @EnableJpaRepositories(basePackageClasses = UserRepository.class)
+    static class TestConfiguration {
+    }
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private UserShards shards;
+
+    private UserService userService;
+
+    private List<Long> userIds;
+
+    @Before
+    public void init() {
+        shards = new UserShards(transactionManager, Optional.empty());
+        userService = new UserServiceBuilder(userRepository, transactionManager)
+                .shards(shards)
+                .softDelete(true)
+                .build();
+
+        userIds = new ArrayList<>();
+
+        for (int i = 0; i < USER_COUNT; i++) {
+            User user = new User();
+            user.setEmail("user" + i + "@domain.com");
+            user.setPasswordHash("a password hash");
+            user.setFirstName("First");
+            user.setLastName("Last");
+            user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+            user.setPermissions(EnumSet.of(Permission.READ_SELF));
+
+            Address address = new Address();
+            address.setCountry("BG");
+            address.setCity("Sofia");
+            address.setStreetAddress(i + " Some Street");
+            address.setPostCode("1000");
+            user.setAddresses(Collections.singleton(address));
+
+            userIds.add(entityManager.persist(user).getId());
+        }
+
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    public void testDeleteUserById_hidesUser() {
+        long userId = userIds.get(0);
+
+        Assert.assertTrue(userService.deleteUserById(userId, null));
+
+        Assert.assertFalse(userRepository.findById(userId).isPresent());
+        Assert.assertFalse(userRepository.getUserByEmail("user0@domain.com").isPresent());
+        Assert.assertFalse(userRepository.existsByEmail("user0@domain.com"));
+        Assert.assertFalse(userRepository.findPermissionsVersionByEmail("user0@domain.com").isPresent());
+        Assert.assertEquals(USER_COUNT - 1, userRepository.count());
+        Assert.assertFalse(userService.deleteUserById(userId, null));
+
+        // The rows remain until purged
+        Assert.assertEquals(1, countRows("select count(*) from user_addresses where user_id = " + userId));
+    }
+
+    @Test(expected = UserNotFoundException.class)
+    public void testGetUser_afterDelete() {
+        userService.deleteUserById(userIds.get(0), null);
+
+        userService.getUserDTO(userIds.get(0));
+    }
+
+    @Test
+    public void testPurge_removesExpiredUsersInChunks() {
+        userService.deleteUsersById(userIds.subList(0, 3));
+
+        // A negative retention lets the users deleted just now be purged already
+        UserPurgeJob purgeJob = new UserPurgeJob(userRepository, shards, transactionManager, -60000, 2, 1000000);
+
+        Assert.assertEquals(3, purgeJob.purge());
+        Assert.assertEquals(0, purgeJob.purge());
+
+        Assert.assertEquals(0, countRows("select count(*) from user_addresses where user_id in (" + join(userIds.subList(0, 3)) + ")"));
+        Assert.assertEquals(1, countRows("select count(*) from user_addresses"));
+        Assert.assertEquals(userIds.get(3), userRepository.findAll().get(0).getId());
+    }
+
+    @Test
+    public void testPurge_keepsUsersWithinRetention() {
+        userService.deleteUserById(userIds.get(0), null);
+
+        UserPurgeJob purgeJob = new UserPurgeJob(userRepository, shards, transactionManager, 3600000, 2, 1000000);
+
+        Assert.assertEquals(0, purgeJob.purge());
+        Assert.assertEquals(1, countRows("select count(*) from user_addresses where user_id = " + userIds.get(0)));
+    }
+
+    private long countRows(String sql) {
+        return ((Number) entityManager.getEntityManager().createNativeQuery(sql).getSingleResult()).longValue();
+    }
+
+    private static String join(List<Long> ids) {
+        return ids.stream().map(String::valueOf).reduce((a, b) -> a + ", " + b).orElse("");
+    }
+}
@@ -0,0 +1,58 @@
+package dev.mvvasilev.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BloomFilterTest {
+
+    private static final int ELEMENTS = 10000;
+
+    @Test
+    public void testMightContain_hasNoFalseNegatives() {
+        BloomFilter filter = filled(0.01);
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            Assert.assertTrue(filter.mightContain("user" + i + "@domain.com"));
+        }
+    }
+
+    @Test
+    public void testMightContain_falsePositiveRateIsNearConfigured() {
+        BloomFilter filter = filled(0.01);
+        int falsePositives = 0;
+
+        for (int i = ELEMENTS; i < ELEMENTS * 2; i++) {
+            if (filter.mightContain("user" + i + "@domain.com")) {
+                falsePositives++;
+            }
+        }
+
+        Assert.assertTrue("Too many false positives: " + falsePositives, falsePositives < ELEMENTS * 0.02);
+        Assert.assertEquals(0.01, filter.expectedFalsePositiveProbability(), 0.005);
+    }
+
+    @Test
+    public void testApproximateElementCount() {
+        BloomFilter filter = filled(0.01);
+
+        Assert.assertEquals(ELEMENTS, filter.approximateElementCount(), ELEMENTS * 0.05);
+    }
+
+    @Test
+    public void testEmptyFilter() {
+        BloomFilter filter = new BloomFilter(ELEMENTS, 0.01);
+
+        Assert.assertFalse(filter.mightContain("user@domain.com"));
+        Assert.assertEquals(0.0, filter.expectedFalsePositiveProbability(), 0.0);
+    }
+
+    private static BloomFilter filled(double falsePositiveProbability) {
+        BloomFilter filter = new BloomFilter(ELEMENTS, falsePositiveProbability);
+
+        for (int i = 0; i < ELEMENTS; i++) {
+            filter.put("user" + i + "@domain.com");
+        }
+
+        return filter;
+    }
+}
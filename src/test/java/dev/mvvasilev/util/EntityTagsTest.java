@@ -0,0 +1,40 @@
+package dev.mvvasilev.util;
+
+import dev.mvvasilev.exception.PreconditionFailedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EntityTagsTest {
+
+    @Test
+    public void testOf() {
+        Assert.assertEquals("\"42\"", EntityTags.of(42));
+    }
+
+    @Test
+    public void testIsNotModified() {
+        Assert.assertTrue(EntityTags.isNotModified("\"42\"", 42));
+        Assert.assertTrue(EntityTags.isNotModified("W/\"42\"", 42));
+        Assert.assertTrue(EntityTags.isNotModified("\"41\", \"42\"", 42));
+        Assert.assertTrue(EntityTags.isNotModified("*", 42));
+        Assert.assertFalse(EntityTags.isNotModified("\"41\"", 42));
+        Assert.assertFalse(EntityTags.isNotModified(null, 42));
+    }
+
+    @Test
+    public void testExpectedVersion() {
+        Assert.assertEquals(Long.valueOf(42), EntityTags.expectedVersion("\"42\""));
+        Assert.assertNull(EntityTags.expectedVersion("*"));
+        Assert.assertNull(EntityTags.expectedVersion(null));
+    }
+
+    @Test(expected = PreconditionFailedException.class)
+    public void testExpectedVersion_withWeakTag() {
+        EntityTags.expectedVersion("W/\"42\"");
+    }
+
+    @Test(expected = PreconditionFailedException.class)
+    public void testExpectedVersion_withForeignTag() {
+        EntityTags.expectedVersion("\"abc\"");
+    }
+}